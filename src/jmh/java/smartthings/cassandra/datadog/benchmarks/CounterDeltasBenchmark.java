@@ -0,0 +1,84 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.yammer.metrics.core.MetricName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.CounterDeltas;
+import smartthings.cassandra.datadog.DefaultMetricNameFormatter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One poll worth of counter deltas, tracked in the open addressing tables of {@link CounterDeltas} and, for
+ * comparison, in a map of boxed counts by name
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterDeltasBenchmark {
+	@Param({"50000"})
+	public int series;
+
+	private String[] names;
+	private CounterDeltas deltas;
+	private Map<String, Long> lastCounts;
+	private long epoch;
+
+	@Setup
+	public void setup() {
+		MetricName[] metricNames = Schemas.tableMetricNames(series);
+		DefaultMetricNameFormatter formatter = new DefaultMetricNameFormatter();
+		names = new String[series];
+		for (int i = 0; i < series; i++) {
+			names[i] = formatter.format(metricNames[i], "count");
+		}
+		deltas = new CounterDeltas(series, 1, TimeUnit.HOURS);
+		lastCounts = new HashMap<String, Long>(series * 2);
+		poll(deltas, 0);
+		poll(lastCounts, 0);
+	}
+
+	@Benchmark
+	public long counterDeltas() {
+		return poll(deltas, ++epoch);
+	}
+
+	@Benchmark
+	public long hashMap() {
+		return poll(lastCounts, ++epoch);
+	}
+
+	private long poll(CounterDeltas deltas, long epoch) {
+		long sum = 0;
+		for (int i = 0; i < names.length; i++) {
+			sum += deltas.delta(names[i], epoch * i, epoch);
+		}
+		return sum;
+	}
+
+	private long poll(Map<String, Long> lastCounts, long epoch) {
+		long sum = 0;
+		for (int i = 0; i < names.length; i++) {
+			long count = epoch * i;
+			Long last = lastCounts.put(names[i], count);
+			if (last != null) {
+				sum += count >= last ? count - last : count;
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,73 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import smartthings.cassandra.datadog.Transport;
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.serializer.BatchSerializer;
+import smartthings.cassandra.datadog.serializer.Serializer;
+import smartthings.cassandra.datadog.serializer.SerializerFactory;
+
+import java.io.IOException;
+
+/**
+ * Serializes every request like a transport would and throws the body away. Requests take batches, the rows are
+ * serialized as rows by serializers that can, as series objects otherwise.
+ */
+class DiscardingTransport implements Transport {
+	private final SerializerFactory factory;
+	private long bytes;
+
+	DiscardingTransport(SerializerFactory factory) {
+		this.factory = factory;
+	}
+
+	@Override
+	public Request prepare() throws IOException {
+		final Serializer serializer = factory.create(ByteStreams.nullOutputStream());
+		serializer.startObject();
+		return new BatchRequest() {
+			@Override
+			public void addGauge(DatadogGauge gauge) throws IOException {
+				serializer.appendGauge(gauge);
+			}
+
+			@Override
+			public void addCounter(DatadogCounter counter) throws IOException {
+				serializer.appendCounter(counter);
+			}
+
+			@Override
+			public void addBatch(SeriesBatch batch) throws IOException {
+				for (int row = 0; row < batch.size(); row += batch.getPointCount(row)) {
+					if (serializer instanceof BatchSerializer) {
+						((BatchSerializer) serializer).appendRow(batch, row);
+					} else if (batch.isCounter(row)) {
+						serializer.appendCounter((DatadogCounter) batch.toSeries(row));
+					} else {
+						serializer.appendGauge((DatadogGauge) batch.toSeries(row));
+					}
+				}
+			}
+
+			@Override
+			public void send() throws Exception {
+				serializer.endObject();
+				bytes = serializer.getSize();
+				serializer.close();
+			}
+		};
+	}
+
+	/**
+	 * Size of the last body
+	 */
+	long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+}
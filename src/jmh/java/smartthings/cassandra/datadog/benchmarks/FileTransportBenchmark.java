@@ -0,0 +1,84 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.Transport;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.model.SeriesName;
+import smartthings.cassandra.datadog.model.SeriesNames;
+import smartthings.cassandra.datadog.transports.FileTransport;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a poll of series to a file, rotated every 64 MB
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTransportBenchmark {
+
+	@Param({"1000"})
+	public int series;
+
+	@Param({"TEXT", "BINARY"})
+	public FileTransport.Format format;
+
+	private File dir;
+	private FileTransport transport;
+	private SeriesBatch batch;
+
+	@Setup
+	public void setup() throws Exception {
+		dir = File.createTempFile("file-transport", "");
+		dir.delete();
+		dir.mkdir();
+		transport = new FileTransport.Builder()
+			.withFile(new File(dir, "metrics"))
+			.withFormat(format)
+			.withMaxFileBytes(64 * 1024 * 1024)
+			.withMaxFiles(1)
+			.build();
+		SeriesNames seriesNames = new SeriesNames(Arrays.asList("env:bench", "dc:east"));
+		batch = new SeriesBatch("node1", series * 2, false);
+		for (int i = 0; i < series; i++) {
+			String tags = "[keyspace:ks" + (i % 10) + ",table:table" + i + "]";
+			SeriesName gauge = seriesNames.get("cassandra.ColumnFamily.ReadLatency.p99" + tags);
+			SeriesName counter = seriesNames.get("cassandra.ColumnFamily.WriteLatency.count" + tags);
+			batch.addGauge(gauge, 1400000000L, i * 1.5d);
+			batch.addCounter(counter, 1400000000L, i * 1000L, null);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		transport.close();
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public long poll() throws Exception {
+		Transport.Request request = transport.prepare();
+		batch.replayTo(request);
+		request.send();
+		return transport.getRotations();
+	}
+}
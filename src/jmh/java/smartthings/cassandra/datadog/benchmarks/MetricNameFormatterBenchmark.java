@@ -0,0 +1,81 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.yammer.metrics.core.MetricName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import smartthings.cassandra.datadog.CachingMetricNameFormatter;
+import smartthings.cassandra.datadog.DatadogReporter;
+import smartthings.cassandra.datadog.DefaultMetricNameFormatter;
+import smartthings.cassandra.datadog.MetricNameFormatter;
+import smartthings.cassandra.datadog.PrefixReplacingFormatter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats every name and expansion of a table metrics like schema once per invocation, the way a poll does. Run
+ * with the gc profiler to compare the allocation rate, gc.alloc.rate.norm, with and without the name cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricNameFormatterBenchmark {
+
+	@Param({"1000"})
+	public int metrics;
+
+	private MetricName[] names;
+	private String[] expansions;
+	private MetricNameFormatter defaultFormatter;
+	private MetricNameFormatter formatter;
+	private MetricNameFormatter cachingFormatter;
+
+	@Setup
+	public void setup() {
+		names = Schemas.tableMetricNames(metrics);
+		DatadogReporter.Expansions[] values = DatadogReporter.Expansions.values();
+		expansions = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			expansions[i] = values[i].toString();
+		}
+		defaultFormatter = new DefaultMetricNameFormatter();
+		formatter = new PrefixReplacingFormatter("org.apache.cassandra.metrics", "cassandra");
+		cachingFormatter = new CachingMetricNameFormatter(formatter, names.length);
+	}
+
+	@Benchmark
+	public void defaultFormatter(Blackhole blackhole) {
+		formatAll(defaultFormatter, blackhole);
+	}
+
+	@Benchmark
+	public void uncached(Blackhole blackhole) {
+		formatAll(formatter, blackhole);
+	}
+
+	@Benchmark
+	public void cached(Blackhole blackhole) {
+		formatAll(cachingFormatter, blackhole);
+	}
+
+	private void formatAll(MetricNameFormatter formatter, Blackhole blackhole) {
+		for (MetricName name : names) {
+			blackhole.consume(formatter.format(name));
+			for (String expansion : expansions) {
+				blackhole.consume(formatter.format(name, expansion));
+			}
+		}
+	}
+}
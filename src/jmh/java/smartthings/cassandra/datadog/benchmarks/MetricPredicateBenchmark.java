@@ -0,0 +1,129 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricPredicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.CompiledMetricPredicate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Filters the names of a large schema with the same include and exclude lists, once as a list of regular
+ * expressions tried one after the other and once compiled, with and without the per metric cache. The compiled
+ * predicate alternates the regular expressions, which cost linearly in their number, so it is varied; setup
+ * prints how the patterns were split between the matching strategies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricPredicateBenchmark {
+	private static final String[] INCLUDED_METRICS = {
+		"ReadLatency", "WriteLatency", "RangeLatency", "LiveSSTableCount", "PendingCompactions"
+	};
+
+	@Param({"50000"})
+	public int metrics;
+
+	@Param({"5", "50"})
+	public int regexes;
+
+	private MetricName[] names;
+	private MetricPredicate naive;
+	private MetricPredicate compiled;
+	private MetricPredicate memoized;
+
+	@Setup
+	public void setup() {
+		names = Schemas.tableMetricNames(metrics);
+		final List<Pattern> includes = new ArrayList<Pattern>();
+		final List<Pattern> excludes = new ArrayList<Pattern>();
+		CompiledMetricPredicate.Builder builder = new CompiledMetricPredicate.Builder();
+		for (String metric : INCLUDED_METRICS) {
+			String glob = Schemas.GROUP + ".ColumnFamily.*." + metric;
+			includes.add(Pattern.compile(Pattern.quote(Schemas.GROUP + ".ColumnFamily.") + ".*" + Pattern.quote("." + metric)));
+			builder.includeGlob(glob);
+		}
+		for (String type : new String[]{"ClientRequest", "Storage", "Cache", "ThreadPools", "Compaction"}) {
+			includes.add(Pattern.compile(Pattern.quote(Schemas.GROUP + "." + type + ".") + ".*"));
+			builder.includePrefix(Schemas.GROUP + "." + type + ".");
+		}
+		for (int ks = 0; ks < regexes; ks++) {
+			includes.add(Pattern.compile(".*\\.ks" + ks + "\\.table1\\d*\\..*"));
+			builder.includeRegex(".*\\.ks" + ks + "\\.table1\\d*\\..*");
+		}
+		for (String keyspace : new String[]{"system", "system_auth", "system_traces", "ks9"}) {
+			excludes.add(Pattern.compile(Pattern.quote(Schemas.GROUP + ".ColumnFamily." + keyspace + ".") + ".*"));
+			builder.excludePrefix(Schemas.GROUP + ".ColumnFamily." + keyspace + ".");
+		}
+		naive = new MetricPredicate() {
+			@Override
+			public boolean matches(MetricName name, Metric metric) {
+				String fullName = fullName(name);
+				for (Pattern exclude : excludes) {
+					if (exclude.matcher(fullName).matches()) {
+						return false;
+					}
+				}
+				for (Pattern include : includes) {
+					if (include.matcher(fullName).matches()) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		compiled = builder.withCacheSize(0).build();
+		memoized = builder.withCacheSize(CompiledMetricPredicate.DEFAULT_CACHE_SIZE).build();
+		System.out.println(compiled);
+	}
+
+	@Benchmark
+	public int naive() {
+		return filter(naive);
+	}
+
+	@Benchmark
+	public int compiled() {
+		return filter(compiled);
+	}
+
+	@Benchmark
+	public int memoized() {
+		return filter(memoized);
+	}
+
+	private int filter(MetricPredicate predicate) {
+		int matched = 0;
+		for (MetricName name : names) {
+			if (predicate.matches(name, null)) {
+				matched++;
+			}
+		}
+		return matched;
+	}
+
+	private static String fullName(MetricName name) {
+		StringBuilder sb = new StringBuilder(name.getGroup()).append('.').append(name.getType()).append('.');
+		if (name.hasScope()) {
+			sb.append(name.getScope()).append('.');
+		}
+		return sb.append(name.getName()).toString();
+	}
+}
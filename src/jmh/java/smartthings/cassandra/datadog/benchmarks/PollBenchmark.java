@@ -0,0 +1,81 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.yammer.metrics.core.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.DatadogReporter;
+import smartthings.cassandra.datadog.PrefixReplacingFormatter;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.serializer.JsonSerializer;
+import smartthings.cassandra.datadog.serializer.SerializerFactory;
+import smartthings.cassandra.datadog.serializer.StreamingJsonSerializer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full poll of the reporter over a synthetic registry, from walking the registry to the serialized body.
+ * The body is serialized and discarded, see {@link DiscardingTransport}. Run with the gc profiler for the
+ * allocation per poll, gc.alloc.rate.norm. Series are either added as objects one at a time, or as rows of
+ * columnar batches on or off the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PollBenchmark {
+
+	@Param({"1000", "10000", "50000"})
+	public int metrics;
+
+	@Param({"jackson", "streaming"})
+	public String serializer;
+
+	@Param({"objects", "heap", "offheap"})
+	public String series;
+
+	private MetricsRegistry registry;
+	private DiscardingTransport transport;
+	private DatadogReporter reporter;
+
+	@Setup
+	public void setup() {
+		registry = Schemas.tableMetrics(metrics);
+		SerializerFactory factory = serializer.equals("jackson")
+			? new JsonSerializer.Factory()
+			: new StreamingJsonSerializer.Factory();
+		transport = new DiscardingTransport(factory);
+		reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(transport)
+			.withHost("node1")
+			.withTags(Arrays.asList("env:bench", "dc:east"))
+			.withMetricNameFormatter(new PrefixReplacingFormatter(Schemas.GROUP, "cassandra"))
+			.withVmMetricsEnabled(false)
+			.withSeriesBatches(series.equals("objects") ? 0 : SeriesBatch.DEFAULT_CAPACITY, series.equals("offheap"))
+			.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		registry.shutdown();
+	}
+
+	@Benchmark
+	public long poll() {
+		reporter.run();
+		return transport.getBytes();
+	}
+}
@@ -0,0 +1,72 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric names and registries shaped like the per table metrics of a cassandra node
+ */
+final class Schemas {
+	static final String GROUP = "org.apache.cassandra.metrics";
+	static final String[] TABLE_METRICS = {
+		"ReadLatency", "WriteLatency", "RangeLatency", "LiveSSTableCount", "MemtableColumnsCount",
+		"MemtableLiveDataSize", "PendingCompactions", "SSTablesPerReadHistogram", "TombstoneScannedHistogram",
+		"LiveScannedHistogram", "BloomFilterFalsePositives", "EstimatedRowCount"
+	};
+
+	private Schemas() {
+	}
+
+	/**
+	 * Names of count metrics, spread over tables of ten keyspaces
+	 */
+	static MetricName[] tableMetricNames(int count) {
+		MetricName[] names = new MetricName[count];
+		for (int i = 0; i < count; i++) {
+			int table = i / TABLE_METRICS.length;
+			String scope = "ks" + (table % 10) + ".table" + table;
+			names[i] = new MetricName(GROUP, "ColumnFamily", TABLE_METRICS[i % TABLE_METRICS.length], scope);
+		}
+		return names;
+	}
+
+	/**
+	 * A registry of count table metrics: latency timers, histograms, gauges and a counter per table, with a
+	 * thousand samples in every timer and histogram
+	 */
+	static MetricsRegistry tableMetrics(int count) {
+		MetricsRegistry registry = new MetricsRegistry();
+		Random random = new Random(42);
+		for (MetricName name : tableMetricNames(count)) {
+			String metric = name.getName();
+			if (metric.endsWith("Latency")) {
+				Timer timer = registry.newTimer(name, TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+				for (int i = 0; i < 1000; i++) {
+					timer.update(100 + random.nextInt(10000), TimeUnit.MICROSECONDS);
+				}
+			} else if (metric.endsWith("Histogram")) {
+				Histogram histogram = registry.newHistogram(name, true);
+				for (int i = 0; i < 1000; i++) {
+					histogram.update(random.nextInt(50));
+				}
+			} else if (metric.equals("BloomFilterFalsePositives")) {
+				registry.newCounter(name).inc(random.nextInt(1000));
+			} else {
+				final long value = random.nextInt(1000000);
+				registry.newGauge(name, new Gauge<Long>() {
+					@Override
+					public Long value() {
+						return value;
+					}
+				});
+			}
+		}
+		return registry;
+	}
+}
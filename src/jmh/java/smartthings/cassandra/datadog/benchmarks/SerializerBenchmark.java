@@ -0,0 +1,87 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.SeriesNames;
+import smartthings.cassandra.datadog.serializer.JsonSerializer;
+import smartthings.cassandra.datadog.serializer.Serializer;
+import smartthings.cassandra.datadog.serializer.SerializerFactory;
+import smartthings.cassandra.datadog.serializer.StreamingJsonSerializer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a body of prebuilt series, in memory and streamed to a discarding output stream
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+	@Param({"1000"})
+	public int series;
+
+	@Param({"jackson", "streaming"})
+	public String serializer;
+
+	private SerializerFactory factory;
+	private DatadogGauge[] gauges;
+	private DatadogCounter[] counters;
+
+	@Setup
+	public void setup() {
+		factory = serializer.equals("jackson") ? new JsonSerializer.Factory() : new StreamingJsonSerializer.Factory();
+		SeriesNames seriesNames = new SeriesNames(Arrays.asList("env:bench", "dc:east"));
+		gauges = new DatadogGauge[series];
+		counters = new DatadogCounter[series];
+		for (int i = 0; i < series; i++) {
+			String tags = "[keyspace:ks" + (i % 10) + ",table:table" + i + "]";
+			gauges[i] = new DatadogGauge(seriesNames.get("cassandra.ColumnFamily.ReadLatency.p99" + tags),
+				i * 1.5d, 1400000000L, "node1");
+			counters[i] = new DatadogCounter(seriesNames.get("cassandra.ColumnFamily.WriteLatency.count" + tags),
+				(long) i, 1400000000L, "node1");
+		}
+	}
+
+	@Benchmark
+	public long buffered() throws Exception {
+		Serializer s = factory.create();
+		appendAll(s);
+		s.writeTo(ByteStreams.nullOutputStream());
+		s.close();
+		return s.getSize();
+	}
+
+	@Benchmark
+	public long streamed() throws Exception {
+		Serializer s = factory.create(ByteStreams.nullOutputStream());
+		appendAll(s);
+		s.close();
+		return s.getSize();
+	}
+
+	private void appendAll(Serializer s) throws Exception {
+		s.startObject();
+		for (int i = 0; i < series; i++) {
+			s.appendGauge(gauges[i]);
+			s.appendCounter(counters[i]);
+		}
+		s.endObject();
+	}
+}
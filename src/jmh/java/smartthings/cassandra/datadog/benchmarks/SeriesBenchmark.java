@@ -0,0 +1,53 @@
+package smartthings.cassandra.datadog.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.SeriesNames;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of a single series from a formatted name with tags, parsing the name every time as the plain
+ * constructor does, and looking the parsed name up as the reporter does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeriesBenchmark {
+	private static final String NAME = "cassandra.ColumnFamily.ReadLatency.p99[keyspace:ks1,table:table1]";
+
+	private List<String> tags;
+	private SeriesNames seriesNames;
+	private Double value = 1234.5;
+	private Long epoch = 1400000000L;
+
+	@Setup
+	public void setup() {
+		tags = Arrays.asList("env:bench", "dc:east");
+		seriesNames = new SeriesNames(tags);
+	}
+
+	@Benchmark
+	public DatadogGauge parsed() {
+		return new DatadogGauge(NAME, value, epoch, "node1", tags);
+	}
+
+	@Benchmark
+	public DatadogGauge cached() {
+		return new DatadogGauge(seriesNames.get(NAME), value, epoch, "node1");
+	}
+}
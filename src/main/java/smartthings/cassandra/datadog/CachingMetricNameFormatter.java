@@ -0,0 +1,111 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the names built by another formatter, so formatting the same metric and expansion again on the next
+ * poll is a map lookup and does not allocate.
+ * <p>
+ * Names are cached for a path of at most one element, which covers every expansion. At most maxSize metrics are
+ * cached, names of further metrics are built by the delegate each time. Registered as a listener with the
+ * metrics registry, entries are evicted once their metric is removed from the registry. The delegate has to
+ * return the same name for the same arguments.
+ */
+public class CachingMetricNameFormatter implements MetricNameFormatter, MetricsRegistryListener {
+	private final MetricNameFormatter delegate;
+	private final int maxSize;
+	private final ConcurrentMap<MetricName, Names> cache;
+
+	public CachingMetricNameFormatter(MetricNameFormatter delegate, int maxSize) {
+		this.delegate = delegate;
+		this.maxSize = maxSize;
+		this.cache = new ConcurrentHashMap<MetricName, Names>(Math.min(maxSize, 16 * 1024));
+	}
+
+	@Override
+	public String format(MetricName name, String... path) {
+		if (path.length > 1) {
+			return delegate.format(name, path);
+		}
+		Names names = cache.get(name);
+		if (names == null) {
+			if (cache.size() >= maxSize) {
+				return delegate.format(name, path);
+			}
+			names = new Names();
+			Names existing = cache.putIfAbsent(name, names);
+			if (existing != null) {
+				names = existing;
+			}
+		}
+		String expansion = path.length == 0 ? null : path[0];
+		String formatted = names.get(expansion);
+		if (formatted == null) {
+			formatted = delegate.format(name, path);
+			names.put(expansion, formatted);
+		}
+		return formatted;
+	}
+
+	public MetricNameFormatter getDelegate() {
+		return delegate;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Number of metrics with cached names
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// names are cached when first formatted
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName name) {
+		cache.remove(name);
+	}
+
+	/**
+	 * The names of one metric, by expansion. A metric has a handful of expansions at most, so they are kept in a
+	 * copy on write array and found by a linear scan, comparing by identity first as expansion names are
+	 * constants.
+	 */
+	private static class Names {
+		private volatile String[] entries = new String[0];
+
+		String get(String expansion) {
+			String[] current = entries;
+			for (int i = 0; i < current.length; i += 2) {
+				String key = current[i];
+				if (key == expansion || (key != null && key.equals(expansion))) {
+					return current[i + 1];
+				}
+			}
+			return null;
+		}
+
+		synchronized void put(String expansion, String formatted) {
+			if (get(expansion) != null) {
+				return;
+			}
+			String[] current = entries;
+			String[] updated = new String[current.length + 2];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = expansion;
+			updated[current.length + 1] = formatted;
+			entries = updated;
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Caps the number of series per metric family of metrics reported per table, or any other scope. Metrics of the
+ * most active scopes are reported as they are, those of the other scopes are rolled up into one series per family
+ * with the scope {@link #OTHER_SCOPE}, aggregated as by a {@link RollupPolicy}.
+ * <p>
+ * The activity of a scope is the sum of the counts since the last poll of its counters, meters, histograms and
+ * timers. Scopes are ranked across all the metrics a rule matches, so a table keeps or loses all of its series at
+ * once. The ranking is a {@link HeavyHitters} summary of a few counters per scope kept, decaying by half every half
+ * life, so it takes the same memory however many tables there are. The scopes kept are chosen at the end of every
+ * poll among the scopes seen during it; until then new scopes are kept while there are fewer than the maximum, so
+ * nothing is rolled up on a node with few tables.
+ * <p>
+ * Rules match the group, type and name of a metric with glob patterns, a missing pattern matches anything, and the
+ * first matching rule wins. Metrics without a scope are never limited. The rule of a metric is cached.
+ * Registered as a listener with the metrics registry, entries are evicted once their metric is removed.
+ */
+public class CardinalityLimiter implements MetricsRegistryListener {
+	/**
+	 * Scope of the series the metrics of scopes that are not kept are rolled up into
+	 */
+	public static final String OTHER_SCOPE = "other";
+	public static final int DEFAULT_HALF_LIFE_POLLS = 10;
+
+	private static final int COUNTERS_PER_SCOPE = 4;
+	private static final int MAX_CACHED = 256 * 1024;
+	private static final Family NONE = new Family(null, null);
+
+	private final List<Rule> rules;
+	private final double decay;
+	private final CounterDeltas deltas = new CounterDeltas(CounterDeltas.DEFAULT_EXPECTED_SERIES,
+		CounterDeltas.DEFAULT_EXPIRE_SECONDS, TimeUnit.SECONDS);
+	private final ConcurrentMap<MetricName, Family> cache = new ConcurrentHashMap<MetricName, Family>();
+
+	private CardinalityLimiter(Builder builder) {
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(builder.rules));
+		this.decay = Math.pow(0.5, 1.0 / builder.halfLifePolls);
+	}
+
+	/**
+	 * Record the activity of a metric and decide whether it is reported on its own. Called once per metric and
+	 * poll, from any thread.
+	 *
+	 * @return null if the metric is reported on its own, otherwise the series of its family to roll it up into
+	 */
+	public RollupPolicy.Target select(MetricName name, Metric metric, long epoch) {
+		Family family = cache.get(name);
+		if (family == null) {
+			family = match(name);
+			if (cache.size() < MAX_CACHED) {
+				cache.put(name, family);
+			}
+		}
+		if (family == NONE) {
+			return null;
+		}
+		return family.rule.ranking.observe(name.getScope(), activity(name, metric, epoch)) ? null : family.other;
+	}
+
+	/**
+	 * Called once a poll is complete, chooses the scopes kept during the next poll
+	 */
+	public void endPoll(long epoch) {
+		for (Rule rule : rules) {
+			rule.ranking.rank(decay);
+		}
+		deltas.endPoll(epoch);
+	}
+
+	/**
+	 * The scopes of the metrics of a rule kept during the current poll
+	 *
+	 * @param rule index of the rule, in the order they were added
+	 */
+	public Set<String> getKeptScopes(int rule) {
+		return rules.get(rule).ranking.kept();
+	}
+
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// matched when first selected
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName name) {
+		cache.remove(name);
+	}
+
+	private Family match(MetricName name) {
+		if (name.getScope() == null) {
+			return NONE;
+		}
+		for (Rule rule : rules) {
+			if (rule.matches(name)) {
+				MetricName other = new MetricName(name.getGroup(), name.getType(), name.getName(), OTHER_SCOPE);
+				return new Family(rule, new RollupPolicy.Target(other, rule.gauges, false));
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * The count of the metric since the last poll, or its whole count the first time it is seen
+	 */
+	private double activity(MetricName name, Metric metric, long epoch) {
+		long count;
+		if (metric instanceof Metered) {
+			count = ((Metered) metric).count();
+		} else if (metric instanceof Histogram) {
+			count = ((Histogram) metric).count();
+		} else if (metric instanceof Counter) {
+			count = ((Counter) metric).count();
+		} else {
+			return 0;
+		}
+		long delta = deltas.delta(name.getMBeanName(), count, epoch);
+		return Math.max(delta == CounterDeltas.NO_DELTA ? count : delta, 0);
+	}
+
+	private static class Family {
+		private final Rule rule;
+		private final RollupPolicy.Target other;
+
+		Family(Rule rule, RollupPolicy.Target other) {
+			this.rule = rule;
+			this.other = other;
+		}
+	}
+
+	/**
+	 * The activity of the scopes of a rule, and the scopes kept
+	 */
+	private static class Ranking {
+		private final int maxScopes;
+		private final HeavyHitters activity;
+		private final Set<String> kept = new HashSet<String>();
+		private final Set<String> seen = new HashSet<String>();
+
+		Ranking(int maxScopes) {
+			this.maxScopes = maxScopes;
+			this.activity = new HeavyHitters(maxScopes * COUNTERS_PER_SCOPE);
+		}
+
+		/**
+		 * @return true if the scope is kept
+		 */
+		synchronized boolean observe(String scope, double weight) {
+			activity.add(scope, weight);
+			seen.add(scope);
+			if (kept.contains(scope)) {
+				return true;
+			}
+			if (kept.size() < maxScopes) {
+				kept.add(scope);
+				return true;
+			}
+			return false;
+		}
+
+		synchronized void rank(double decay) {
+			kept.clear();
+			for (String scope : activity.keys()) {
+				if (kept.size() == maxScopes) {
+					break;
+				}
+				if (seen.contains(scope)) {
+					kept.add(scope);
+				}
+			}
+			seen.clear();
+			activity.decay(decay);
+		}
+
+		synchronized Set<String> kept() {
+			return Collections.unmodifiableSet(new HashSet<String>(kept));
+		}
+	}
+
+	private static class Rule {
+		private final Pattern group;
+		private final Pattern type;
+		private final Pattern name;
+		private final RollupPolicy.Aggregation gauges;
+		private final Ranking ranking;
+
+		Rule(String group, String type, String name, int maxScopes, RollupPolicy.Aggregation gauges) {
+			this.group = glob(group);
+			this.type = glob(type);
+			this.name = glob(name);
+			this.gauges = gauges;
+			this.ranking = new Ranking(maxScopes);
+		}
+
+		boolean matches(MetricName metricName) {
+			return matches(group, metricName.getGroup())
+				&& matches(type, metricName.getType())
+				&& matches(name, metricName.getName());
+		}
+
+		private static boolean matches(Pattern pattern, String value) {
+			return pattern == null || pattern.matcher(value).matches();
+		}
+
+		private static Pattern glob(String glob) {
+			return glob == null ? null : Globs.compile(glob);
+		}
+	}
+
+	public static class Builder {
+		private final List<Rule> rules = new ArrayList<Rule>();
+		private int halfLifePolls = DEFAULT_HALF_LIFE_POLLS;
+
+		/**
+		 * Keep the most active maxScopes scopes of the matching metrics, taking the max of the gauges of the others
+		 */
+		public Builder withRule(String group, String type, int maxScopes) {
+			return withRule(group, type, null, maxScopes, RollupPolicy.Aggregation.MAX);
+		}
+
+		/**
+		 * Add a rule, rules are matched in the order they are added. Null patterns match anything.
+		 */
+		public Builder withRule(String group, String type, String name, int maxScopes,
+								RollupPolicy.Aggregation gauges) {
+			if (maxScopes < 1) {
+				throw new IllegalArgumentException("Keep at least one scope, was " + maxScopes);
+			}
+			rules.add(new Rule(group, type, name, maxScopes, gauges));
+			return this;
+		}
+
+		/**
+		 * Number of polls after which the activity of a scope counts half as much, 10 by default
+		 */
+		public Builder withHalfLife(int polls) {
+			if (polls < 1) {
+				throw new IllegalArgumentException("Half life of at least one poll, was " + polls);
+			}
+			this.halfLifePolls = polls;
+			return this;
+		}
+
+		public CardinalityLimiter build() {
+			return new CardinalityLimiter(this);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package smartthings.cassandra.datadog;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the last value sent for every series, keyed by formatted metric name, so series that did not change
+ * since then can be skipped. A skipped series is sent again once the heartbeat interval has passed, which keeps
+ * it from going stale in datadog.
+ * <p>
+ * A series is taken as sent when it is checked. Once the request is sent, {@link #commit()} keeps what was
+ * taken as sent, or if sending failed {@link #rollback()} restores the state of the last commit, so the series
+ * are sent again by the next poll. Batches lost after the request was sent, dropped from the queue of an
+ * {@link smartthings.cassandra.datadog.transports.AsyncTransport} or spilled and expired, go unnoticed, and their
+ * unchanged series are missing until the next heartbeat, so keep the heartbeat a few poll intervals at most.
+ * <p>
+ * Series that stop being reported, for example of a dropped table, are forgotten after two heartbeat intervals.
+ * Series of different names may be checked from different threads, but every name from one thread at a time,
+ * and {@link #endPoll(long)} only once the poll is done.
+ */
+public class ChangeFilter {
+	private final long heartbeatSeconds;
+	private final ConcurrentMap<String, LastSent> lastSent = new ConcurrentHashMap<String, LastSent>();
+	private final AtomicInteger sent = new AtomicInteger();
+	private final AtomicInteger suppressed = new AtomicInteger();
+	private final Queue<LastSent> uncommitted = new ConcurrentLinkedQueue<LastSent>();
+	private long lastSweep = 0;
+
+	public ChangeFilter(long heartbeat, TimeUnit unit) {
+		this.heartbeatSeconds = unit.toSeconds(heartbeat);
+	}
+
+	public long getHeartbeatSeconds() {
+		return heartbeatSeconds;
+	}
+
+	/**
+	 * @return true if the series changed since it was last sent, or was last sent a heartbeat ago or longer
+	 */
+	public boolean shouldSend(String name, Number value, long epoch) {
+		boolean floating = !(value instanceof Long || value instanceof Integer || value instanceof Short
+			|| value instanceof Byte);
+		long bits = floating ? Double.doubleToLongBits(value.doubleValue()) : value.longValue();
+
+		LastSent last = lastSent.get(name);
+		if (last == null) {
+			last = new LastSent(name, bits, floating, epoch);
+			lastSent.put(name, last);
+			uncommitted.add(last);
+			sent.incrementAndGet();
+			return true;
+		}
+		last.seenAt = epoch;
+		if (last.bits == bits && last.floating == floating && epoch - last.sentAt < heartbeatSeconds) {
+			suppressed.incrementAndGet();
+			return false;
+		}
+		if (!last.dirty) {
+			last.keepCommitted();
+			uncommitted.add(last);
+		}
+		last.bits = bits;
+		last.floating = floating;
+		last.sentAt = epoch;
+		sent.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Keep the series checked since the last commit as sent, called once their request was sent
+	 */
+	public void commit() {
+		LastSent last;
+		while ((last = uncommitted.poll()) != null) {
+			last.dirty = false;
+			last.added = false;
+		}
+	}
+
+	/**
+	 * Forget that the series checked since the last commit were sent, called when sending their request failed
+	 */
+	public void rollback() {
+		LastSent last;
+		while ((last = uncommitted.poll()) != null) {
+			if (last.added) {
+				lastSent.remove(last.name, last);
+			} else if (last.dirty) {
+				last.restoreCommitted();
+			}
+		}
+	}
+
+	/**
+	 * Called once a poll is complete, forgets series that were not seen for two heartbeat intervals
+	 */
+	public void endPoll(long epoch) {
+		if (epoch - lastSweep < heartbeatSeconds) {
+			return;
+		}
+		lastSweep = epoch;
+		Iterator<LastSent> it = lastSent.values().iterator();
+		while (it.hasNext()) {
+			if (epoch - it.next().seenAt >= 2 * heartbeatSeconds) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Number of series sent since the last call, resets the counters
+	 */
+	public int drainSent() {
+		return sent.getAndSet(0);
+	}
+
+	/**
+	 * Number of series skipped since the last call, resets the counters
+	 */
+	public int drainSuppressed() {
+		return suppressed.getAndSet(0);
+	}
+
+	public int size() {
+		return lastSent.size();
+	}
+
+	/**
+	 * The value last taken as sent, and while not committed, the value sent as of the last commit
+	 */
+	private static class LastSent {
+		final String name;
+		long bits;
+		boolean floating;
+		long sentAt;
+		long seenAt;
+		boolean added = true;
+		boolean dirty = false;
+		long committedBits;
+		boolean committedFloating;
+		long committedSentAt;
+
+		LastSent(String name, long bits, boolean floating, long epoch) {
+			this.name = name;
+			this.bits = bits;
+			this.floating = floating;
+			this.sentAt = epoch;
+			this.seenAt = epoch;
+		}
+
+		void keepCommitted() {
+			dirty = true;
+			committedBits = bits;
+			committedFloating = floating;
+			committedSentAt = sentAt;
+		}
+
+		void restoreCommitted() {
+			dirty = false;
+			bits = committedBits;
+			floating = committedFloating;
+			sentAt = committedSentAt;
+		}
+	}
+}
@@ -0,0 +1,372 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.MetricsRegistryListener;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Includes and excludes metrics by their full name, {@code group.type.scope.name} or {@code group.type.name}
+ * without a scope. A metric is reported if it matches an include, or there are no includes, and matches no exclude.
+ * <p>
+ * Patterns are prefixes, globs or regular expressions. Literal globs are looked up in a hash set and globs with a
+ * single trailing {@code *} and prefixes go into a prefix trie, which cost the same however many patterns they
+ * hold. Other globs with a single {@code *} are checked one by one with startsWith and endsWith, and the remaining
+ * globs and regular expressions are combined into a single alternation, which the backtracking regex matcher tries
+ * a branch at a time, so their cost grows with their number; {@link #toString()} tells how the patterns were split.
+ * Results are cached per metric.
+ * Registered as a listener with the metrics registry, entries are evicted once their metric is removed.
+ * <p>
+ * Predicates can be loaded from YAML:
+ * <pre>
+ * include:
+ *   prefixes: [org.apache.cassandra.metrics.ClientRequest]
+ *   globs: ["org.apache.cassandra.metrics.ColumnFamily.*.ReadLatency"]
+ * exclude:
+ *   regexes: [".*\\.system(_\\w+)?\\..*"]
+ * </pre>
+ */
+public class CompiledMetricPredicate implements MetricPredicate, MetricsRegistryListener {
+	public static final int DEFAULT_CACHE_SIZE = 256 * 1024;
+
+	private final Patterns includes;
+	private final Patterns excludes;
+	private final int cacheSize;
+	private final ConcurrentMap<MetricName, Boolean> cache;
+
+	private CompiledMetricPredicate(Builder builder) {
+		this.includes = new Patterns(builder.includePrefixes, builder.includeGlobs, builder.includeRegexes);
+		this.excludes = new Patterns(builder.excludePrefixes, builder.excludeGlobs, builder.excludeRegexes);
+		this.cacheSize = builder.cacheSize;
+		this.cache = new ConcurrentHashMap<MetricName, Boolean>();
+	}
+
+	/**
+	 * Load a predicate from YAML, see the class documentation for the format
+	 */
+	@SuppressWarnings("unchecked")
+	public static CompiledMetricPredicate fromYaml(InputStream yaml) {
+		Object loaded = new Yaml().load(yaml);
+		if (!(loaded instanceof Map)) {
+			throw new IllegalArgumentException("Metric filter must be a mapping, was " + loaded);
+		}
+		Map<String, Object> config = (Map<String, Object>) loaded;
+		Builder builder = new Builder();
+		Map<String, Object> include = section(config, "include");
+		for (String prefix : strings(include, "prefixes")) {
+			builder.includePrefix(prefix);
+		}
+		for (String glob : strings(include, "globs")) {
+			builder.includeGlob(glob);
+		}
+		for (String regex : strings(include, "regexes")) {
+			builder.includeRegex(regex);
+		}
+		Map<String, Object> exclude = section(config, "exclude");
+		for (String prefix : strings(exclude, "prefixes")) {
+			builder.excludePrefix(prefix);
+		}
+		for (String glob : strings(exclude, "globs")) {
+			builder.excludeGlob(glob);
+		}
+		for (String regex : strings(exclude, "regexes")) {
+			builder.excludeRegex(regex);
+		}
+		return builder.build();
+	}
+
+	@Override
+	public boolean matches(MetricName name, Metric metric) {
+		if (cacheSize == 0) {
+			return matches(name);
+		}
+		Boolean matches = cache.get(name);
+		if (matches == null) {
+			matches = matches(name);
+			if (cache.size() < cacheSize) {
+				cache.put(name, matches);
+			}
+		}
+		return matches;
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// matched when first polled
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName name) {
+		cache.remove(name);
+	}
+
+	/**
+	 * The number of include and exclude patterns matched by each strategy
+	 */
+	@Override
+	public String toString() {
+		return "CompiledMetricPredicate{includes=" + includes + ", excludes=" + excludes + "}";
+	}
+
+	private boolean matches(MetricName name) {
+		String fullName = fullName(name);
+		return (includes.isEmpty() || includes.matches(fullName)) && !excludes.matches(fullName);
+	}
+
+	/**
+	 * The name patterns are matched against
+	 */
+	static String fullName(MetricName name) {
+		StringBuilder sb = new StringBuilder(name.getGroup()).append('.').append(name.getType()).append('.');
+		if (name.hasScope()) {
+			sb.append(name.getScope()).append('.');
+		}
+		return sb.append(name.getName()).toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> section(Map<String, Object> config, String key) {
+		Object section = config.get(key);
+		if (section == null) {
+			return Collections.emptyMap();
+		}
+		if (!(section instanceof Map)) {
+			throw new IllegalArgumentException(key + " must be a mapping, was " + section);
+		}
+		return (Map<String, Object>) section;
+	}
+
+	private static List<String> strings(Map<String, Object> section, String key) {
+		Object values = section.get(key);
+		if (values == null) {
+			return Collections.emptyList();
+		}
+		if (!(values instanceof Collection)) {
+			throw new IllegalArgumentException(key + " must be a list, was " + values);
+		}
+		List<String> strings = new ArrayList<String>();
+		for (Object value : (Collection<?>) values) {
+			strings.add(String.valueOf(value));
+		}
+		return strings;
+	}
+
+	/**
+	 * One side of the filter, includes or excludes, compiled
+	 */
+	private static class Patterns {
+		private final Set<String> exact = new HashSet<String>();
+		private final PrefixTrie prefixes = new PrefixTrie();
+		private final List<String[]> prefixSuffixes = new ArrayList<String[]>();
+		private final Pattern combined;
+		private final int prefixCount;
+		private final int alternativeCount;
+
+		Patterns(List<String> prefixList, List<String> globs, List<String> regexes) {
+			for (String prefix : prefixList) {
+				prefixes.add(prefix);
+			}
+			int prefixGlobs = 0;
+			List<String> alternatives = new ArrayList<String>();
+			for (String glob : globs) {
+				if (Globs.isLiteral(glob)) {
+					exact.add(glob);
+				} else if (Globs.isPrefix(glob)) {
+					prefixes.add(glob.substring(0, glob.length() - 1));
+					prefixGlobs++;
+				} else if (Globs.isPrefixSuffix(glob)) {
+					int star = glob.indexOf('*');
+					prefixSuffixes.add(new String[]{glob.substring(0, star), glob.substring(star + 1)});
+				} else {
+					alternatives.add(Globs.toRegex(glob));
+				}
+			}
+			for (String regex : regexes) {
+				// compile separately first to report which one is invalid
+				Pattern.compile(regex);
+				alternatives.add(regex);
+			}
+			prefixCount = prefixList.size() + prefixGlobs;
+			alternativeCount = alternatives.size();
+			if (alternatives.isEmpty()) {
+				combined = null;
+			} else {
+				StringBuilder alternation = new StringBuilder();
+				for (String alternative : alternatives) {
+					if (alternation.length() > 0) {
+						alternation.append('|');
+					}
+					alternation.append("(?:").append(alternative).append(')');
+				}
+				combined = Pattern.compile(alternation.toString(), Pattern.DOTALL);
+			}
+		}
+
+		boolean isEmpty() {
+			return exact.isEmpty() && prefixes.isEmpty() && prefixSuffixes.isEmpty() && combined == null;
+		}
+
+		boolean matches(String name) {
+			return exact.contains(name)
+				|| prefixes.matchesPrefixOf(name)
+				|| matchesPrefixSuffix(name)
+				|| (combined != null && combined.matcher(name).matches());
+		}
+
+		@Override
+		public String toString() {
+			return "[" + exact.size() + " exact, " + prefixCount + " prefixes, " + prefixSuffixes.size()
+				+ " prefix and suffix, " + alternativeCount + " alternated]";
+		}
+
+		private boolean matchesPrefixSuffix(String name) {
+			for (int i = 0; i < prefixSuffixes.size(); i++) {
+				String[] prefixSuffix = prefixSuffixes.get(i);
+				if (name.length() >= prefixSuffix[0].length() + prefixSuffix[1].length()
+					&& name.startsWith(prefixSuffix[0]) && name.endsWith(prefixSuffix[1])) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A character trie answering whether any of its strings is a prefix of a name
+	 */
+	static class PrefixTrie {
+		private final Node root = new Node();
+		private boolean empty = true;
+
+		void add(String prefix) {
+			Node node = root;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.childOrCreate(prefix.charAt(i));
+			}
+			node.terminal = true;
+			empty = false;
+		}
+
+		boolean isEmpty() {
+			return empty;
+		}
+
+		boolean matchesPrefixOf(String name) {
+			if (empty) {
+				return false;
+			}
+			Node node = root;
+			for (int i = 0; ; i++) {
+				if (node.terminal) {
+					return true;
+				}
+				if (i == name.length()) {
+					return false;
+				}
+				node = node.child(name.charAt(i));
+				if (node == null) {
+					return false;
+				}
+			}
+		}
+
+		/**
+		 * Children are kept in arrays sorted by character and found by binary search
+		 */
+		private static class Node {
+			private char[] keys = new char[0];
+			private Node[] children = new Node[0];
+			private boolean terminal;
+
+			Node child(char c) {
+				int i = Arrays.binarySearch(keys, c);
+				return i >= 0 ? children[i] : null;
+			}
+
+			Node childOrCreate(char c) {
+				int i = Arrays.binarySearch(keys, c);
+				if (i >= 0) {
+					return children[i];
+				}
+				int insert = -i - 1;
+				char[] newKeys = new char[keys.length + 1];
+				Node[] newChildren = new Node[children.length + 1];
+				System.arraycopy(keys, 0, newKeys, 0, insert);
+				System.arraycopy(children, 0, newChildren, 0, insert);
+				newKeys[insert] = c;
+				newChildren[insert] = new Node();
+				System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+				System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+				keys = newKeys;
+				children = newChildren;
+				return newChildren[insert];
+			}
+		}
+	}
+
+	public static class Builder {
+		private final List<String> includePrefixes = new ArrayList<String>();
+		private final List<String> includeGlobs = new ArrayList<String>();
+		private final List<String> includeRegexes = new ArrayList<String>();
+		private final List<String> excludePrefixes = new ArrayList<String>();
+		private final List<String> excludeGlobs = new ArrayList<String>();
+		private final List<String> excludeRegexes = new ArrayList<String>();
+		private int cacheSize = DEFAULT_CACHE_SIZE;
+
+		public Builder includePrefix(String prefix) {
+			includePrefixes.add(prefix);
+			return this;
+		}
+
+		public Builder includeGlob(String glob) {
+			includeGlobs.add(glob);
+			return this;
+		}
+
+		public Builder includeRegex(String regex) {
+			includeRegexes.add(regex);
+			return this;
+		}
+
+		public Builder excludePrefix(String prefix) {
+			excludePrefixes.add(prefix);
+			return this;
+		}
+
+		public Builder excludeGlob(String glob) {
+			excludeGlobs.add(glob);
+			return this;
+		}
+
+		public Builder excludeRegex(String regex) {
+			excludeRegexes.add(regex);
+			return this;
+		}
+
+		/**
+		 * Number of metrics to remember the result for, 0 to match every time
+		 */
+		public Builder withCacheSize(int cacheSize) {
+			this.cacheSize = cacheSize;
+			return this;
+		}
+
+		public CompiledMetricPredicate build() {
+			return new CompiledMetricPredicate(this);
+		}
+	}
+}
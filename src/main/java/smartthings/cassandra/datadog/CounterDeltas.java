@@ -0,0 +1,176 @@
+package smartthings.cassandra.datadog;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the last cumulative count of every counter series, so the count since the last poll can be sent
+ * instead. A count lower than the last one is taken as a reset of the counter, and the whole count is the delta.
+ * <p>
+ * Series are keyed by a 64 bit hash of their name and kept in open addressing tables of primitive arrays, so the
+ * state of 50k series takes a few megabytes and looking a series up does not allocate. The tables are split into
+ * segments locked separately, so series can be tracked from several collector threads. Series not seen for the
+ * expiry time are forgotten.
+ */
+public class CounterDeltas {
+	/**
+	 * Returned by {@link #delta(String, long, long)} for a series seen for the first time
+	 */
+	public static final long NO_DELTA = Long.MIN_VALUE;
+	public static final int DEFAULT_EXPECTED_SERIES = 16 * 1024;
+	public static final long DEFAULT_EXPIRE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+	private static final int SEGMENT_BITS = 4;
+	private static final long EMPTY = 0L;
+
+	private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+	private final long expireSeconds;
+	private long lastSweep = 0;
+
+	/**
+	 * @param expectedSeries number of series to size the tables for up front
+	 */
+	public CounterDeltas(int expectedSeries, long expireAfter, TimeUnit unit) {
+		this.expireSeconds = unit.toSeconds(expireAfter);
+		int perSegment = Math.max(expectedSeries >> SEGMENT_BITS, 1);
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+	}
+
+	/**
+	 * Record the current count of a series
+	 *
+	 * @return the count since the last call for the series, or {@link #NO_DELTA} if there was none
+	 */
+	public long delta(String name, long count, long epoch) {
+		long key = hash(name);
+		return segments[(int) (key >>> (64 - SEGMENT_BITS))].delta(key, count, epoch);
+	}
+
+	/**
+	 * Called once a poll is complete, forgets series not seen for the expiry time
+	 */
+	public void endPoll(long epoch) {
+		if (epoch - lastSweep < expireSeconds) {
+			return;
+		}
+		lastSweep = epoch;
+		for (Segment segment : segments) {
+			segment.expire(epoch - expireSeconds);
+		}
+	}
+
+	public long getExpireSeconds() {
+		return expireSeconds;
+	}
+
+	/**
+	 * Number of series tracked
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * A 64 bit FNV-1a hash of the name, finished with the murmur3 mixer so the top bits picking the segment and
+	 * the bottom bits picking the slot are both well distributed. Never {@link #EMPTY}.
+	 */
+	static long hash(String name) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			h ^= name.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == EMPTY ? 1 : h;
+	}
+
+	/**
+	 * Linear probing over parallel arrays of keys, last counts and the epoch each series was last seen
+	 */
+	private static class Segment {
+		private long[] keys;
+		private long[] counts;
+		private long[] seen;
+		private int size;
+
+		Segment(int expected) {
+			allocate(capacityFor(expected));
+		}
+
+		synchronized long delta(long key, long count, long epoch) {
+			int mask = keys.length - 1;
+			int slot = (int) key & mask;
+			while (keys[slot] != EMPTY) {
+				if (keys[slot] == key) {
+					long last = counts[slot];
+					counts[slot] = count;
+					seen[slot] = epoch;
+					return count >= last ? count - last : count;
+				}
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = key;
+			counts[slot] = count;
+			seen[slot] = epoch;
+			if (++size > keys.length * 3 / 4) {
+				rehash(keys.length * 2, Long.MIN_VALUE);
+			}
+			return NO_DELTA;
+		}
+
+		synchronized void expire(long seenUntil) {
+			rehash(keys.length, seenUntil);
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * Move the entries seen after the given epoch into tables of the given capacity
+		 */
+		private void rehash(int capacity, long seenUntil) {
+			long[] oldKeys = keys;
+			long[] oldCounts = counts;
+			long[] oldSeen = seen;
+			allocate(capacity);
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY && oldSeen[i] > seenUntil) {
+					int slot = (int) oldKeys[i] & mask;
+					while (keys[slot] != EMPTY) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					counts[slot] = oldCounts[i];
+					seen[slot] = oldSeen[i];
+					size++;
+				}
+			}
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			counts = new long[capacity];
+			seen = new long[capacity];
+			size = 0;
+		}
+
+		private static int capacityFor(int expected) {
+			int capacity = 16;
+			while (capacity * 3 / 4 < expected) {
+				capacity <<= 1;
+			}
+			return capacity;
+		}
+	}
+}
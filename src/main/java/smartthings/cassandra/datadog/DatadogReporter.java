@@ -1,6 +1,7 @@
 package smartthings.cassandra.datadog;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.*;
 import com.yammer.metrics.reporting.AbstractPollingReporter;
@@ -8,16 +9,37 @@ import com.yammer.metrics.stats.Snapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
 import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+import smartthings.cassandra.datadog.model.QuantileSketch;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.model.SeriesName;
+import smartthings.cassandra.datadog.model.SeriesNames;
+import smartthings.cassandra.datadog.serializer.JsonSerializer;
+import smartthings.cassandra.datadog.serializer.SerializerFactory;
+import smartthings.cassandra.datadog.serializer.StreamingJsonSerializer;
+import smartthings.cassandra.datadog.transports.AsyncTransport;
+import smartthings.cassandra.datadog.transports.DogStatsdTransport;
 import smartthings.cassandra.datadog.transports.HttpTransport;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DatadogReporter extends AbstractPollingReporter implements MetricProcessor<Long> {
 
@@ -27,18 +49,74 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 	private final MetricPredicate predicate;
 	private final Transport transport;
 	private final EnumSet<Expansions> expansions;
+	private final ExpansionPolicy expansionPolicy;
+	private final RollupPolicy rollupPolicy;
+	private final CardinalityLimiter cardinalityLimiter;
 	private static final Logger LOG = LoggerFactory.getLogger(DatadogReporter.class);
+	private static final int SLICES_PER_THREAD = 4;
+	/**
+	 * Resolves percentiles up to the p99 in about 2 KB per distribution
+	 *
+	 * @see Builder#withDistributions(double, double, int)
+	 */
+	public static final int DEFAULT_DISTRIBUTION_VALUES = 100;
+	/**
+	 * One value per hundred updates, so hosts of up to 10000 updates per poll are weighted by their traffic
+	 *
+	 * @see Builder#withDistributions(double, double, int)
+	 */
+	public static final double DEFAULT_DISTRIBUTION_VALUES_PER_UPDATE = 0.01;
 	private final VirtualMachineMetrics vm;
 	private final MetricNameFormatter metricNameFormatter;
 	private final List<String> tags;
-	private Transport.Request request;
+	private final SeriesNames seriesNames;
+	private final ChangeFilter changeFilter;
+	private final CounterDeltas counterDeltas;
+	private final ReporterMetrics reporterMetrics;
+	private final int collectorThreads;
+	private final ExecutorService collectors;
+	private final long maxJitterMillis;
+	private final int batchCapacity;
+	private final boolean offHeapBatches;
+	private final List<SeriesBatch> sliceBatches = new ArrayList<SeriesBatch>();
+	private SeriesBatch seriesBatch;
+	private final SampleBuffer sampleBuffer;
+	private SeriesBatch sampleBatch;
+	private int samples = 0;
+	private final double distributionAccuracy;
+	private final double distributionValuesPerUpdate;
+	private final int maxDistributionValues;
+	private final CounterDeltas distributionCounts;
+	private final Random random = new Random();
+	private boolean flushPoll = true;
+	private final AtomicLong missedIntervals = new AtomicLong();
+	private final AtomicLong overruns = new AtomicLong();
+	private final AtomicLong suppressedSeries = new AtomicLong();
+	private volatile PollSchedule pollSchedule;
+	private Collector collector;
+	private long lastEpoch = 0;
+	private Long deltaInterval = null;
 
 	private DatadogReporter(MetricsRegistry metricsRegistry,
 							MetricPredicate predicate, VirtualMachineMetrics vm, Transport transport,
 							Clock clock, String host, EnumSet<Expansions> expansions,
+							ExpansionPolicy expansionPolicy,
+							RollupPolicy rollupPolicy,
+							CardinalityLimiter cardinalityLimiter,
 							Boolean printVmMetrics,
 							MetricNameFormatter metricNameFormatter,
-							List<String> tags) {
+							List<String> tags,
+							ChangeFilter changeFilter,
+							CounterDeltas counterDeltas,
+							ReporterMetrics reporterMetrics,
+							int collectorThreads,
+							long maxJitterMillis,
+							int batchCapacity,
+							boolean offHeapBatches,
+							int samplesPerFlush,
+							double distributionAccuracy,
+							double distributionValuesPerUpdate,
+							int maxDistributionValues) {
 		super(metricsRegistry, "datadog-reporter");
 		this.vm = vm;
 		this.transport = transport;
@@ -46,158 +124,844 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		this.clock = clock;
 		this.host = host;
 		this.expansions = expansions;
+		this.expansionPolicy = expansionPolicy;
+		this.rollupPolicy = rollupPolicy;
+		this.cardinalityLimiter = cardinalityLimiter;
 		this.printVmMetrics = printVmMetrics;
 		this.metricNameFormatter = metricNameFormatter;
 		this.tags = ImmutableList.copyOf(tags);
+		this.seriesNames = new SeriesNames(this.tags);
+		metricsRegistry.addListener(seriesNames);
+		this.changeFilter = changeFilter;
+		this.counterDeltas = counterDeltas;
+		this.reporterMetrics = reporterMetrics;
+		this.collectorThreads = collectorThreads;
+		this.maxJitterMillis = maxJitterMillis;
+		this.batchCapacity = batchCapacity;
+		this.offHeapBatches = offHeapBatches;
+		this.sampleBuffer = samplesPerFlush > 1 ? new SampleBuffer(samplesPerFlush, 1024) : null;
+		this.distributionAccuracy = distributionAccuracy;
+		this.distributionValuesPerUpdate = distributionValuesPerUpdate;
+		this.maxDistributionValues = maxDistributionValues;
+		this.distributionCounts = distributionAccuracy > 0 ? new CounterDeltas(CounterDeltas.DEFAULT_EXPECTED_SERIES,
+			CounterDeltas.DEFAULT_EXPIRE_SECONDS, TimeUnit.SECONDS) : null;
+		if (collectorThreads > 0) {
+			this.collectors = Executors.newFixedThreadPool(collectorThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("datadog-collector-%d").build());
+		} else {
+			this.collectors = null;
+		}
+		this.collector = new Collector(null, null);
+	}
+
+	/**
+	 * Poll every period. With an aligned schedule the polls follow the boundaries of the period on the wall
+	 * clock instead of the time the reporter was started, each offset by the jitter of the host, and samples are
+	 * stamped with the boundary.
+	 *
+	 * @see PollSchedule
+	 */
+	@Override
+	public void start(long period, TimeUnit unit) {
+		if (maxJitterMillis < 0) {
+			super.start(period, unit);
+			return;
+		}
+		pollSchedule = new PollSchedule(unit.toMillis(period), maxJitterMillis, TimeUnit.MILLISECONDS, host);
+		new AlignedPoll(pollSchedule, getMetricsRegistry().newScheduledThreadPool(1, "datadog-reporter")).start();
 	}
 
 	@Override
 	public void run() {
+		poll(clock.time());
+	}
+
+	/**
+	 * Collects the series and sends them. When sampling, the series are recorded as points, and only sent once
+	 * there are as many points per series as samples per flush.
+	 *
+	 * @param timeMillis the samples are stamped with
+	 */
+	private void poll(long timeMillis) {
 		try {
-			try {
-				request = transport.prepare();
-			} catch (IOException ioe) {
-				LOG.error("Could not prepare request", ioe);
-				return;
+			final long start = System.nanoTime();
+			Transport.Request request = null;
+			flushPoll = sampleBuffer == null || ++samples >= sampleBuffer.getPointsPerSeries();
+			if (flushPoll) {
+				samples = 0;
+				try {
+					request = transport.prepare();
+				} catch (IOException ioe) {
+					LOG.error("Could not prepare request", ioe);
+					transportError();
+					return;
+				}
 			}
+			final Collector collector = sampleBuffer != null
+				? new Collector(null, sampleBatch())
+				: new Collector(request, seriesBatch(request));
+			this.collector = collector;
 
-			final long epoch = clock.time() / 1000;
+			final long epoch = timeMillis / 1000;
+			if (counterDeltas != null) {
+				deltaInterval = lastEpoch > 0 ? Math.max(epoch - lastEpoch, 1) : null;
+				lastEpoch = epoch;
+			}
 			if (this.printVmMetrics) {
-				pushVmMetrics(epoch);
+				collector.pushVmMetrics(epoch);
+			}
+			final Rollup rollup = rollupPolicy != null || cardinalityLimiter != null ? new Rollup() : null;
+			if (collectors != null) {
+				collectInParallel(collector, epoch, rollup);
+			} else {
+				collector.pushMetrics(getMetricsRegistry(), predicate, epoch, rollup);
+			}
+			if (rollup != null) {
+				collector.pushRollup(rollup, epoch);
+			}
+			if (cardinalityLimiter != null) {
+				cardinalityLimiter.endPoll(epoch);
+				suppressed(collector.suppressed);
+			}
+			final int series = collector.series;
+			if (reporterMetrics != null) {
+				collector.pushMetrics(reporterMetrics.getRegistry(), MetricPredicate.ALL, epoch, null);
+			}
+			collector.pushDistributions(request, epoch);
+			collector.flush();
+			if (sampleBuffer != null) {
+				sampleBuffer.record(sampleBatch);
+				sampleBatch.clear();
+				if (request != null) {
+					sampleBuffer.drainTo(drainBatch(), request);
+				}
+			}
+			final long collected = System.nanoTime();
+			try {
+				if (request != null) {
+					request.send();
+					if (changeFilter != null) {
+						changeFilter.commit();
+					}
+				}
+			} catch (Exception e) {
+				transportError();
+				throw e;
+			} finally {
+				if (reporterMetrics != null) {
+					reporterMetrics.polled(collected - start, collector.serializationNanos,
+						System.nanoTime() - collected, series);
+				}
+			}
+			if (counterDeltas != null) {
+				counterDeltas.endPoll(epoch);
+			}
+			if (distributionCounts != null) {
+				distributionCounts.endPoll(epoch);
+			}
+			if (changeFilter != null) {
+				changeFilter.endPoll(epoch);
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Sent {} series, skipped {} unchanged", changeFilter.drainSent(),
+						changeFilter.drainSuppressed());
+				}
 			}
-			pushRegularMetrics(epoch);
-			request.send();
 		} catch (Throwable t) {
 			LOG.error("Error processing metrics", t);
+			if (changeFilter != null) {
+				changeFilter.rollback();
+			}
 		}
 	}
 
 	public void processCounter(MetricName name, Counter counter, Long epoch) throws Exception {
-		pushCounter(name, counter.count(), epoch);
+		collector.processCounter(name, counter, epoch);
 	}
 
 	public void processGauge(MetricName name, Gauge<?> gauge, Long epoch) throws Exception {
-		Object value = gauge.value();
-		if (value instanceof Number) {
-			pushGauge(name, (Number) value, epoch);
-		} else {
-			LOG.debug("Gauge " + name + " had non Number value, skipped");
-		}
+		collector.processGauge(name, gauge, epoch);
 	}
 
 	public void processHistogram(MetricName name, Histogram histogram, Long epoch) throws Exception {
-		pushSummarizable(name, histogram, epoch);
-		pushSampling(name, histogram, epoch);
+		collector.processHistogram(name, histogram, epoch);
 	}
 
 	public void processMeter(MetricName name, Metered meter, Long epoch) throws Exception {
-		if (expansions.contains(Expansions.COUNT)) {
-			pushCounter(name, meter.count(), epoch, Expansions.COUNT.toString());
-		}
-		maybeExpand(Expansions.RATE_MEAN, name, meter.meanRate(), epoch);
-		maybeExpand(Expansions.RATE_1_MINUTE, name, meter.oneMinuteRate(), epoch);
-		maybeExpand(Expansions.RATE_5_MINUTE, name, meter.fiveMinuteRate(), epoch);
-		maybeExpand(Expansions.RATE_15_MINUTE, name, meter.fifteenMinuteRate(), epoch);
+		collector.processMeter(name, meter, epoch);
 	}
 
 	public void processTimer(MetricName name, Timer timer, Long epoch) throws Exception {
-		processMeter(name, timer, epoch);
-		pushSummarizable(name, timer, epoch);
-		pushSampling(name, timer, epoch);
+		collector.processTimer(name, timer, epoch);
 	}
 
-	private void pushSummarizable(MetricName name, Summarizable summarizable, Long epoch) {
-		maybeExpand(Expansions.MIN, name, summarizable.min(), epoch);
-		maybeExpand(Expansions.MAX, name, summarizable.max(), epoch);
-		maybeExpand(Expansions.MEAN, name, summarizable.mean(), epoch);
-		maybeExpand(Expansions.STD_DEV, name, summarizable.stdDev(), epoch);
+	/**
+	 * The batch the series of a poll are collected into, if the request takes batches. The batch is kept across
+	 * polls, so are the names interned into it.
+	 */
+	private SeriesBatch seriesBatch(Transport.Request request) {
+		if (batchCapacity <= 0 || !(request instanceof Transport.BatchRequest)) {
+			return null;
+		}
+		if (seriesBatch == null) {
+			seriesBatch = new SeriesBatch(host, batchCapacity, offHeapBatches);
+		}
+		seriesBatch.clear();
+		return seriesBatch;
 	}
 
-	private void pushSampling(MetricName name, Sampling sampling, Long epoch) {
-		Snapshot snapshot = sampling.getSnapshot();
-		maybeExpand(Expansions.MEDIAN, name, snapshot.getMedian(), epoch);
-		maybeExpand(Expansions.P75, name, snapshot.get75thPercentile(), epoch);
-		maybeExpand(Expansions.P95, name, snapshot.get95thPercentile(), epoch);
-		maybeExpand(Expansions.P98, name, snapshot.get98thPercentile(), epoch);
-		maybeExpand(Expansions.P99, name, snapshot.get99thPercentile(), epoch);
-		maybeExpand(Expansions.P999, name, snapshot.get999thPercentile(), epoch);
+	/**
+	 * The batch a sample of all series is collected into when sampling, kept across polls
+	 */
+	private SeriesBatch sampleBatch() {
+		if (sampleBatch == null) {
+			sampleBatch = new SeriesBatch(host, Math.max(batchCapacity, SeriesBatch.DEFAULT_CAPACITY), offHeapBatches);
+		}
+		sampleBatch.clear();
+		return sampleBatch;
 	}
 
-	private void maybeExpand(Expansions expansion, MetricName name, Number count, Long epoch) {
-		if (expansions.contains(expansion)) {
-			pushGauge(name, count, epoch, expansion.toString());
+	/**
+	 * The batch the points recorded when sampling are sent through
+	 */
+	private SeriesBatch drainBatch() {
+		if (seriesBatch == null) {
+			seriesBatch = new SeriesBatch(host, Math.max(batchCapacity, SeriesBatch.DEFAULT_CAPACITY), offHeapBatches);
 		}
+		seriesBatch.clear();
+		return seriesBatch;
 	}
 
-	private void pushRegularMetrics(long epoch) {
-		for (Entry<String, SortedMap<MetricName, Metric>> entry : getMetricsRegistry()
-			.groupedMetrics(predicate).entrySet()) {
-			for (Entry<MetricName, Metric> subEntry : entry.getValue().entrySet()) {
-				final Metric metric = subEntry.getValue();
-				if (metric != null) {
-					try {
-						metric.processWith(this, subEntry.getKey(), epoch);
-					} catch (Exception e) {
-						LOG.error("Error pushing metric", e);
-					}
+	/**
+	 * Splits the metrics into contiguous slices, collects every slice into a batch on the worker pool and adds
+	 * the batches to the request in order, so the request sees the same series in the same order as with
+	 * sequential collection. The batches of the slices are reused by the next poll.
+	 */
+	private void collectInParallel(Collector target, final long epoch, final Rollup rollup) {
+		final List<Entry<MetricName, Metric>> metrics = new ArrayList<Entry<MetricName, Metric>>();
+		for (SortedMap<MetricName, Metric> group : getMetricsRegistry().groupedMetrics(predicate).values()) {
+			metrics.addAll(group.entrySet());
+		}
+		int slices = Math.min(metrics.size(), collectorThreads * SLICES_PER_THREAD);
+		List<Future<Collector>> buffers = new ArrayList<Future<Collector>>(slices);
+		for (int i = 0; i < slices; i++) {
+			final List<Entry<MetricName, Metric>> slice =
+				metrics.subList(i * metrics.size() / slices, (i + 1) * metrics.size() / slices);
+			if (sliceBatches.size() == i) {
+				sliceBatches.add(new SeriesBatch(host, Math.max(slice.size() * 4, 16), offHeapBatches));
+			}
+			final SeriesBatch buffer = sliceBatches.get(i);
+			buffer.clear();
+			buffers.add(collectors.submit(new Callable<Collector>() {
+				@Override
+				public Collector call() {
+					Collector collector = new Collector(null, buffer);
+					collector.process(slice, epoch, rollup);
+					return collector;
 				}
+			}));
+		}
+		for (Future<Collector> buffer : buffers) {
+			try {
+				Collector slice = buffer.get();
+				target.addAll(slice.batch);
+				target.distributions.addAll(slice.distributions);
+				target.suppressed += slice.suppressed;
+			} catch (ExecutionException e) {
+				LOG.error("Error collecting metrics", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOG.warn("Interrupted while collecting metrics, sending what was collected so far");
+				return;
 			}
 		}
 	}
 
-	private void pushVmMetrics(long epoch) {
-		sendGauge("jvm.memory.heap.committed", vm.heapCommitted(), epoch);
-		sendGauge("jvm.memory.heap.used", vm.heapUsed(), epoch);
+	/**
+	 * Polls once per boundary of the schedule, rescheduling itself after every poll. A poll started a period or
+	 * more late, for example after a long pause, polls for the latest boundary and counts the ones in between as
+	 * missed. A poll taking so long that the next one is overdue is an overrun, and the overdue polls are skipped.
+	 */
+	private class AlignedPoll implements Runnable {
+		private final PollSchedule schedule;
+		private final ScheduledExecutorService executor;
+		private long boundary;
 
-		pushGauge("jvm.daemon_thread_count", vm.daemonThreadCount(), epoch);
-		pushGauge("jvm.thread_count", vm.threadCount(), epoch);
+		AlignedPoll(PollSchedule schedule, ScheduledExecutorService executor) {
+			this.schedule = schedule;
+			this.executor = executor;
+		}
 
-		for (Entry<String, VirtualMachineMetrics.GarbageCollectorStats> entry : vm.garbageCollectors().entrySet()) {
-			final String tag = "[type:" + entry.getKey() + "]";
-			pushGauge("jvm.gc.time" + tag, entry.getValue().getTime(TimeUnit.MILLISECONDS), epoch);
-			pushCounter("jvm.gc.runs" + tag, entry.getValue().getRuns(), epoch);
+		void start() {
+			boundary = schedule.nextBoundary(clock.time());
+			scheduleAt(schedule.pollTime(boundary));
+		}
+
+		@Override
+		public void run() {
+			long period = schedule.getPeriodMillis();
+			long missed = schedule.missedSince(boundary, clock.time());
+			if (missed > 0) {
+				boundary += missed * period;
+				missed(missed);
+			}
+			try {
+				poll(boundary);
+			} finally {
+				long now = clock.time();
+				long next = boundary + period;
+				if (now > schedule.pollTime(next)) {
+					long following = schedule.nextBoundary(now);
+					overran((following - next) / period);
+					next = following;
+				}
+				boundary = next;
+				scheduleAt(schedule.pollTime(next));
+			}
+		}
+
+		private void scheduleAt(long timeMillis) {
+			try {
+				executor.schedule(this, Math.max(timeMillis - clock.time(), 0), TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				LOG.debug("Reporter shut down, not scheduling further polls");
+			}
 		}
 	}
 
-	private void pushCounter(MetricName metricName, Long count, Long epoch, String... path) {
-		pushCounter(metricNameFormatter.format(metricName, path), count, epoch);
+	private void missed(long intervals) {
+		LOG.warn("Poll started late, skipped {} intervals", intervals);
+		missedIntervals.addAndGet(intervals);
+		if (reporterMetrics != null) {
+			reporterMetrics.missedIntervals(intervals);
+		}
+	}
 
+	private void overran(long intervals) {
+		LOG.warn("Poll overran the interval, skipped {} intervals", intervals);
+		overruns.incrementAndGet();
+		missedIntervals.addAndGet(intervals);
+		if (reporterMetrics != null) {
+			reporterMetrics.overrun(intervals);
+		}
 	}
 
-	private void pushCounter(String name, Long count, Long epoch) {
-		DatadogCounter counter = new DatadogCounter(name, count, epoch, host, this.tags);
-		try {
-			request.addCounter(counter);
-		} catch (Exception e) {
-			LOG.error("Error writing counter", e);
+	private void suppressed(int series) {
+		LOG.debug("Rolled {} series up into other", series);
+		suppressedSeries.addAndGet(series);
+		if (reporterMetrics != null) {
+			reporterMetrics.suppressedSeries(series);
 		}
 	}
 
-	private void pushGauge(MetricName metricName, Number count, Long epoch, String... path) {
-		sendGauge(metricNameFormatter.format(metricName, path), count, epoch);
+	private void transportError() {
+		if (reporterMetrics != null) {
+			reporterMetrics.transportError(transport);
+		}
 	}
 
-	private void pushGauge(String name, long count, long epoch) {
-		sendGauge(name, new Long(count), epoch);
+	/**
+	 * Turns metrics into series and adds them to a request. There is one collector per poll, and one per slice
+	 * of metrics collected in parallel. With a batch, series are added as rows of the batch, which is added to
+	 * the request whenever it is full. The collector of a slice only fills its batch.
+	 * <p>
+	 * With distributions, histograms and timers are sketched instead of expanded into percentiles, and the
+	 * sketches are added to the request once all metrics were collected.
+	 */
+	private class Collector implements MetricProcessor<Long> {
+		private final Transport.Request request;
+		private final SeriesBatch batch;
+		private final double[] percentileValues = new double[Expansions.values().length];
+		private final List<Distribution> distributions = new ArrayList<Distribution>();
+		private int series;
+		private int suppressed;
+		private long serializationNanos;
+
+		/**
+		 * @param batch to collect into, null to add series objects to the request
+		 */
+		Collector(Transport.Request request, SeriesBatch batch) {
+			this.request = request;
+			this.batch = batch;
+		}
+
+		public void processCounter(MetricName name, Counter counter, Long epoch) throws Exception {
+			pushCounter(name, counter.count(), epoch);
+		}
+
+		public void processGauge(MetricName name, Gauge<?> gauge, Long epoch) throws Exception {
+			Object value = gauge.value();
+			if (value instanceof Number) {
+				pushGauge(name, (Number) value, epoch);
+			} else {
+				LOG.debug("Gauge " + name + " had non Number value, skipped");
+				if (reporterMetrics != null) {
+					reporterMetrics.skippedGauge();
+				}
+			}
+		}
+
+		public void processHistogram(MetricName name, Histogram histogram, Long epoch) throws Exception {
+			ExpansionPolicy.Selection selection = expansionPolicy.select(name);
+			pushSummarizable(selection, name, histogram, epoch);
+			pushSampling(selection, name, histogram, histogram.count(), epoch);
+		}
+
+		public void processMeter(MetricName name, Metered meter, Long epoch) throws Exception {
+			pushMetered(expansionPolicy.select(name), name, meter, epoch);
+		}
+
+		public void processTimer(MetricName name, Timer timer, Long epoch) throws Exception {
+			ExpansionPolicy.Selection selection = expansionPolicy.select(name);
+			pushMetered(selection, name, timer, epoch);
+			pushSummarizable(selection, name, timer, epoch);
+			pushSampling(selection, name, timer, timer.count(), epoch);
+		}
+
+		private void pushMetered(ExpansionPolicy.Selection selection, MetricName name, Metered meter, Long epoch) {
+			if (selection.contains(Expansions.COUNT)) {
+				pushCounter(name, meter.count(), epoch, Expansions.COUNT.toString());
+			}
+			maybeExpand(selection, Expansions.RATE_MEAN, name, meter.meanRate(), epoch);
+			maybeExpand(selection, Expansions.RATE_1_MINUTE, name, meter.oneMinuteRate(), epoch);
+			maybeExpand(selection, Expansions.RATE_5_MINUTE, name, meter.fiveMinuteRate(), epoch);
+			maybeExpand(selection, Expansions.RATE_15_MINUTE, name, meter.fifteenMinuteRate(), epoch);
+		}
+
+		private void pushSummarizable(ExpansionPolicy.Selection selection, MetricName name,
+									  Summarizable summarizable, Long epoch) {
+			maybeExpand(selection, Expansions.MIN, name, summarizable.min(), epoch);
+			maybeExpand(selection, Expansions.MAX, name, summarizable.max(), epoch);
+			maybeExpand(selection, Expansions.MEAN, name, summarizable.mean(), epoch);
+			maybeExpand(selection, Expansions.STD_DEV, name, summarizable.stdDev(), epoch);
+		}
+
+		/**
+		 * Takes a single snapshot, and none at all when no percentiles are enabled, since the snapshot copies and
+		 * sorts the samples
+		 *
+		 * @param count the cumulative number of updates of the metric
+		 */
+		private void pushSampling(ExpansionPolicy.Selection selection, MetricName name, Sampling sampling,
+								  long count, Long epoch) {
+			Expansions[] percentiles = selection.getPercentiles();
+			if (percentiles.length == 0) {
+				return;
+			}
+			if (distributionAccuracy > 0) {
+				pushDistribution(name, sampling, count, epoch, percentiles);
+				return;
+			}
+			Snapshot snapshot = sampling.getSnapshot();
+			for (int i = 0; i < percentiles.length; i++) {
+				percentileValues[i] = snapshot.getValue(percentiles[i].getQuantile());
+			}
+			for (int i = 0; i < percentiles.length; i++) {
+				pushGauge(name, percentileValues[i], epoch, percentiles[i].toString());
+			}
+		}
+
+		/**
+		 * Sketches the samples of the snapshot, along with the number of updates since the last poll sent. When
+		 * sampling, only polls that are sent take snapshots, since the samples of a histogram span minutes anyway.
+		 */
+		private void pushDistribution(MetricName name, Sampling sampling, long count, Long epoch,
+									  Expansions[] percentiles) {
+			if (!flushPoll) {
+				return;
+			}
+			long updates = distributionCounts.delta(name.getMBeanName(), count, epoch);
+			QuantileSketch sketch = new QuantileSketch(distributionAccuracy, QuantileSketch.DEFAULT_MAX_BINS);
+			for (double value : sampling.getSnapshot().getValues()) {
+				sketch.add(value);
+			}
+			if (!sketch.isEmpty()) {
+				distributions.add(new Distribution(name, percentiles, epoch, sketch, updates));
+			}
+		}
+
+		/**
+		 * Add the distributions sketched during the poll to the request, or if it does not take distributions,
+		 * their percentiles as gauges
+		 */
+		private void pushDistributions(Transport.Request request, long epoch) {
+			for (Distribution distribution : distributions) {
+				if (request instanceof Transport.DistributionRequest) {
+					addDistribution((Transport.DistributionRequest) request, distribution, epoch);
+				} else {
+					for (Expansions percentile : distribution.percentiles) {
+						pushGauge(distribution.name, distribution.sketch.getValue(percentile.getQuantile()),
+							distribution.epoch, percentile.toString());
+					}
+				}
+			}
+			distributions.clear();
+		}
+
+		/**
+		 * Sends the sketch scaled to the number of updates since the last poll sent times the values per update,
+		 * so every host weighs in with its traffic. The fraction of a value is sent with its probability, so hosts
+		 * of few updates still weigh in on average. Nothing is sent the first time a metric is seen, nor when it
+		 * was not updated.
+		 */
+		private void addDistribution(Transport.DistributionRequest request, Distribution distribution, long epoch) {
+			if (distribution.updates == CounterDeltas.NO_DELTA || distribution.updates <= 0) {
+				return;
+			}
+			long values = Math.min((long) (distribution.updates * distributionValuesPerUpdate + random.nextDouble()),
+				maxDistributionValues);
+			if (values == 0) {
+				return;
+			}
+			long start = reporterMetrics != null ? System.nanoTime() : 0;
+			try {
+				request.addDistribution(DatadogDistribution.scaled(
+					seriesNames.get(distribution.name, metricNameFormatter.format(distribution.name)), epoch, host,
+					distribution.sketch, values));
+			} catch (Exception e) {
+				LOG.error("Error writing distribution", e);
+				transportError();
+			}
+			series++;
+			if (reporterMetrics != null) {
+				serializationNanos += System.nanoTime() - start;
+			}
+		}
+
+		private void maybeExpand(ExpansionPolicy.Selection selection, Expansions expansion, MetricName name,
+								 Number count, Long epoch) {
+			if (selection.contains(expansion)) {
+				pushGauge(name, count, epoch, expansion.toString());
+			}
+		}
+
+		private void pushMetrics(MetricsRegistry registry, MetricPredicate predicate, long epoch, Rollup rollup) {
+			for (SortedMap<MetricName, Metric> group : registry.groupedMetrics(predicate).values()) {
+				process(group.entrySet(), epoch, rollup);
+			}
+		}
+
+		/**
+		 * @param rollup to add the metrics the rollup policy selects to, null to not roll up any
+		 */
+		private void process(Iterable<Entry<MetricName, Metric>> metrics, long epoch, Rollup rollup) {
+			for (Entry<MetricName, Metric> entry : metrics) {
+				final Metric metric = entry.getValue();
+				if (metric != null) {
+					try {
+						if (rollup != null && rollUp(rollup, entry.getKey(), metric, epoch)) {
+							continue;
+						}
+						metric.processWith(this, entry.getKey(), epoch);
+					} catch (Exception e) {
+						LOG.error("Error pushing metric", e);
+						if (reporterMetrics != null) {
+							reporterMetrics.metricError();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Rolls the metric up if the rollup policy selects it, or if the cardinality limiter does not keep its scope
+		 *
+		 * @return true if the metric was rolled up and is not reported on its own
+		 */
+		private boolean rollUp(Rollup rollup, MetricName name, Metric metric, long epoch) {
+			RollupPolicy.Target target = rollupPolicy != null ? rollupPolicy.select(name) : null;
+			if (target != null) {
+				add(rollup, target, name, metric);
+				if (!target.keepsOriginal()) {
+					return true;
+				}
+			}
+			if (cardinalityLimiter == null) {
+				return false;
+			}
+			RollupPolicy.Target other = cardinalityLimiter.select(name, metric, epoch);
+			if (other == null) {
+				return false;
+			}
+			add(rollup, other, name, metric);
+			suppressed += seriesOf(name, metric);
+			return true;
+		}
+
+		private void add(Rollup rollup, RollupPolicy.Target target, MetricName name, Metric metric) {
+			boolean samples = expansionPolicy.select(target.getName()).getPercentiles().length > 0;
+			if (!rollup.add(target, metric, samples)) {
+				LOG.debug("Metric " + name + " could not be rolled up into " + target.getName() + ", skipped");
+				if (reporterMetrics != null && metric instanceof Gauge) {
+					reporterMetrics.skippedGauge();
+				} else if (reporterMetrics != null) {
+					reporterMetrics.metricError();
+				}
+			}
+		}
+
+		/**
+		 * The number of series the metric would have been expanded into
+		 */
+		private int seriesOf(MetricName name, Metric metric) {
+			if (metric instanceof Counter || metric instanceof Gauge) {
+				return 1;
+			}
+			ExpansionPolicy.Selection selection = expansionPolicy.select(name);
+			int series = 0;
+			for (Expansions expansion : Expansions.values()) {
+				if (!selection.contains(expansion)) {
+					continue;
+				}
+				switch (expansion) {
+					case COUNT:
+					case RATE_MEAN:
+					case RATE_1_MINUTE:
+					case RATE_5_MINUTE:
+					case RATE_15_MINUTE:
+						series += metric instanceof Metered ? 1 : 0;
+						break;
+					case MIN:
+					case MEAN:
+					case MAX:
+					case STD_DEV:
+						series += metric instanceof Summarizable ? 1 : 0;
+						break;
+					default:
+						series += metric instanceof Sampling && distributionAccuracy <= 0 ? 1 : 0;
+				}
+			}
+			if (metric instanceof Sampling && distributionAccuracy > 0 && selection.getPercentiles().length > 0) {
+				series++;
+			}
+			return series;
+		}
+
+		/**
+		 * Report the metrics rolled up during the poll, once all metrics were collected
+		 */
+		private void pushRollup(Rollup rollup, long epoch) {
+			for (Entry<MetricName, Rollup.Aggregate> entry : rollup.aggregates()) {
+				MetricName name = entry.getKey();
+				Rollup.Aggregate aggregate = entry.getValue();
+				if (aggregate instanceof Rollup.CounterAggregate) {
+					pushCounter(name, ((Rollup.CounterAggregate) aggregate).count(), epoch);
+				} else if (aggregate instanceof Rollup.GaugeAggregate) {
+					Number value = ((Rollup.GaugeAggregate) aggregate).value();
+					if (value != null) {
+						pushGauge(name, value, epoch);
+					}
+				} else {
+					Rollup.SampledAggregate sampled = (Rollup.SampledAggregate) aggregate;
+					ExpansionPolicy.Selection selection = expansionPolicy.select(name);
+					if (sampled.isMetered()) {
+						pushMetered(selection, name, sampled, epoch);
+					}
+					if (sampled.isSummarized()) {
+						pushSummarizable(selection, name, sampled, epoch);
+						pushSampling(selection, name, sampled, sampled.count(), epoch);
+					}
+				}
+			}
+		}
+
+		private void pushVmMetrics(long epoch) {
+			sendGauge("jvm.memory.heap.committed", vm.heapCommitted(), epoch);
+			sendGauge("jvm.memory.heap.used", vm.heapUsed(), epoch);
+
+			pushGauge("jvm.daemon_thread_count", vm.daemonThreadCount(), epoch);
+			pushGauge("jvm.thread_count", vm.threadCount(), epoch);
+
+			for (Entry<String, VirtualMachineMetrics.GarbageCollectorStats> entry : vm.garbageCollectors().entrySet()) {
+				final String tag = "[type:" + entry.getKey() + "]";
+				pushGauge("jvm.gc.time" + tag, entry.getValue().getTime(TimeUnit.MILLISECONDS), epoch);
+				pushCounter("jvm.gc.runs" + tag, entry.getValue().getRuns(), epoch);
+			}
+		}
+
+		private void pushCounter(MetricName metricName, Long count, Long epoch, String... path) {
+			pushCounter(metricName, metricNameFormatter.format(metricName, path), count, epoch);
+		}
+
+		private void pushCounter(String name, Long count, Long epoch) {
+			pushCounter(null, name, count, epoch);
+		}
+
+		/**
+		 * Sends the cumulative count, or with counter deltas the count since the last poll, skipping the first
+		 *
+		 * @param metricName the name was formatted from, null if none
+		 */
+		private void pushCounter(MetricName metricName, String name, Long count, Long epoch) {
+			Long value = count;
+			if (counterDeltas != null) {
+				long delta = counterDeltas.delta(name, count, epoch);
+				if (delta == CounterDeltas.NO_DELTA || deltaInterval == null) {
+					return;
+				}
+				value = delta;
+			}
+			if (changeFilter != null && !changeFilter.shouldSend(name, value, epoch)) {
+				return;
+			}
+			addCounter(seriesNames.get(metricName, name), value, epoch);
+		}
+
+		private void pushGauge(MetricName metricName, Number count, Long epoch, String... path) {
+			sendGauge(metricName, metricNameFormatter.format(metricName, path), count, epoch);
+		}
+
+		private void pushGauge(String name, long count, long epoch) {
+			sendGauge(null, name, new Long(count), epoch);
+		}
+
+		private void sendGauge(String name, Number count, Long epoch) {
+			sendGauge(null, name, count, epoch);
+		}
+
+		private void sendGauge(MetricName metricName, String name, Number count, Long epoch) {
+			if (changeFilter != null && !changeFilter.shouldSend(name, count, epoch)) {
+				return;
+			}
+			addGauge(seriesNames.get(metricName, name), count, epoch);
+		}
+
+		/**
+		 * Add the series collected into the batch of a slice
+		 */
+		private void addAll(SeriesBatch rows) {
+			for (int row = 0; row < rows.size(); row++) {
+				long start = reporterMetrics != null ? System.nanoTime() : 0;
+				if (batch != null) {
+					batch.add(rows, row);
+				} else {
+					DatadogSeries<?> s = rows.toSeries(row);
+					try {
+						if (s instanceof DatadogCounter) {
+							request.addCounter((DatadogCounter) s);
+						} else {
+							request.addGauge((DatadogGauge) s);
+						}
+					} catch (Exception e) {
+						LOG.error("Error writing series", e);
+						transportError();
+					}
+				}
+				added(start);
+			}
+		}
+
+		private void addCounter(SeriesName name, Long count, Long epoch) {
+			long start = reporterMetrics != null ? System.nanoTime() : 0;
+			if (batch != null) {
+				batch.addCounter(name, epoch, count, deltaInterval);
+			} else {
+				try {
+					request.addCounter(new DatadogCounter(name, count, epoch, host, deltaInterval));
+				} catch (Exception e) {
+					LOG.error("Error writing counter", e);
+					transportError();
+				}
+			}
+			added(start);
+		}
+
+		private void addGauge(SeriesName name, Number count, Long epoch) {
+			long start = reporterMetrics != null ? System.nanoTime() : 0;
+			if (batch != null) {
+				batch.addGauge(name, epoch, count);
+			} else {
+				try {
+					request.addGauge(new DatadogGauge(name, count, epoch, host));
+				} catch (Exception e) {
+					LOG.error("Error writing gauge", e);
+					transportError();
+				}
+			}
+			added(start);
+		}
+
+		/**
+		 * Add the rows of the batch to the request and clear it
+		 */
+		private void flush() {
+			if (request == null || batch == null || batch.isEmpty()) {
+				return;
+			}
+			long start = reporterMetrics != null ? System.nanoTime() : 0;
+			try {
+				((Transport.BatchRequest) request).addBatch(batch);
+			} catch (Exception e) {
+				LOG.error("Error writing series", e);
+				transportError();
+			}
+			batch.clear();
+			if (reporterMetrics != null) {
+				serializationNanos += System.nanoTime() - start;
+			}
+		}
+
+		private void added(long start) {
+			series++;
+			if (reporterMetrics != null) {
+				serializationNanos += System.nanoTime() - start;
+			}
+			if (batch != null && request != null && batch.isFull()) {
+				flush();
+			}
+		}
 	}
 
-	private void sendGauge(String name, Number count, Long epoch) {
-		DatadogGauge gauge = new DatadogGauge(name, count, epoch, host, this.tags);
-		try {
-			request.addGauge(gauge);
-		} catch (Exception e) {
-			LOG.error("Error writing gauge", e);
+	/**
+	 * The sketch of a histogram or timer, with the percentiles to send as gauges if the request does not take
+	 * distributions
+	 */
+	private static class Distribution {
+		private final MetricName name;
+		private final Expansions[] percentiles;
+		private final Long epoch;
+		private final QuantileSketch sketch;
+		/**
+		 * Updates since the last poll sent, {@link CounterDeltas#NO_DELTA} on the first
+		 */
+		private final long updates;
+
+		Distribution(MetricName name, Expansions[] percentiles, Long epoch, QuantileSketch sketch, long updates) {
+			this.name = name;
+			this.percentiles = percentiles;
+			this.epoch = epoch;
+			this.sketch = sketch;
+			this.updates = updates;
 		}
 	}
 
 	@Override
 	public void shutdown() {
 		super.shutdown();
+		if (collectors != null) {
+			collectors.shutdown();
+		}
+		if (metricNameFormatter instanceof MetricsRegistryListener) {
+			getMetricsRegistry().removeListener((MetricsRegistryListener) metricNameFormatter);
+		}
+		getMetricsRegistry().removeListener(expansionPolicy);
+		getMetricsRegistry().removeListener(seriesNames);
+		if (rollupPolicy != null) {
+			getMetricsRegistry().removeListener(rollupPolicy);
+		}
+		if (cardinalityLimiter != null) {
+			getMetricsRegistry().removeListener(cardinalityLimiter);
+		}
+		if (predicate instanceof MetricsRegistryListener) {
+			getMetricsRegistry().removeListener((MetricsRegistryListener) predicate);
+		}
 		try {
 			transport.close();
 		} catch (IOException e) {
 			LOG.error("Error closing the datadog transport, ignored.", e);
 		}
+		if (reporterMetrics != null) {
+			reporterMetrics.shutdown();
+		}
 	}
 
 	public boolean isPrintVmMetrics() {
@@ -224,6 +988,18 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		return expansions;
 	}
 
+	public ExpansionPolicy getExpansionPolicy() {
+		return expansionPolicy;
+	}
+
+	public RollupPolicy getRollupPolicy() {
+		return rollupPolicy;
+	}
+
+	public CardinalityLimiter getCardinalityLimiter() {
+		return cardinalityLimiter;
+	}
+
 	public VirtualMachineMetrics getVm() {
 		return vm;
 	}
@@ -236,6 +1012,65 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		return tags;
 	}
 
+	public ChangeFilter getChangeFilter() {
+		return changeFilter;
+	}
+
+	public CounterDeltas getCounterDeltas() {
+		return counterDeltas;
+	}
+
+	public ReporterMetrics getReporterMetrics() {
+		return reporterMetrics;
+	}
+
+	public int getCollectorThreads() {
+		return collectorThreads;
+	}
+
+	/**
+	 * Number of polls whose series are sent together, 1 if every poll is sent
+	 */
+	public int getSamplesPerFlush() {
+		return sampleBuffer != null ? sampleBuffer.getPointsPerSeries() : 1;
+	}
+
+	/**
+	 * The schedule of the polls once started with an aligned schedule, null otherwise
+	 */
+	public PollSchedule getPollSchedule() {
+		return pollSchedule;
+	}
+
+	/**
+	 * The relative accuracy of the distributions histograms and timers are sent as, 0 if they are sent as
+	 * percentiles
+	 */
+	public double getDistributionAccuracy() {
+		return distributionAccuracy;
+	}
+
+	/**
+	 * Number of polls skipped since the reporter started, because a poll started late or overran
+	 */
+	public long getMissedIntervals() {
+		return missedIntervals.get();
+	}
+
+	/**
+	 * Number of polls that took so long that the next one was overdue
+	 */
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+	/**
+	 * Number of series the cardinality limiter rolled up into other series since the reporter started
+	 */
+	public long getSuppressedSeries() {
+		return suppressedSeries.get();
+	}
+
 	public enum Expansions {
 		COUNT("count"),
 		RATE_MEAN("meanRate"),
@@ -246,19 +1081,39 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		MEAN("mean"),
 		MAX("max"),
 		STD_DEV("stddev"),
-		MEDIAN("median"),
-		P75("p75"),
-		P95("p95"),
-		P98("p98"),
-		P99("p99"),
-		P999("p999");
+		MEDIAN("median", 0.5),
+		P75("p75", 0.75),
+		P95("p95", 0.95),
+		P98("p98", 0.98),
+		P99("p99", 0.99),
+		P999("p999", 0.999);
 
 		public static EnumSet<Expansions> ALL = EnumSet.allOf(Expansions.class);
 
 		private final String displayName;
+		private final double quantile;
 
 		Expansions(String displayName) {
+			this(displayName, Double.NaN);
+		}
+
+		Expansions(String displayName, double quantile) {
 			this.displayName = displayName;
+			this.quantile = quantile;
+		}
+
+		/**
+		 * Whether this expansion is a percentile of the samples of a histogram or timer
+		 */
+		public boolean isPercentile() {
+			return !Double.isNaN(quantile);
+		}
+
+		/**
+		 * The quantile of a percentile expansion, NaN for other expansions
+		 */
+		public double getQuantile() {
+			return quantile;
 		}
 
 		@Override
@@ -270,6 +1125,9 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 	public static class Builder {
 		private String host = null;
 		private EnumSet<Expansions> expansions = Expansions.ALL;
+		private ExpansionPolicy expansionPolicy = null;
+		private RollupPolicy rollupPolicy = null;
+		private CardinalityLimiter cardinalityLimiter = null;
 		private Boolean vmMetrics = true;
 		private String apiKey = null;
 		private Clock clock = Clock.defaultClock();
@@ -278,6 +1136,29 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		private List<String> tags = new ArrayList<String>();
 		private MetricsRegistry metricsRegistry = Metrics.defaultRegistry();
 		private Transport transport = null;
+		private SerializerFactory serializerFactory = new JsonSerializer.Factory();
+		private HttpTransport.Compression compression = HttpTransport.Compression.NONE;
+		private int maxBatchSeries = 0;
+		private int maxBatchBytes = 0;
+		private int senderThreads = 0;
+		private boolean prewarm = false;
+		private File spillDirectory = null;
+		private long spillMaxBytes;
+		private long spillMaxAgeMillis;
+		private int asyncQueueDepth = 0;
+		private long heartbeatSeconds = 0;
+		private boolean counterDeltas = false;
+		private int nameCacheSize = 0;
+		private String reporterMetricsPrefix = null;
+		private int collectorThreads = 0;
+		private long maxJitterMillis = -1;
+		private int batchCapacity = SeriesBatch.DEFAULT_CAPACITY;
+		private boolean offHeapBatches = false;
+		private int samplesPerFlush = 1;
+		private double distributionAccuracy = 0;
+		private double distributionValuesPerUpdate = DEFAULT_DISTRIBUTION_VALUES_PER_UPDATE;
+		private int maxDistributionValues = DEFAULT_DISTRIBUTION_VALUES;
+		private AsyncTransport.OverflowPolicy overflowPolicy = AsyncTransport.OverflowPolicy.DROP_OLDEST;
 
 		public Builder withHost(String host) {
 			this.host = host;
@@ -294,6 +1175,39 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 			return this;
 		}
 
+		/**
+		 * Choose expansions per metric instead of the same for all. Takes precedence over
+		 * {@link #withExpansions(EnumSet)}, the default expansions of the policy apply to metrics no rule matches.
+		 *
+		 * @see ExpansionPolicy
+		 */
+		public Builder withExpansionPolicy(ExpansionPolicy expansionPolicy) {
+			this.expansionPolicy = expansionPolicy;
+			return this;
+		}
+
+		/**
+		 * Roll metrics reported per table or keyspace up to keyspace or node level, cutting the number of series
+		 * per node while keeping the aggregates dashboards are built on
+		 *
+		 * @see RollupPolicy
+		 */
+		public Builder withRollupPolicy(RollupPolicy rollupPolicy) {
+			this.rollupPolicy = rollupPolicy;
+			return this;
+		}
+
+		/**
+		 * Cap the number of series per family of metrics reported per table, keeping the most active tables and
+		 * rolling the others up into an other series. Applies to the metrics the rollup policy does not roll up.
+		 *
+		 * @see CardinalityLimiter
+		 */
+		public Builder withCardinalityLimiter(CardinalityLimiter cardinalityLimiter) {
+			this.cardinalityLimiter = cardinalityLimiter;
+			return this;
+		}
+
 		public Builder withVmMetricsEnabled(Boolean enabled) {
 			this.vmMetrics = enabled;
 			return this;
@@ -320,6 +1234,10 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 			return this;
 		}
 
+		/**
+		 * Only report metrics the predicate matches. A predicate that is also a {@link MetricsRegistryListener}
+		 * is registered with the metrics registry, see {@link CompiledMetricPredicate}.
+		 */
 		public Builder withPredicate(MetricPredicate predicate) {
 			this.predicate = predicate;
 			return this;
@@ -330,6 +1248,127 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 			return this;
 		}
 
+		/**
+		 * Cache the formatted names of up to maxSize metrics instead of building them again on every poll. The
+		 * formatter has to return the same name for the same metric every time.
+		 *
+		 * @see CachingMetricNameFormatter
+		 */
+		public Builder withNameCache(int maxSize) {
+			this.nameCacheSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Send timers and counters of the reporter itself along with the metrics, named with the given prefix,
+		 * e.g. {@link ReporterMetrics#DEFAULT_PREFIX}
+		 *
+		 * @see ReporterMetrics
+		 */
+		public Builder withReporterMetrics(String prefix) {
+			this.reporterMetricsPrefix = prefix;
+			return this;
+		}
+
+		/**
+		 * Collect metrics on a pool of the given number of threads instead of the polling thread. Reading
+		 * histograms and timers sorts their samples, which adds up with thousands of tables. The series are
+		 * still added to the request in the same order as with sequential collection.
+		 */
+		public Builder withParallelCollection(int threads) {
+			this.collectorThreads = threads;
+			return this;
+		}
+
+		/**
+		 * Poll at the boundaries of the period on the wall clock, e.g. at every full minute, and stamp the samples
+		 * with the boundary, so all nodes report the same timestamps. Each host polls a fixed offset of up to
+		 * maxJitter after the boundary, derived from its host name, or the local host name if no host is set, so
+		 * a fleet does not send all at once.
+		 *
+		 * @see PollSchedule
+		 */
+		public Builder withAlignedSchedule(long maxJitter, TimeUnit unit) {
+			this.maxJitterMillis = unit.toMillis(maxJitter);
+			return this;
+		}
+
+		/**
+		 * Collect the series of a poll into columnar batches of the given number of rows, handed to the transport
+		 * a batch at a time, if the transport takes batches, see {@link Transport.BatchRequest}. Off heap, the
+		 * columns are kept in direct buffers outside of the heap of the host process. A capacity of 0 adds one
+		 * series object at a time instead.
+		 *
+		 * @see SeriesBatch
+		 */
+		public Builder withSeriesBatches(int capacity, boolean offHeap) {
+			this.batchCapacity = capacity;
+			this.offHeapBatches = offHeap;
+			return this;
+		}
+
+		/**
+		 * Poll every period, but only send every given number of polls, with a point per poll for every series.
+		 * Polling every 10 seconds and sending every 6 polls gets 10 second resolution at the request rate of one
+		 * a minute. Up to that many points per series are kept in between, see {@link SampleBuffer}. Points not
+		 * yet sent when the reporter is shut down are lost.
+		 */
+		public Builder withSamplesPerFlush(int samples) {
+			this.samplesPerFlush = samples;
+			return this;
+		}
+
+		/**
+		 * Send the samples of histograms and timers as distributions, which datadog aggregates across hosts, in
+		 * place of their percentiles. Metrics get a distribution if their expansions include any percentile.
+		 * Requests that do not take distributions get the percentiles as gauges instead.
+		 *
+		 * @see #withDistributions(double, double, int)
+		 */
+		public Builder withDistributions(boolean enabled) {
+			return withDistributions(enabled ? QuantileSketch.DEFAULT_RELATIVE_ACCURACY : 0,
+				DEFAULT_DISTRIBUTION_VALUES_PER_UPDATE, DEFAULT_DISTRIBUTION_VALUES);
+		}
+
+		/**
+		 * @see #withDistributions(double, double, int)
+		 */
+		public Builder withDistributions(double relativeAccuracy, int maxValues) {
+			return withDistributions(relativeAccuracy, DEFAULT_DISTRIBUTION_VALUES_PER_UPDATE, maxValues);
+		}
+
+		/**
+		 * Send histograms and timers as distributions, sketching their samples with the given relative accuracy.
+		 * Datadog takes raw values only and adds up the values of all hosts, so every bin of the sketch is sent as
+		 * its value repeated by its count, with the counts scaled to valuesPerUpdate times the updates of the
+		 * metric since the last poll sent. Hosts then weigh in with their traffic, and the count datadog shows is
+		 * the updates times valuesPerUpdate. A metric is first sent on the second poll, once there is a count to
+		 * weigh it with.
+		 * <p>
+		 * At most maxValues values are sent per distribution, which bounds the payload at about 20 bytes per
+		 * value: 100 values resolve up to the p99 in about 2 KB. Hosts of more than maxValues / valuesPerUpdate
+		 * updates per poll are all weighted as if they had that many, so the two should be chosen for the busiest
+		 * host. Scaling moves the rank of every value by up to 1 / maxValues of the sample, so datadog resolves
+		 * percentiles down to steps of that size.
+		 * <p>
+		 * Only the weight is that of the last poll: the values come from the reservoir of the metric, which for
+		 * Cassandra's exponentially decaying histograms is biased towards the last five minutes and for uniform
+		 * ones spans the life of the metric. A host whose latencies changed within the poll still sends the shape
+		 * of the older samples, so datadog lags behind changes by up to the span of the reservoir.
+		 *
+		 * @param relativeAccuracy the relative error of the percentiles, 0 to send percentiles as gauges
+		 * @param valuesPerUpdate values sent per update since the last poll sent,
+		 *                        {@link #DEFAULT_DISTRIBUTION_VALUES_PER_UPDATE} by default
+		 * @param maxValues the most values sent per distribution, {@link #DEFAULT_DISTRIBUTION_VALUES} by default
+		 * @see QuantileSketch
+		 */
+		public Builder withDistributions(double relativeAccuracy, double valuesPerUpdate, int maxValues) {
+			this.distributionAccuracy = relativeAccuracy;
+			this.distributionValuesPerUpdate = valuesPerUpdate;
+			this.maxDistributionValues = maxValues;
+			return this;
+		}
+
 		public Builder withMetricsRegistry(MetricsRegistry metricsRegistry) {
 			this.metricsRegistry = metricsRegistry;
 			return this;
@@ -340,15 +1379,158 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 		 * as of now.
 		 *
 		 * @see HttpTransport
+		 * @see DogStatsdTransport
 		 */
 		public Builder withTransport(Transport transport) {
 			this.transport = transport;
 			return this;
 		}
 
+		/**
+		 * The serializer used to build request bodies for the default http transport. Ignored when a transport is
+		 * given through {@link #withTransport(Transport)}.
+		 *
+		 * @see JsonSerializer
+		 * @see StreamingJsonSerializer
+		 */
+		public Builder withSerializerFactory(SerializerFactory serializerFactory) {
+			this.serializerFactory = serializerFactory;
+			return this;
+		}
+
+		/**
+		 * Compress request bodies of the default http transport, streaming them to datadog as they are built.
+		 * Ignored when a transport is given through {@link #withTransport(Transport)}.
+		 */
+		public Builder withCompression(HttpTransport.Compression compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		/**
+		 * Split the requests of the default http transport into batches of at most maxSeries series and maxBytes
+		 * bytes (0 for no limit), posted on senderThreads threads (0 to post on the polling thread). Ignored when a
+		 * transport is given through {@link #withTransport(Transport)}.
+		 */
+		public Builder withBatching(int maxSeries, int maxBytes, int senderThreads) {
+			this.maxBatchSeries = maxSeries;
+			this.maxBatchBytes = maxBytes;
+			this.senderThreads = senderThreads;
+			return this;
+		}
+
+		/**
+		 * Connect the default http transport to datadog in the background as soon as the reporter is built, so
+		 * the first poll does not pay for the TLS handshake. Ignored when a transport is given through
+		 * {@link #withTransport(Transport)}.
+		 */
+		public Builder withPrewarm(boolean prewarm) {
+			this.prewarm = prewarm;
+			return this;
+		}
+
+		/**
+		 * Keep batches the default http transport could not deliver in the given directory and retry them with
+		 * backoff, at most maxBytes in total and for at most maxAgeMillis. Ignored when a transport is given
+		 * through {@link #withTransport(Transport)}.
+		 *
+		 * @see smartthings.cassandra.datadog.transports.SpillBuffer
+		 */
+		public Builder withSpill(File directory, long maxBytes, long maxAgeMillis) {
+			this.spillDirectory = directory;
+			this.spillMaxBytes = maxBytes;
+			this.spillMaxAgeMillis = maxAgeMillis;
+			return this;
+		}
+
+		/**
+		 * Only send series whose value changed since they were last sent, plus every series at least once per
+		 * heartbeat. On large schemas most series are idle, so this cuts payload size considerably. Datadog
+		 * shows gaps between heartbeats of an unchanged series, so the heartbeat should stay short enough for
+		 * the dashboards and monitors in use. A failed send is retried by the next poll, but batches lost after
+		 * sending, dropped by the async queue or expired from the spill, are only made up for by the heartbeat,
+		 * so keep it to a few poll intervals.
+		 *
+		 * @see ChangeFilter
+		 */
+		public Builder withChangesOnly(long heartbeat, TimeUnit unit) {
+			this.heartbeatSeconds = unit.toSeconds(heartbeat);
+			return this;
+		}
+
+		/**
+		 * Send counters, meter counts and garbage collector runs as the count since the last poll, of datadog
+		 * type count with the poll interval, instead of the cumulative count. Nothing is sent for a counter on
+		 * the first poll, and a count lower than the last is taken as a reset of the counter.
+		 *
+		 * @see CounterDeltas
+		 */
+		public Builder withCounterDeltas(boolean enabled) {
+			this.counterDeltas = enabled;
+			return this;
+		}
+
+		/**
+		 * Send from a dedicated thread instead of the polling thread. Each poll only buffers its series and
+		 * queues them, up to queueDepth batches, applying the overflow policy once the queue is full.
+		 *
+		 * @see AsyncTransport
+		 */
+		public Builder withAsyncSend(int queueDepth, AsyncTransport.OverflowPolicy overflowPolicy) {
+			this.asyncQueueDepth = queueDepth;
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
 		public DatadogReporter build() {
+			MetricNameFormatter metricNameFormatter = this.metricNameFormatter;
+			if (nameCacheSize > 0) {
+				CachingMetricNameFormatter cachingFormatter =
+					new CachingMetricNameFormatter(metricNameFormatter, nameCacheSize);
+				metricsRegistry.addListener(cachingFormatter);
+				metricNameFormatter = cachingFormatter;
+			}
+			EnumSet<Expansions> expansions = this.expansions;
+			ExpansionPolicy expansionPolicy = this.expansionPolicy;
+			if (expansionPolicy == null) {
+				expansionPolicy = ExpansionPolicy.of(expansions);
+			} else {
+				expansions = expansionPolicy.getDefault();
+				metricsRegistry.addListener(expansionPolicy);
+			}
+			if (rollupPolicy != null) {
+				metricsRegistry.addListener(rollupPolicy);
+			}
+			if (cardinalityLimiter != null) {
+				metricsRegistry.addListener(cardinalityLimiter);
+			}
+			if (predicate instanceof MetricsRegistryListener) {
+				metricsRegistry.addListener((MetricsRegistryListener) predicate);
+			}
+			ReporterMetrics reporterMetrics = null;
+			if (reporterMetricsPrefix != null) {
+				reporterMetrics = new ReporterMetrics(reporterMetricsPrefix);
+			}
+			Transport transport = this.transport;
 			if (transport == null) {
-				this.transport = new HttpTransport(apiKey);
+				HttpTransport.Builder builder = new HttpTransport.Builder()
+					.withApiKey(apiKey)
+					.withSerializerFactory(serializerFactory)
+					.withCompression(compression)
+					.withMaxBatchSeries(maxBatchSeries)
+					.withMaxBatchBytes(maxBatchBytes)
+					.withSenderThreads(senderThreads)
+					.withPrewarm(prewarm);
+				if (spillDirectory != null) {
+					builder.withSpill(spillDirectory, spillMaxBytes, spillMaxAgeMillis);
+				}
+				transport = builder.build();
+			}
+			if (reporterMetrics != null && transport instanceof HttpTransport) {
+				((HttpTransport) transport).addBatchListener(reporterMetrics);
+			}
+			if (asyncQueueDepth > 0) {
+				transport = new AsyncTransport(transport, asyncQueueDepth, overflowPolicy, metricsRegistry);
 			}
 			return new DatadogReporter(
 				metricsRegistry,
@@ -357,10 +1539,25 @@ public class DatadogReporter extends AbstractPollingReporter implements MetricPr
 				transport,
 				this.clock,
 				this.host,
-				this.expansions,
+				expansions,
+				expansionPolicy,
+				this.rollupPolicy,
+				this.cardinalityLimiter,
 				this.vmMetrics,
 				metricNameFormatter,
-				this.tags);
+				this.tags,
+				heartbeatSeconds > 0 ? new ChangeFilter(heartbeatSeconds, TimeUnit.SECONDS) : null,
+				counterDeltas ? new CounterDeltas(CounterDeltas.DEFAULT_EXPECTED_SERIES,
+					CounterDeltas.DEFAULT_EXPIRE_SECONDS, TimeUnit.SECONDS) : null,
+				reporterMetrics,
+				collectorThreads,
+				maxJitterMillis,
+				batchCapacity,
+				offHeapBatches,
+				samplesPerFlush,
+				distributionAccuracy,
+				distributionValuesPerUpdate,
+				maxDistributionValues);
 		}
 	}
 }
@@ -0,0 +1,257 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+import org.yaml.snakeyaml.Yaml;
+import smartthings.cassandra.datadog.DatadogReporter.Expansions;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which expansions to report for a meter, timer or histogram. Rules match the group, type, scope and name
+ * of a metric with glob patterns, where {@code *} matches any characters and {@code ?} a single one, and a missing
+ * pattern matches anything. The first matching rule wins, metrics no rule matches get the default expansions.
+ * <p>
+ * The result is cached per metric. Registered as a listener with the metrics registry, entries are evicted once
+ * their metric is removed from the registry.
+ * <p>
+ * Policies can be loaded from YAML, expansions are given by enum or display name:
+ * <pre>
+ * default: [count, 1MinuteRate, max, p99]
+ * rules:
+ *   - type: ColumnFamily
+ *     name: "*Latency"
+ *     expansions: [count, p99]
+ *   - type: ColumnFamily
+ *     expansions: []
+ * </pre>
+ */
+public class ExpansionPolicy implements MetricsRegistryListener {
+	private static final int MAX_CACHED = 256 * 1024;
+
+	private final Selection defaults;
+	private final List<Rule> rules;
+	private final ConcurrentMap<MetricName, Selection> cache = new ConcurrentHashMap<MetricName, Selection>();
+
+	private ExpansionPolicy(Builder builder) {
+		this.defaults = new Selection(builder.defaults);
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(builder.rules));
+	}
+
+	/**
+	 * A policy reporting the same expansions for every metric
+	 */
+	public static ExpansionPolicy of(EnumSet<Expansions> expansions) {
+		return new Builder().withDefault(expansions).build();
+	}
+
+	/**
+	 * Load a policy from YAML, see the class documentation for the format
+	 */
+	@SuppressWarnings("unchecked")
+	public static ExpansionPolicy fromYaml(InputStream yaml) {
+		Object loaded = new Yaml().load(yaml);
+		if (!(loaded instanceof Map)) {
+			throw new IllegalArgumentException("Expansion policy must be a mapping, was " + loaded);
+		}
+		Map<String, Object> config = (Map<String, Object>) loaded;
+		Builder builder = new Builder();
+		if (config.containsKey("default")) {
+			builder.withDefault(parseExpansions(config.get("default")));
+		}
+		Object rules = config.get("rules");
+		if (rules != null) {
+			if (!(rules instanceof List)) {
+				throw new IllegalArgumentException("rules must be a list, was " + rules);
+			}
+			for (Object rule : (List<Object>) rules) {
+				if (!(rule instanceof Map)) {
+					throw new IllegalArgumentException("Rule must be a mapping, was " + rule);
+				}
+				Map<String, Object> r = (Map<String, Object>) rule;
+				if (!r.containsKey("expansions")) {
+					throw new IllegalArgumentException("Rule without expansions: " + rule);
+				}
+				builder.withRule(string(r.get("group")), string(r.get("type")), string(r.get("scope")),
+					string(r.get("name")), parseExpansions(r.get("expansions")));
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * The expansions to report for a metric
+	 */
+	public Selection select(MetricName name) {
+		if (rules.isEmpty()) {
+			return defaults;
+		}
+		Selection selection = cache.get(name);
+		if (selection == null) {
+			selection = match(name);
+			if (cache.size() < MAX_CACHED) {
+				cache.put(name, selection);
+			}
+		}
+		return selection;
+	}
+
+	public EnumSet<Expansions> getDefault() {
+		return defaults.expansions.clone();
+	}
+
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// matched when first selected
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName name) {
+		cache.remove(name);
+	}
+
+	private Selection match(MetricName name) {
+		for (Rule rule : rules) {
+			if (rule.matches(name)) {
+				return rule.selection;
+			}
+		}
+		return defaults;
+	}
+
+	private static String string(Object value) {
+		return value == null ? null : value.toString();
+	}
+
+	private static EnumSet<Expansions> parseExpansions(Object value) {
+		EnumSet<Expansions> expansions = EnumSet.noneOf(Expansions.class);
+		if (value == null) {
+			return expansions;
+		}
+		if (!(value instanceof Collection)) {
+			throw new IllegalArgumentException("Expansions must be a list, was " + value);
+		}
+		for (Object item : (Collection<?>) value) {
+			expansions.add(parseExpansion(String.valueOf(item)));
+		}
+		return expansions;
+	}
+
+	private static Expansions parseExpansion(String value) {
+		for (Expansions expansion : Expansions.values()) {
+			if (expansion.name().equalsIgnoreCase(value) || expansion.toString().equals(value)) {
+				return expansion;
+			}
+		}
+		throw new IllegalArgumentException("Unknown expansion " + value);
+	}
+
+	/**
+	 * The expansions selected for a metric, with the enabled percentiles resolved up front
+	 */
+	public static final class Selection {
+		private final EnumSet<Expansions> expansions;
+		private final Expansions[] percentiles;
+
+		Selection(EnumSet<Expansions> expansions) {
+			this.expansions = expansions.clone();
+			List<Expansions> enabledPercentiles = new ArrayList<Expansions>();
+			for (Expansions expansion : expansions) {
+				if (expansion.isPercentile()) {
+					enabledPercentiles.add(expansion);
+				}
+			}
+			this.percentiles = enabledPercentiles.toArray(new Expansions[enabledPercentiles.size()]);
+		}
+
+		public boolean contains(Expansions expansion) {
+			return expansions.contains(expansion);
+		}
+
+		/**
+		 * The enabled percentile expansions in declaration order, not to be modified
+		 */
+		Expansions[] getPercentiles() {
+			return percentiles;
+		}
+
+		@Override
+		public String toString() {
+			return expansions.toString();
+		}
+	}
+
+	private static class Rule {
+		private final Pattern group;
+		private final Pattern type;
+		private final Pattern scope;
+		private final Pattern name;
+		private final Selection selection;
+
+		Rule(String group, String type, String scope, String name, EnumSet<Expansions> expansions) {
+			this.group = glob(group);
+			this.type = glob(type);
+			this.scope = glob(scope);
+			this.name = glob(name);
+			this.selection = new Selection(expansions);
+		}
+
+		boolean matches(MetricName metricName) {
+			return matches(group, metricName.getGroup())
+				&& matches(type, metricName.getType())
+				&& matches(scope, metricName.getScope())
+				&& matches(name, metricName.getName());
+		}
+
+		private static boolean matches(Pattern pattern, String value) {
+			if (pattern == null) {
+				return true;
+			}
+			return pattern.matcher(value == null ? "" : value).matches();
+		}
+
+		private static Pattern glob(String glob) {
+			return glob == null ? null : Globs.compile(glob);
+		}
+	}
+
+	public static class Builder {
+		private EnumSet<Expansions> defaults = Expansions.ALL;
+		private final List<Rule> rules = new ArrayList<Rule>();
+
+		/**
+		 * Expansions of metrics no rule matches, all expansions unless given
+		 */
+		public Builder withDefault(EnumSet<Expansions> expansions) {
+			this.defaults = expansions;
+			return this;
+		}
+
+		/**
+		 * Add a rule, rules are matched in the order they are added. Null patterns match anything.
+		 */
+		public Builder withRule(String group, String type, String scope, String name,
+								EnumSet<Expansions> expansions) {
+			rules.add(new Rule(group, type, scope, name, expansions));
+			return this;
+		}
+
+		public ExpansionPolicy build() {
+			return new ExpansionPolicy(this);
+		}
+	}
+}
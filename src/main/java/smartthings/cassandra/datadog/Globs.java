@@ -0,0 +1,54 @@
+package smartthings.cassandra.datadog;
+
+import java.util.regex.Pattern;
+
+/**
+ * Glob patterns, where {@code *} matches any characters and {@code ?} a single one
+ */
+final class Globs {
+
+	private Globs() {
+	}
+
+	static boolean isLiteral(String glob) {
+		return glob.indexOf('*') < 0 && glob.indexOf('?') < 0;
+	}
+
+	/**
+	 * Whether the glob is a literal followed by a single trailing {@code *}
+	 */
+	static boolean isPrefix(String glob) {
+		return glob.endsWith("*") && isLiteral(glob.substring(0, glob.length() - 1));
+	}
+
+	/**
+	 * Whether the glob is a literal with a single {@code *} somewhere in it
+	 */
+	static boolean isPrefixSuffix(String glob) {
+		int star = glob.indexOf('*');
+		return star >= 0 && glob.indexOf('?') < 0 && glob.indexOf('*', star + 1) < 0;
+	}
+
+	static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int literalStart = 0;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				if (i > literalStart) {
+					regex.append(Pattern.quote(glob.substring(literalStart, i)));
+				}
+				regex.append(c == '*' ? ".*" : ".");
+				literalStart = i + 1;
+			}
+		}
+		if (literalStart < glob.length()) {
+			regex.append(Pattern.quote(glob.substring(literalStart)));
+		}
+		return regex.toString();
+	}
+
+	static Pattern compile(String glob) {
+		return Pattern.compile(toRegex(glob), Pattern.DOTALL);
+	}
+}
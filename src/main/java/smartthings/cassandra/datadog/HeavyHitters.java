@@ -0,0 +1,163 @@
+package smartthings.cassandra.datadog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The heaviest keys of a weighted stream in a fixed number of counters, after the Space-Saving algorithm of
+ * Metwally et al. A key not counted yet takes the counter of the lightest key and adds to its count, so a count
+ * overestimates the weight of its key by at most the count it took over, and every key weighing more than the
+ * total weight divided by the number of counters is counted.
+ * <p>
+ * Counters are kept in a min heap of parallel arrays, the lightest at the root. Counts decay by a factor with
+ * {@link #decay(double)}, which keeps the order of the heap. Not thread safe.
+ */
+class HeavyHitters {
+	private final String[] keys;
+	private final double[] counts;
+	private final double[] errors;
+	private final Map<String, Integer> slots;
+	private int size;
+
+	/**
+	 * @param capacity number of keys counted
+	 */
+	HeavyHitters(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("At least one counter, was " + capacity);
+		}
+		this.keys = new String[capacity];
+		this.counts = new double[capacity];
+		this.errors = new double[capacity];
+		this.slots = new HashMap<String, Integer>(capacity * 2);
+	}
+
+	/**
+	 * Add to the count of a key. A key of no weight does not take over the counter of another.
+	 */
+	void add(String key, double weight) {
+		Integer slot = slots.get(key);
+		if (slot != null) {
+			counts[slot] += weight;
+			siftDown(slot);
+		} else if (size < keys.length) {
+			keys[size] = key;
+			counts[size] = weight;
+			errors[size] = 0;
+			slots.put(key, size);
+			siftUp(size++);
+		} else if (weight > 0) {
+			slots.remove(keys[0]);
+			keys[0] = key;
+			errors[0] = counts[0];
+			counts[0] += weight;
+			slots.put(key, 0);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Multiply all counts by the factor, so older weights count less
+	 */
+	void decay(double factor) {
+		for (int i = 0; i < size; i++) {
+			counts[i] *= factor;
+			errors[i] *= factor;
+		}
+	}
+
+	/**
+	 * The estimated weight of the key, 0 if it is not counted
+	 */
+	double count(String key) {
+		Integer slot = slots.get(key);
+		return slot != null ? counts[slot] : 0;
+	}
+
+	/**
+	 * By how much the count of the key may overestimate its weight
+	 */
+	double error(String key) {
+		Integer slot = slots.get(key);
+		return slot != null ? errors[slot] : 0;
+	}
+
+	/**
+	 * The keys counted, heaviest first, keys of equal counts in their natural order
+	 */
+	List<String> keys() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int byCount = Double.compare(counts[b], counts[a]);
+				return byCount != 0 ? byCount : keys[a].compareTo(keys[b]);
+			}
+		});
+		List<String> sorted = new ArrayList<String>(size);
+		for (Integer slot : order) {
+			sorted.add(keys[slot]);
+		}
+		return Collections.unmodifiableList(sorted);
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return keys.length;
+	}
+
+	private void siftUp(int slot) {
+		while (slot > 0) {
+			int parent = (slot - 1) / 2;
+			if (counts[parent] <= counts[slot]) {
+				return;
+			}
+			swap(slot, parent);
+			slot = parent;
+		}
+	}
+
+	private void siftDown(int slot) {
+		while (true) {
+			int lightest = slot;
+			int left = 2 * slot + 1;
+			int right = left + 1;
+			if (left < size && counts[left] < counts[lightest]) {
+				lightest = left;
+			}
+			if (right < size && counts[right] < counts[lightest]) {
+				lightest = right;
+			}
+			if (lightest == slot) {
+				return;
+			}
+			swap(slot, lightest);
+			slot = lightest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		String key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+		double count = counts[a];
+		counts[a] = counts[b];
+		counts[b] = count;
+		double error = errors[a];
+		errors[a] = errors[b];
+		errors[b] = error;
+		slots.put(keys[a], a);
+		slots.put(keys[b], b);
+	}
+}
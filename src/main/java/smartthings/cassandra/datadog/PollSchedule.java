@@ -0,0 +1,95 @@
+package smartthings.cassandra.datadog;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls aligned to wall clock interval boundaries, so every node stamps its samples with the same timestamps,
+ * while the poll itself runs a fixed offset after the boundary. The offset is derived from the host name, so it
+ * stays the same across restarts, and spreads the sends of a fleet over the jitter window instead of all nodes
+ * restarted together sending in the same second. Without a host name the offset is derived from the name of the
+ * local host.
+ */
+public class PollSchedule {
+	private final long periodMillis;
+	private final long offsetMillis;
+
+	/**
+	 * @param maxJitter upper bound of the offset, capped to the period
+	 * @param host the offset is derived from, the local host name if null
+	 */
+	public PollSchedule(long period, long maxJitter, TimeUnit unit, String host) {
+		this.periodMillis = unit.toMillis(period);
+		if (periodMillis <= 0) {
+			throw new IllegalArgumentException("Period must be at least a millisecond, was " + period + " " + unit);
+		}
+		long jitterMillis = Math.min(unit.toMillis(maxJitter), periodMillis);
+		this.offsetMillis = jitterMillis > 0 ? offset(host != null ? host : localHostName(), jitterMillis) : 0;
+	}
+
+	public long getPeriodMillis() {
+		return periodMillis;
+	}
+
+	/**
+	 * How long after a boundary this host polls
+	 */
+	public long getOffsetMillis() {
+		return offsetMillis;
+	}
+
+	/**
+	 * The first boundary whose poll is due after the given time
+	 */
+	public long nextBoundary(long nowMillis) {
+		long boundary = nowMillis - mod(nowMillis, periodMillis);
+		return boundary + offsetMillis > nowMillis ? boundary : boundary + periodMillis;
+	}
+
+	/**
+	 * When the poll of a boundary is due
+	 */
+	public long pollTime(long boundaryMillis) {
+		return boundaryMillis + offsetMillis;
+	}
+
+	/**
+	 * Number of boundaries whose poll time passed since the poll of the given boundary was due, not counting it
+	 */
+	public long missedSince(long boundaryMillis, long nowMillis) {
+		long late = nowMillis - pollTime(boundaryMillis);
+		return late < periodMillis ? 0 : late / periodMillis;
+	}
+
+	/**
+	 * A deterministic offset below jitterMillis from the murmur3 mix of the host's hash code
+	 */
+	private static long offset(String host, long jitterMillis) {
+		long h = host.hashCode();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return mod(h, jitterMillis);
+	}
+
+	/**
+	 * The name of the local host, or if it cannot be resolved the name of the JVM, which includes it on most
+	 * platforms
+	 */
+	private static String localHostName() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			return ManagementFactory.getRuntimeMXBean().getName();
+		}
+	}
+
+	private static long mod(long value, long divisor) {
+		long mod = value % divisor;
+		return mod < 0 ? mod + divisor : mod;
+	}
+}
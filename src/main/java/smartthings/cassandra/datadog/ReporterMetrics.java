@@ -0,0 +1,146 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import smartthings.cassandra.datadog.transports.HttpTransport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the reporter itself, kept in a registry of their own and sent along with every poll.
+ * Metric names start with the prefix, {@code datadog.reporter} by default, e.g. {@code datadog.reporter.poll.p99}.
+ * <p>
+ * Also listens to the batches posted by a {@link HttpTransport} for payload sizes, latencies and failures.
+ */
+public class ReporterMetrics implements HttpTransport.BatchListener {
+	public static final String DEFAULT_PREFIX = "datadog.reporter";
+
+	private final String group;
+	private final String type;
+	private final MetricsRegistry registry = new MetricsRegistry();
+	private final Timer pollTime;
+	private final Timer collectionTime;
+	private final Timer serializationTime;
+	private final Timer sendTime;
+	private final Histogram seriesPerPoll;
+	private final Counter skippedGauges;
+	private final Counter suppressedSeries;
+	private final Counter metricErrors;
+	private final Counter missedIntervals;
+	private final Counter overruns;
+	private final Timer batchLatency;
+	private final Timer connectTime;
+	private final Histogram payloadBytes;
+	private final Counter failedBatches;
+
+	/**
+	 * @param prefix of all metric names, made of at least two dot separated parts like a group and type
+	 */
+	public ReporterMetrics(String prefix) {
+		int dot = prefix.lastIndexOf('.');
+		if (dot <= 0 || dot == prefix.length() - 1) {
+			throw new IllegalArgumentException("Prefix needs the form group.type, was " + prefix);
+		}
+		this.group = prefix.substring(0, dot);
+		this.type = prefix.substring(dot + 1);
+
+		pollTime = registry.newTimer(name("poll"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		collectionTime = registry.newTimer(name("collection"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		serializationTime = registry.newTimer(name("serialization"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		sendTime = registry.newTimer(name("send"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		seriesPerPoll = registry.newHistogram(name("series"), false);
+		skippedGauges = registry.newCounter(name("skipped_gauges"));
+		suppressedSeries = registry.newCounter(name("suppressed_series"));
+		metricErrors = registry.newCounter(name("metric_errors"));
+		missedIntervals = registry.newCounter(name("missed_intervals"));
+		overruns = registry.newCounter(name("overruns"));
+		batchLatency = registry.newTimer(name("batch.latency"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		connectTime = registry.newTimer(name("batch.connect"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+		payloadBytes = registry.newHistogram(name("batch.bytes"), false);
+		failedBatches = registry.newCounter(name("batch.failures"));
+	}
+
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Record a completed poll
+	 *
+	 * @param collectionNanos time spent walking the registry and adding series to the request
+	 * @param serializationNanos part of the collection time spent in the transport adding series
+	 * @param sendNanos time spent in send
+	 * @param series number of series added
+	 */
+	public void polled(long collectionNanos, long serializationNanos, long sendNanos, int series) {
+		collectionTime.update(collectionNanos, TimeUnit.NANOSECONDS);
+		serializationTime.update(serializationNanos, TimeUnit.NANOSECONDS);
+		sendTime.update(sendNanos, TimeUnit.NANOSECONDS);
+		pollTime.update(collectionNanos + sendNanos, TimeUnit.NANOSECONDS);
+		seriesPerPoll.update(series);
+	}
+
+	/**
+	 * A gauge had a value that is not a number
+	 */
+	public void skippedGauge() {
+		skippedGauges.inc();
+	}
+
+	/**
+	 * Series were rolled up into other series by the cardinality limiter
+	 */
+	public void suppressedSeries(int series) {
+		suppressedSeries.inc(series);
+	}
+
+	/**
+	 * Reading a metric failed
+	 */
+	public void metricError() {
+		metricErrors.inc();
+	}
+
+	/**
+	 * Polls were skipped as the poll of an earlier interval started late
+	 */
+	public void missedIntervals(long intervals) {
+		missedIntervals.inc(intervals);
+	}
+
+	/**
+	 * A poll took so long the next one was overdue, and the given number of polls were skipped
+	 */
+	public void overrun(long skippedIntervals) {
+		overruns.inc();
+		missedIntervals.inc(skippedIntervals);
+	}
+
+	/**
+	 * Preparing, adding to or sending a request failed
+	 */
+	public void transportError(Transport transport) {
+		registry.newCounter(name("errors[transport:" + transport.getClass().getSimpleName() + "]")).inc();
+	}
+
+	@Override
+	public void onBatch(HttpTransport.BatchStats stats) {
+		batchLatency.update(stats.getElapsedNanos(), TimeUnit.NANOSECONDS);
+		connectTime.update(stats.getConnectNanos(), TimeUnit.NANOSECONDS);
+		payloadBytes.update(stats.getBytes());
+		if (!stats.isSuccess()) {
+			failedBatches.inc();
+		}
+	}
+
+	public void shutdown() {
+		registry.shutdown();
+	}
+
+	private MetricName name(String name) {
+		return new MetricName(group, type, name);
+	}
+}
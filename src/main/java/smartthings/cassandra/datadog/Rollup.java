@@ -0,0 +1,324 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricProcessor;
+import com.yammer.metrics.core.Sampling;
+import com.yammer.metrics.core.Summarizable;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.stats.Snapshot;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics rolled up during one poll, by the name of the rolled up metric. Metrics may be added from several
+ * threads at once. Aggregates are kept sorted by name, so they are reported in the same order every poll.
+ *
+ * @see RollupPolicy
+ */
+class Rollup {
+	private final ConcurrentMap<MetricName, Aggregate> aggregates = new ConcurrentSkipListMap<MetricName, Aggregate>();
+
+	/**
+	 * Add a metric to the aggregate of its target
+	 *
+	 * @param samples whether to keep the samples of histograms and timers, only needed for percentiles
+	 * @return false if the metric could not be rolled up, a gauge without a number value or a metric of another
+	 * kind than the others of its target
+	 */
+	boolean add(RollupPolicy.Target target, Metric metric, boolean samples) {
+		Aggregate aggregate = aggregates.get(target.getName());
+		if (aggregate == null) {
+			aggregate = create(target, metric, samples);
+			if (aggregate == null) {
+				return false;
+			}
+			Aggregate existing = aggregates.putIfAbsent(target.getName(), aggregate);
+			if (existing != null) {
+				aggregate = existing;
+			}
+		}
+		return aggregate.add(metric);
+	}
+
+	Iterable<Map.Entry<MetricName, Aggregate>> aggregates() {
+		return aggregates.entrySet();
+	}
+
+	int size() {
+		return aggregates.size();
+	}
+
+	private static Aggregate create(RollupPolicy.Target target, Metric metric, boolean samples) {
+		if (metric instanceof Counter) {
+			return new CounterAggregate();
+		} else if (metric instanceof Gauge) {
+			return new GaugeAggregate(target.getGaugeAggregation());
+		} else if (metric instanceof Timer) {
+			return new SampledAggregate(true, true, samples);
+		} else if (metric instanceof Histogram) {
+			return new SampledAggregate(false, true, samples);
+		} else if (metric instanceof Metered) {
+			return new SampledAggregate(true, false, false);
+		}
+		return null;
+	}
+
+	abstract static class Aggregate {
+		abstract boolean add(Metric metric);
+	}
+
+	static class CounterAggregate extends Aggregate {
+		private long count;
+
+		@Override
+		synchronized boolean add(Metric metric) {
+			if (!(metric instanceof Counter)) {
+				return false;
+			}
+			count += ((Counter) metric).count();
+			return true;
+		}
+
+		synchronized long count() {
+			return count;
+		}
+	}
+
+	static class GaugeAggregate extends Aggregate {
+		private final RollupPolicy.Aggregation aggregation;
+		private boolean integral = true;
+		private int count;
+		private long longSum;
+		private long longMin = Long.MAX_VALUE;
+		private long longMax = Long.MIN_VALUE;
+		private double sum;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+
+		GaugeAggregate(RollupPolicy.Aggregation aggregation) {
+			this.aggregation = aggregation;
+		}
+
+		@Override
+		boolean add(Metric metric) {
+			if (!(metric instanceof Gauge)) {
+				return false;
+			}
+			Object value = ((Gauge<?>) metric).value();
+			if (!(value instanceof Number)) {
+				return false;
+			}
+			add((Number) value);
+			return true;
+		}
+
+		private synchronized void add(Number value) {
+			if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				long l = value.longValue();
+				longSum += l;
+				longMin = Math.min(longMin, l);
+				longMax = Math.max(longMax, l);
+			} else {
+				integral = false;
+			}
+			double d = value.doubleValue();
+			sum += d;
+			min = Math.min(min, d);
+			max = Math.max(max, d);
+			count++;
+		}
+
+		/**
+		 * The aggregated value, a Long if all values were integral and the aggregation is not an average
+		 */
+		synchronized Number value() {
+			if (count == 0) {
+				return null;
+			}
+			switch (aggregation) {
+				case SUM:
+					return integral ? (Number) longSum : (Number) sum;
+				case MIN:
+					return integral ? (Number) longMin : (Number) min;
+				case MAX:
+					return integral ? (Number) longMax : (Number) max;
+				default:
+					return sum / count;
+			}
+		}
+	}
+
+	/**
+	 * Merges meters, histograms and timers. Counts and rates are summed, min and max taken over all, mean and
+	 * standard deviation weighted by count, and the samples of all reservoirs are kept for percentiles.
+	 */
+	static class SampledAggregate extends Aggregate implements Metered, Summarizable, Sampling {
+		private final boolean metered;
+		private final boolean summarized;
+		private final boolean samples;
+		private TimeUnit rateUnit = TimeUnit.SECONDS;
+		private String eventType = "";
+		private long count;
+		private double meanRate;
+		private double oneMinuteRate;
+		private double fiveMinuteRate;
+		private double fifteenMinuteRate;
+		private long summarizedCount;
+		private double min = Double.POSITIVE_INFINITY;
+		private double max = Double.NEGATIVE_INFINITY;
+		private double sum;
+		private double sumOfSquares;
+		private double[] values = new double[0];
+		private int size;
+
+		SampledAggregate(boolean metered, boolean summarized, boolean samples) {
+			this.metered = metered;
+			this.summarized = summarized;
+			this.samples = samples;
+		}
+
+		boolean isMetered() {
+			return metered;
+		}
+
+		boolean isSummarized() {
+			return summarized;
+		}
+
+		@Override
+		boolean add(Metric metric) {
+			if (metered != metric instanceof Metered || summarized != metric instanceof Summarizable) {
+				return false;
+			}
+			double[] sampled = samples ? ((Sampling) metric).getSnapshot().getValues() : null;
+			synchronized (this) {
+				if (metered) {
+					addMetered((Metered) metric);
+				}
+				if (summarized) {
+					long n = metric instanceof Histogram ? ((Histogram) metric).count() : ((Metered) metric).count();
+					addSummarized((Summarizable) metric, n);
+				}
+				if (sampled != null) {
+					addValues(sampled);
+				}
+			}
+			return true;
+		}
+
+		private void addMetered(Metered meter) {
+			rateUnit = meter.rateUnit();
+			eventType = meter.eventType();
+			count += meter.count();
+			meanRate += meter.meanRate();
+			oneMinuteRate += meter.oneMinuteRate();
+			fiveMinuteRate += meter.fiveMinuteRate();
+			fifteenMinuteRate += meter.fifteenMinuteRate();
+		}
+
+		private void addSummarized(Summarizable summarizable, long n) {
+			if (n == 0) {
+				return;
+			}
+			double mean = summarizable.mean();
+			double stdDev = summarizable.stdDev();
+			summarizedCount += n;
+			min = Math.min(min, summarizable.min());
+			max = Math.max(max, summarizable.max());
+			sum += mean * n;
+			sumOfSquares += (n - 1) * stdDev * stdDev + n * mean * mean;
+		}
+
+		private void addValues(double[] sampled) {
+			if (size + sampled.length > values.length) {
+				values = Arrays.copyOf(values, Math.max(size + sampled.length, values.length * 2));
+			}
+			System.arraycopy(sampled, 0, values, size, sampled.length);
+			size += sampled.length;
+		}
+
+		@Override
+		public synchronized TimeUnit rateUnit() {
+			return rateUnit;
+		}
+
+		@Override
+		public synchronized String eventType() {
+			return eventType;
+		}
+
+		@Override
+		public synchronized long count() {
+			return metered ? count : summarizedCount;
+		}
+
+		@Override
+		public synchronized double fifteenMinuteRate() {
+			return fifteenMinuteRate;
+		}
+
+		@Override
+		public synchronized double fiveMinuteRate() {
+			return fiveMinuteRate;
+		}
+
+		@Override
+		public synchronized double meanRate() {
+			return meanRate;
+		}
+
+		@Override
+		public synchronized double oneMinuteRate() {
+			return oneMinuteRate;
+		}
+
+		@Override
+		public synchronized double max() {
+			return summarizedCount == 0 ? 0.0 : max;
+		}
+
+		@Override
+		public synchronized double min() {
+			return summarizedCount == 0 ? 0.0 : min;
+		}
+
+		@Override
+		public synchronized double mean() {
+			return summarizedCount == 0 ? 0.0 : sum / summarizedCount;
+		}
+
+		@Override
+		public synchronized double stdDev() {
+			if (summarizedCount <= 1) {
+				return 0.0;
+			}
+			double mean = sum / summarizedCount;
+			double variance = (sumOfSquares - summarizedCount * mean * mean) / (summarizedCount - 1);
+			return Math.sqrt(Math.max(variance, 0.0));
+		}
+
+		@Override
+		public synchronized double sum() {
+			return sum;
+		}
+
+		@Override
+		public synchronized Snapshot getSnapshot() {
+			return new Snapshot(Arrays.copyOf(values, size));
+		}
+
+		@Override
+		public <T> void processWith(MetricProcessor<T> processor, MetricName name, T context) throws Exception {
+			processor.processMeter(name, this, context);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package smartthings.cassandra.datadog;
+
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Rolls metrics reported per table or keyspace up to keyspace or node level. Cassandra reports table metrics with
+ * a scope of {@code keyspace.table}, a rollup to {@link Level#KEYSPACE} reports one series per keyspace with the
+ * keyspace as scope, and a rollup to {@link Level#NODE} one series per node with the scope {@link #NODE_SCOPE}.
+ * <p>
+ * Counters are summed, as are the counts and rates of meters and timers. Histograms and timers are merged: min and
+ * max over all, mean and standard deviation weighted by count, and percentiles of the samples of all reservoirs
+ * together. Gauges are aggregated with the {@link Aggregation} of the rule. The fine grained series are dropped
+ * unless the rule keeps them.
+ * <p>
+ * Rules match the group, type and name of a metric with glob patterns, a missing pattern matches anything. The
+ * first matching rule wins, metrics no rule matches are reported as they are. The result is cached per metric.
+ * Registered as a listener with the metrics registry, entries are evicted once their metric is removed.
+ */
+public class RollupPolicy implements MetricsRegistryListener {
+	/**
+	 * Scope of metrics rolled up to node level
+	 */
+	public static final String NODE_SCOPE = "all";
+
+	private static final int MAX_CACHED = 256 * 1024;
+	private static final Target NONE = new Target(null, null, false);
+
+	private final List<Rule> rules;
+	private final ConcurrentMap<MetricName, Target> cache = new ConcurrentHashMap<MetricName, Target>();
+
+	private RollupPolicy(Builder builder) {
+		this.rules = Collections.unmodifiableList(new ArrayList<Rule>(builder.rules));
+	}
+
+	/**
+	 * Where to roll a metric up to
+	 *
+	 * @return null if the metric is not rolled up
+	 */
+	public Target select(MetricName name) {
+		Target target = cache.get(name);
+		if (target == null) {
+			target = match(name);
+			if (cache.size() < MAX_CACHED) {
+				cache.put(name, target);
+			}
+		}
+		return target == NONE ? null : target;
+	}
+
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// matched when first selected
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName name) {
+		cache.remove(name);
+	}
+
+	private Target match(MetricName name) {
+		for (Rule rule : rules) {
+			if (rule.matches(name)) {
+				String scope = rule.level.scope(name.getScope());
+				if (scope == null) {
+					return NONE;
+				}
+				return new Target(new MetricName(name.getGroup(), name.getType(), name.getName(), scope), rule.gauges,
+					rule.keepOriginal);
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * The levels metrics can be rolled up to
+	 */
+	public enum Level {
+		/**
+		 * One series per keyspace, for metrics with a {@code keyspace.table} scope
+		 */
+		KEYSPACE {
+			@Override
+			String scope(String scope) {
+				int dot = scope == null ? -1 : scope.indexOf('.');
+				return dot > 0 ? scope.substring(0, dot) : null;
+			}
+		},
+		/**
+		 * One series per node, for metrics with any scope
+		 */
+		NODE {
+			@Override
+			String scope(String scope) {
+				return scope == null ? null : NODE_SCOPE;
+			}
+		};
+
+		/**
+		 * The scope of the rolled up metric, null if a metric of this scope is not rolled up
+		 */
+		abstract String scope(String scope);
+	}
+
+	/**
+	 * How the values of gauges are combined
+	 */
+	public enum Aggregation {
+		SUM, MIN, MAX, AVG
+	}
+
+	/**
+	 * The metric a metric is rolled up into
+	 */
+	public static final class Target {
+		private final MetricName name;
+		private final Aggregation gauges;
+		private final boolean keepOriginal;
+
+		Target(MetricName name, Aggregation gauges, boolean keepOriginal) {
+			this.name = name;
+			this.gauges = gauges;
+			this.keepOriginal = keepOriginal;
+		}
+
+		public MetricName getName() {
+			return name;
+		}
+
+		public Aggregation getGaugeAggregation() {
+			return gauges;
+		}
+
+		/**
+		 * Whether the metric is still reported on its own as well
+		 */
+		public boolean keepsOriginal() {
+			return keepOriginal;
+		}
+	}
+
+	private static class Rule {
+		private final Pattern group;
+		private final Pattern type;
+		private final Pattern name;
+		private final Level level;
+		private final Aggregation gauges;
+		private final boolean keepOriginal;
+
+		Rule(String group, String type, String name, Level level, Aggregation gauges, boolean keepOriginal) {
+			this.group = glob(group);
+			this.type = glob(type);
+			this.name = glob(name);
+			this.level = level;
+			this.gauges = gauges;
+			this.keepOriginal = keepOriginal;
+		}
+
+		boolean matches(MetricName metricName) {
+			return matches(group, metricName.getGroup())
+				&& matches(type, metricName.getType())
+				&& matches(name, metricName.getName());
+		}
+
+		private static boolean matches(Pattern pattern, String value) {
+			return pattern == null || pattern.matcher(value).matches();
+		}
+
+		private static Pattern glob(String glob) {
+			return glob == null ? null : Globs.compile(glob);
+		}
+	}
+
+	public static class Builder {
+		private final List<Rule> rules = new ArrayList<Rule>();
+
+		/**
+		 * Roll matching metrics up to the given level, taking the max of gauges and dropping the fine grained
+		 * series
+		 */
+		public Builder withRule(String group, String type, Level level) {
+			return withRule(group, type, null, level, Aggregation.MAX, false);
+		}
+
+		/**
+		 * Add a rule, rules are matched in the order they are added. Null patterns match anything.
+		 */
+		public Builder withRule(String group, String type, String name, Level level, Aggregation gauges,
+								boolean keepOriginal) {
+			rules.add(new Rule(group, type, name, level, gauges, keepOriginal));
+			return this;
+		}
+
+		public RollupPolicy build() {
+			return new RollupPolicy(this);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package smartthings.cassandra.datadog;
+
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.model.SeriesName;
+import smartthings.cassandra.datadog.model.SeriesNames;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Keeps the last points of every series between flushes, so series can be sampled more often than they are sent,
+ * and sent as series of several points. Each series has a ring of a fixed number of points in shared primitive
+ * arrays, once its ring is full the oldest point is overwritten. Recording samples does not allocate once a
+ * series was seen, 50k series of 6 points take about 6 MB.
+ * <p>
+ * Series are told apart by their name, compared by identity first, as names are shared by {@link SeriesNames},
+ * and by value for names parsed again once its cache is full. Series without a point since the last flush are
+ * forgotten on flush. Not thread safe.
+ */
+public class SampleBuffer {
+	private static final byte GAUGE = 0;
+	private static final byte DOUBLE_GAUGE = 1;
+	private static final byte COUNTER = 2;
+
+	private final int pointsPerSeries;
+	private int series;
+	private SeriesName[] names;
+	private int[] intervals;
+	private int[] heads;
+	private int[] counts;
+	private long[] epochs;
+	private long[] values;
+	private byte[] kinds;
+	private int[] slots;
+
+	/**
+	 * @param pointsPerSeries number of points kept per series, older points are overwritten
+	 */
+	public SampleBuffer(int pointsPerSeries, int expectedSeries) {
+		if (pointsPerSeries < 1) {
+			throw new IllegalArgumentException("At least one point per series, was " + pointsPerSeries);
+		}
+		this.pointsPerSeries = pointsPerSeries;
+		allocate(Math.max(expectedSeries, 16));
+		slots = new int[capacityFor(names.length)];
+	}
+
+	/**
+	 * Add every row of the batch as the latest point of its series
+	 */
+	public void record(SeriesBatch batch) {
+		for (int row = 0; row < batch.size(); row++) {
+			int s = seriesOf(batch.getName(row));
+			int point = s * pointsPerSeries + heads[s];
+			epochs[point] = batch.getEpoch(row);
+			if (batch.isCounter(row)) {
+				kinds[point] = COUNTER;
+				values[point] = batch.getLong(row);
+				Long interval = batch.getInterval(row);
+				intervals[s] = interval == null ? 0 : interval.intValue();
+			} else if (batch.isDouble(row)) {
+				kinds[point] = DOUBLE_GAUGE;
+				values[point] = Double.doubleToRawLongBits(batch.getDouble(row));
+			} else {
+				kinds[point] = GAUGE;
+				values[point] = batch.getLong(row);
+			}
+			heads[s] = (heads[s] + 1) % pointsPerSeries;
+			if (counts[s] < pointsPerSeries) {
+				counts[s]++;
+			}
+		}
+	}
+
+	/**
+	 * Add the points of every series to the request, oldest first, through the given batch, adding the batch to
+	 * the request whenever the next series would not fit. Empties the rings and forgets series without points.
+	 */
+	public void drainTo(SeriesBatch batch, Transport.Request request) throws IOException {
+		int live = 0;
+		for (int s = 0; s < series; s++) {
+			int count = counts[s];
+			if (count == 0) {
+				continue;
+			}
+			if (!batch.isEmpty() && batch.size() + count > batch.getCapacity()) {
+				batch.replayTo(request);
+				batch.clear();
+			}
+			int first = (heads[s] - count + pointsPerSeries) % pointsPerSeries;
+			for (int i = 0; i < count; i++) {
+				addPoint(batch, s, s * pointsPerSeries + (first + i) % pointsPerSeries, i == 0);
+			}
+			counts[s] = 0;
+			heads[s] = 0;
+			names[live] = names[s];
+			intervals[live] = intervals[s];
+			live++;
+		}
+		if (!batch.isEmpty()) {
+			batch.replayTo(request);
+			batch.clear();
+		}
+		if (live < series) {
+			Arrays.fill(names, live, series, null);
+			series = live;
+			reindex();
+		}
+	}
+
+	private void addPoint(SeriesBatch batch, int s, int point, boolean first) {
+		long epoch = epochs[point];
+		long value = values[point];
+		if (kinds[point] == COUNTER) {
+			if (first) {
+				batch.addCounter(names[s], epoch, value, intervals[s] == 0 ? null : Long.valueOf(intervals[s]));
+			} else {
+				batch.addPoint(epoch, value);
+			}
+		} else if (kinds[point] == DOUBLE_GAUGE) {
+			if (first) {
+				batch.addGauge(names[s], epoch, Double.longBitsToDouble(value));
+			} else {
+				batch.addPoint(epoch, Double.longBitsToDouble(value));
+			}
+		} else if (first) {
+			batch.addGauge(names[s], epoch, value);
+		} else {
+			batch.addPoint(epoch, value);
+		}
+	}
+
+	public int getPointsPerSeries() {
+		return pointsPerSeries;
+	}
+
+	/**
+	 * Number of series with a ring
+	 */
+	public int size() {
+		return series;
+	}
+
+	/**
+	 * The index of the ring of a series, adding one if the series is new. The slots of the open addressing table
+	 * hold the index plus one, zero for an empty slot.
+	 */
+	private int seriesOf(SeriesName name) {
+		int mask = slots.length - 1;
+		int slot = mix(name.hashCode()) & mask;
+		while (slots[slot] != 0) {
+			if (name.equals(names[slots[slot] - 1])) {
+				return slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (series == names.length) {
+			grow();
+			return seriesOf(name);
+		}
+		int s = series++;
+		names[s] = name;
+		intervals[s] = 0;
+		slots[slot] = s + 1;
+		return s;
+	}
+
+	private void reindex() {
+		slots = new int[capacityFor(names.length)];
+		int mask = slots.length - 1;
+		for (int s = 0; s < series; s++) {
+			int slot = mix(names[s].hashCode()) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = s + 1;
+		}
+	}
+
+	private void grow() {
+		SeriesName[] oldNames = names;
+		int[] oldIntervals = intervals;
+		int[] oldHeads = heads;
+		int[] oldCounts = counts;
+		long[] oldEpochs = epochs;
+		long[] oldValues = values;
+		byte[] oldKinds = kinds;
+		allocate(oldNames.length * 2);
+		System.arraycopy(oldNames, 0, names, 0, series);
+		System.arraycopy(oldIntervals, 0, intervals, 0, series);
+		System.arraycopy(oldHeads, 0, heads, 0, series);
+		System.arraycopy(oldCounts, 0, counts, 0, series);
+		System.arraycopy(oldEpochs, 0, epochs, 0, series * pointsPerSeries);
+		System.arraycopy(oldValues, 0, values, 0, series * pointsPerSeries);
+		System.arraycopy(oldKinds, 0, kinds, 0, series * pointsPerSeries);
+		reindex();
+	}
+
+	private void allocate(int capacity) {
+		names = new SeriesName[capacity];
+		intervals = new int[capacity];
+		heads = new int[capacity];
+		counts = new int[capacity];
+		epochs = new long[capacity * pointsPerSeries];
+		values = new long[capacity * pointsPerSeries];
+		kinds = new byte[capacity * pointsPerSeries];
+	}
+
+	private static int capacityFor(int series) {
+		int capacity = 16;
+		while (capacity * 3 / 4 < series) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+}
@@ -1,7 +1,9 @@
 package smartthings.cassandra.datadog;
 
 import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
 import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.SeriesBatch;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -20,6 +22,8 @@ public interface Transport extends Closeable {
 	 * A request for batching of metrics to be pushed to datadog.
 	 * The call order is expected to be:
 	 * one or more of addGauge, addCounter -> send()
+	 * Implementations may split a request into several payloads and start sending them before send() is
+	 * called, send() returns once all of them have been sent.
 	 */
 	public interface Request {
 
@@ -38,4 +42,29 @@ public interface Transport extends Closeable {
 		 */
 		void send() throws Exception;
 	}
+
+	/**
+	 * A request that also takes series a batch at a time, reading the rows straight from the columns of the batch.
+	 * Batches may be added in between single series, the order of all of them is kept.
+	 */
+	public interface BatchRequest extends Request {
+
+		/**
+		 * Add every row of the batch. The batch is cleared and refilled once this returns, so it must not be held
+		 * on to.
+		 */
+		void addBatch(SeriesBatch batch) throws IOException;
+	}
+
+	/**
+	 * A request that also takes distributions, which datadog aggregates across hosts. Requests that do not take
+	 * them get the selected percentiles as gauges instead.
+	 */
+	public interface DistributionRequest extends Request {
+
+		/**
+		 * Add a distribution
+		 */
+		void addDistribution(DatadogDistribution distribution) throws IOException;
+	}
 }
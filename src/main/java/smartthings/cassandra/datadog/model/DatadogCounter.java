@@ -1,14 +1,57 @@
 package smartthings.cassandra.datadog.model;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
 import java.util.List;
 
+/**
+ * A counter, either the cumulative count or, with an interval, the count during the interval preceding its epoch
+ */
 public class DatadogCounter extends DatadogSeries<Long> {
+	private final Long interval;
 
 	public DatadogCounter(String name, Long count, Long epoch, String host, List<String> additionalTags) {
 		super(name, count, epoch, host, additionalTags);
+		this.interval = null;
+	}
+
+	public DatadogCounter(SeriesName name, Long count, Long epoch, String host) {
+		this(name, count, epoch, host, null);
+	}
+
+	/**
+	 * @param interval in seconds the count was taken over, null for a cumulative count
+	 */
+	public DatadogCounter(SeriesName name, Long count, Long epoch, String host, Long interval) {
+		super(name, count, epoch, host);
+		this.interval = interval;
+	}
+
+	/**
+	 * A counter of several points
+	 *
+	 * @param interval in seconds each count was taken over, null for cumulative counts
+	 */
+	public DatadogCounter(SeriesName name, List<List<Number>> points, String host, Long interval) {
+		super(name, points, host);
+		this.interval = interval;
 	}
 
 	public String getType() {
-		return "counter";
+		return interval == null ? "counter" : "count";
+	}
+
+	@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+	public Long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Whether the value is the count during an interval rather than the cumulative count
+	 */
+	@JsonIgnore
+	public boolean isDelta() {
+		return interval != null;
 	}
 }
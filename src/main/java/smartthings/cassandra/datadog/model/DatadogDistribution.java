@@ -0,0 +1,132 @@
+package smartthings.cassandra.datadog.model;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The values of a distribution at an epoch, for datadog to compute quantiles of across hosts. Each value stands
+ * for a bin of a {@link QuantileSketch} and is sent as many times as the bin counts, see
+ * {@link #getValueCount()}.
+ *
+ * @see <a href="https://docs.datadoghq.com/api/v1/metrics/#submit-distribution-points">Distribution points</a>
+ */
+@JsonPropertyOrder({"host", "metric", "tags", "points", "type"})
+public class DatadogDistribution {
+	private final SeriesName name;
+	private final long epoch;
+	private final String host;
+	private final double[] values;
+	private final long[] counts;
+	private final int bins;
+
+	/**
+	 * @param values of the bins, ascending
+	 * @param counts of the bins, how many times each value is sent
+	 * @param bins number of bins in the arrays
+	 */
+	public DatadogDistribution(SeriesName name, long epoch, String host, double[] values, long[] counts, int bins) {
+		this.name = name;
+		this.epoch = epoch;
+		this.host = host;
+		this.values = values;
+		this.counts = counts;
+		this.bins = bins;
+	}
+
+	/**
+	 * The bins of the sketch, the number of values scaled to at most maxValues
+	 */
+	public static DatadogDistribution of(SeriesName name, long epoch, String host, QuantileSketch sketch,
+										 long maxValues) {
+		double[] values = new double[sketch.getBinCount()];
+		long[] counts = new long[values.length];
+		int bins = sketch.getBins(maxValues, values, counts);
+		return new DatadogDistribution(name, epoch, host, values, counts, bins);
+	}
+
+	/**
+	 * The bins of the sketch, the number of values scaled up or down to the given total
+	 */
+	public static DatadogDistribution scaled(SeriesName name, long epoch, String host, QuantileSketch sketch,
+											 long total) {
+		double[] values = new double[sketch.getBinCount()];
+		long[] counts = new long[values.length];
+		int bins = sketch.getScaledBins(total, values, counts);
+		return new DatadogDistribution(name, epoch, host, values, counts, bins);
+	}
+
+	@JsonIgnore
+	public SeriesName getName() {
+		return name;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public String getMetric() {
+		return name.getMetric();
+	}
+
+	public List<String> getTags() {
+		return name.getTags();
+	}
+
+	/**
+	 * The single point of the epoch and every value
+	 */
+	public List<List<Object>> getPoints() {
+		List<Double> all = new ArrayList<Double>();
+		for (int bin = 0; bin < bins; bin++) {
+			for (long i = 0; i < counts[bin]; i++) {
+				all.add(values[bin]);
+			}
+		}
+		List<Object> point = new ArrayList<Object>(2);
+		point.add(epoch);
+		point.add(all);
+		List<List<Object>> points = new ArrayList<List<Object>>(1);
+		points.add(point);
+		return points;
+	}
+
+	public String getType() {
+		return "distribution";
+	}
+
+	@JsonIgnore
+	public long getEpoch() {
+		return epoch;
+	}
+
+	@JsonIgnore
+	public int getBinCount() {
+		return bins;
+	}
+
+	public double getValue(int bin) {
+		return values[bin];
+	}
+
+	/**
+	 * How many times the value of the bin is sent
+	 */
+	public long getCount(int bin) {
+		return counts[bin];
+	}
+
+	/**
+	 * Number of values sent
+	 */
+	@JsonIgnore
+	public long getValueCount() {
+		long total = 0;
+		for (int bin = 0; bin < bins; bin++) {
+			total += counts[bin];
+		}
+		return total;
+	}
+}
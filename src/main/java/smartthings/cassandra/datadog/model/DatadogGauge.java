@@ -7,6 +7,14 @@ public class DatadogGauge extends DatadogSeries<Number> {
 		super(name, count, epoch, host, additionalTags);
 	}
 
+	public DatadogGauge(SeriesName name, Number count, Long epoch, String host) {
+		super(name, count, epoch, host);
+	}
+
+	public DatadogGauge(SeriesName name, List<List<Number>> points, String host) {
+		super(name, points, host);
+	}
+
 	public String getType() {
 		return "gauge";
 	}
@@ -1,41 +1,49 @@
 package smartthings.cassandra.datadog.model;
 
+import org.codehaus.jackson.annotate.JsonIgnore;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public abstract class DatadogSeries<T extends Number> {
 	abstract protected String getType();
 
-	private String name;
-	private T count;
-	private Long epoch;
-	private String host;
-	private List<String> tags;
-
-	// Expect the tags in the pattern
-	// namespace.metricName[tag1:value1,tag2:value2,etc....]
-	private final Pattern tagPattern = Pattern.compile("([\\w\\.]+)\\[([\\w\\W]+)\\]");
+	private final SeriesName name;
+	private final T count;
+	private final Long epoch;
+	private final String host;
+	private final List<List<Number>> points;
 
 	public DatadogSeries(String name, T count, Long epoch, String host, List<String> additionalTags) {
-		Matcher matcher = tagPattern.matcher(name);
-		this.tags = new ArrayList<String>();
-
-		if (matcher.find() && matcher.groupCount() == 2) {
-			this.name = matcher.group(1);
-			for (String t : matcher.group(2).split("\\,")) {
-				this.tags.add(t);
-			}
-		} else {
-			this.name = name;
-		}
-		if (additionalTags != null) {
-			this.tags.addAll(additionalTags);
-		}
+		this(SeriesName.parse(name, additionalTags), count, epoch, host);
+	}
+
+	public DatadogSeries(SeriesName name, T count, Long epoch, String host) {
+		this.name = name;
 		this.count = count;
 		this.epoch = epoch;
 		this.host = host;
+		this.points = null;
+	}
+
+	/**
+	 * A series of several points, the epoch and value of the series are those of the last point
+	 *
+	 * @param points of an epoch and a value each, in the order of their epochs
+	 */
+	@SuppressWarnings("unchecked")
+	public DatadogSeries(SeriesName name, List<List<Number>> points, String host) {
+		List<Number> last = points.get(points.size() - 1);
+		this.name = name;
+		this.count = (T) last.get(1);
+		this.epoch = last.get(0).longValue();
+		this.host = host;
+		this.points = points;
+	}
+
+	@JsonIgnore
+	public SeriesName getName() {
+		return name;
 	}
 
 	public String getHost() {
@@ -43,14 +51,32 @@ public abstract class DatadogSeries<T extends Number> {
 	}
 
 	public String getMetric() {
-		return name;
+		return name.getMetric();
 	}
 
 	public List<String> getTags() {
-		return tags;
+		return name.getTags();
+	}
+
+	@JsonIgnore
+	public Long getEpoch() {
+		return epoch;
+	}
+
+	@JsonIgnore
+	public T getValue() {
+		return count;
+	}
+
+	@JsonIgnore
+	public int getPointCount() {
+		return points == null ? 1 : points.size();
 	}
 
 	public List<List<Number>> getPoints() {
+		if (points != null) {
+			return points;
+		}
 		List<Number> point = new ArrayList<Number>();
 		point.add(epoch);
 		point.add(count);
@@ -0,0 +1,340 @@
+package smartthings.cassandra.datadog.model;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable quantile sketch with relative error guarantees, after DDSketch. Values are counted in bins of
+ * logarithmically growing width, a bin holding the values in (gamma^(i-1), gamma^i] with gamma =
+ * (1 + a) / (1 - a), so any quantile is off by at most the relative accuracy a of its true value. Sketches of the
+ * same accuracy merge by adding up their bins, which is what makes cluster wide quantiles of per node sketches
+ * exact up to that error.
+ * <p>
+ * Bins are kept in dense arrays per sign; once a sign spans more than the maximum number of bins, the lowest are
+ * collapsed into one, which only affects the accuracy of the lowest quantiles. Not thread safe.
+ *
+ * @see <a href="https://arxiv.org/abs/1908.10693">DDSketch</a>
+ */
+public class QuantileSketch {
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+	public static final int DEFAULT_MAX_BINS = 2048;
+
+	private final double relativeAccuracy;
+	private final double gamma;
+	private final double logGamma;
+	private final double minIndexable;
+	private final Bins positive;
+	private final Bins negative;
+	private long zeroCount;
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public QuantileSketch() {
+		this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BINS);
+	}
+
+	/**
+	 * @param relativeAccuracy the relative error of any quantile, between 0 and 1
+	 * @param maxBins number of bins per sign before the lowest are collapsed
+	 */
+	public QuantileSketch(double relativeAccuracy, int maxBins) {
+		if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+			throw new IllegalArgumentException("Relative accuracy must be between 0 and 1, was " + relativeAccuracy);
+		}
+		if (maxBins < 1) {
+			throw new IllegalArgumentException("At least one bin, was " + maxBins);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(gamma);
+		this.minIndexable = Math.max(Math.pow(gamma, Integer.MIN_VALUE / 2 + 1), Double.MIN_NORMAL * gamma);
+		this.positive = new Bins(maxBins);
+		this.negative = new Bins(maxBins);
+	}
+
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	/**
+	 * Count the value several times. NaN and infinite values are ignored.
+	 */
+	public void add(double value, long times) {
+		if (times <= 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+			return;
+		}
+		if (value >= minIndexable) {
+			positive.add(index(value), times);
+		} else if (value <= -minIndexable) {
+			negative.add(index(-value), times);
+		} else {
+			zeroCount += times;
+		}
+		count += times;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add the bins of a sketch of the same relative accuracy
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.gamma != gamma) {
+			throw new IllegalArgumentException("Cannot merge sketches of relative accuracy " + relativeAccuracy
+				+ " and " + other.relativeAccuracy);
+		}
+		if (other.count == 0) {
+			return;
+		}
+		positive.addAll(other.positive);
+		negative.addAll(other.negative);
+		zeroCount += other.zeroCount;
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	public void clear() {
+		positive.clear();
+		negative.clear();
+		zeroCount = 0;
+		count = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * The value at the quantile, NaN for an empty sketch
+	 *
+	 * @param quantile between 0 and 1
+	 */
+	public double getValue(double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1, was " + quantile);
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) (quantile * (count - 1));
+		double value;
+		if (rank < negative.count) {
+			value = -value(negative.indexOfRank(negative.count - 1 - rank));
+		} else if (rank < negative.count + zeroCount) {
+			value = 0;
+		} else {
+			value = value(positive.indexOfRank(rank - negative.count - zeroCount));
+		}
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/**
+	 * Number of bins holding values, including the one of zeros
+	 */
+	public int getBinCount() {
+		return negative.nonEmpty() + (zeroCount > 0 ? 1 : 0) + positive.nonEmpty();
+	}
+
+	/**
+	 * The values the bins stand for in ascending order, with the number of values of each scaled to at most the
+	 * given total. Scaling rounds the cumulative counts, so the rank of every bin is off by less than one, and
+	 * bins rounded to no value are left out.
+	 *
+	 * @param values receives the value of every bin, at least {@link #getBinCount()} long
+	 * @param counts receives the scaled count of every bin, at least {@link #getBinCount()} long
+	 * @return the number of bins written
+	 */
+	public int getBins(long maxCount, double[] values, long[] counts) {
+		return scaledBins(count > maxCount ? (double) maxCount / count : 1, values, counts);
+	}
+
+	/**
+	 * The values the bins stand for in ascending order, with the number of values of each scaled up or down to
+	 * the given total, rounded as by {@link #getBins(long, double[], long[])}
+	 *
+	 * @return the number of bins written
+	 */
+	public int getScaledBins(long total, double[] values, long[] counts) {
+		return scaledBins(count > 0 ? (double) total / count : 0, values, counts);
+	}
+
+	private int scaledBins(double scale, double[] values, long[] counts) {
+		long cumulative = 0;
+		long scaled = 0;
+		int bins = 0;
+		for (int i = negative.counts.length - 1; i >= 0; i--) {
+			if (negative.counts[i] > 0) {
+				cumulative += negative.counts[i];
+				long next = Math.round(cumulative * scale);
+				bins = bin(values, counts, bins, -value(negative.offset + i), next - scaled);
+				scaled = next;
+			}
+		}
+		if (zeroCount > 0) {
+			cumulative += zeroCount;
+			long next = Math.round(cumulative * scale);
+			bins = bin(values, counts, bins, 0, next - scaled);
+			scaled = next;
+		}
+		for (int i = 0; i < positive.counts.length; i++) {
+			if (positive.counts[i] > 0) {
+				cumulative += positive.counts[i];
+				long next = Math.round(cumulative * scale);
+				bins = bin(values, counts, bins, value(positive.offset + i), next - scaled);
+				scaled = next;
+			}
+		}
+		return bins;
+	}
+
+	private static int bin(double[] values, long[] counts, int bins, double value, long count) {
+		if (count <= 0) {
+			return bins;
+		}
+		values[bins] = value;
+		counts[bins] = count;
+		return bins + 1;
+	}
+
+	private int index(double value) {
+		return (int) Math.ceil(Math.log(value) / logGamma);
+	}
+
+	/**
+	 * The value of a bin, off by at most the relative accuracy from any value in the bin
+	 */
+	private double value(int index) {
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+
+	/**
+	 * Counts of consecutive bin indexes, counts[i] holding the count of index offset + i
+	 */
+	private static class Bins {
+		private final int maxBins;
+		private long[] counts = new long[0];
+		private int offset;
+		private long count;
+
+		Bins(int maxBins) {
+			this.maxBins = maxBins;
+		}
+
+		void add(int index, long times) {
+			if (counts.length == 0) {
+				counts = new long[Math.min(16, maxBins)];
+				offset = index - counts.length / 2;
+			}
+			if (index < offset || index >= offset + counts.length) {
+				index = extendTo(index);
+			}
+			counts[index - offset] += times;
+			count += times;
+		}
+
+		void addAll(Bins other) {
+			for (int i = 0; i < other.counts.length; i++) {
+				if (other.counts[i] > 0) {
+					add(other.offset + i, other.counts[i]);
+				}
+			}
+		}
+
+		void clear() {
+			Arrays.fill(counts, 0);
+			count = 0;
+		}
+
+		int nonEmpty() {
+			int bins = 0;
+			for (long c : counts) {
+				if (c > 0) {
+					bins++;
+				}
+			}
+			return bins;
+		}
+
+		/**
+		 * The index of the bin holding the value of the given rank, counted from the lowest index
+		 */
+		int indexOfRank(long rank) {
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulative += counts[i];
+				if (cumulative > rank) {
+					return offset + i;
+				}
+			}
+			return offset + counts.length - 1;
+		}
+
+		/**
+		 * Grows the arrays to cover the index, collapsing the lowest bins if that would take more than the
+		 * maximum number of bins
+		 *
+		 * @return the index to count at, the lowest bin if the index was collapsed into it
+		 */
+		private int extendTo(int index) {
+			int low = Math.min(index, lowestNonEmpty());
+			int high = Math.max(index, highestNonEmpty());
+			if (high - low + 1 > maxBins) {
+				low = high - maxBins + 1;
+			}
+			int length = counts.length;
+			while (length < high - low + 1) {
+				length *= 2;
+			}
+			length = Math.min(length, maxBins);
+			// keep slack below and above the used range, centered, so growing either way is amortized
+			int newOffset = low - (length - (high - low + 1)) / 2;
+			long[] grown = new long[length];
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					int target = Math.max(offset + i, low);
+					grown[target - newOffset] += counts[i];
+				}
+			}
+			counts = grown;
+			offset = newOffset;
+			return Math.max(index, low);
+		}
+
+		private int lowestNonEmpty() {
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					return offset + i;
+				}
+			}
+			return Integer.MAX_VALUE;
+		}
+
+		private int highestNonEmpty() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] > 0) {
+					return offset + i;
+				}
+			}
+			return Integer.MIN_VALUE;
+		}
+	}
+}
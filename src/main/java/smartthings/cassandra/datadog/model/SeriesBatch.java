@@ -0,0 +1,488 @@
+package smartthings.cassandra.datadog.model;
+
+import smartthings.cassandra.datadog.Transport;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Series of one host kept in columns of primitives rather than one object per series: a name id, the epoch, the
+ * value and the kind of every row. Longs and the bits of doubles share the value column. Names are interned into
+ * ids once, and every name refers to the id of its tag list, so names sharing tags share a tag set id.
+ * <p>
+ * A series may have several points, its first row is followed by a continued row per further point, see
+ * {@link #addPoint(long, long)}.
+ * <p>
+ * A batch is meant to be filled, consumed and cleared over and over. Clearing keeps the interned names, so ids stay
+ * the same from one poll to the next. The columns can be allocated outside of the heap; only the names are kept
+ * on the heap. A batch grows once it is full, and is not thread safe.
+ */
+public class SeriesBatch {
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * Interned names are dropped on clear once there are more, as names beyond the cache of {@link SeriesNames}
+	 * are parsed anew for every series and would never be seen again
+	 */
+	static final int MAX_NAMES = SeriesNames.DEFAULT_MAX_SIZE;
+
+	private static final byte GAUGE = 0;
+	private static final byte DOUBLE_GAUGE = 1;
+	private static final byte COUNTER = 2;
+	private static final byte KIND_MASK = 0x0F;
+	private static final byte CONTINUED = 0x10;
+
+	private final String host;
+	private final boolean offHeap;
+	private int capacity;
+	private int size;
+	private IntBuffer nameIds;
+	private LongBuffer epochs;
+	private LongBuffer values;
+	private ByteBuffer kinds;
+	private IntBuffer intervals;
+
+	private final List<SeriesName> names = new ArrayList<SeriesName>();
+	private final List<List<String>> tagSets = new ArrayList<List<String>>();
+	private int[] nameTagSets = new int[64];
+	private int[] nameSlots = new int[128];
+	private int[] tagSetSlots = new int[16];
+
+	public SeriesBatch(String host) {
+		this(host, DEFAULT_CAPACITY, false);
+	}
+
+	/**
+	 * @param capacity number of rows to allocate up front
+	 * @param offHeap  whether to allocate the columns in direct buffers
+	 */
+	public SeriesBatch(String host, int capacity, boolean offHeap) {
+		this.host = host;
+		this.offHeap = offHeap;
+		allocate(Math.max(capacity, 1));
+	}
+
+	public void addGauge(SeriesName name, long epoch, long value) {
+		add(name, epoch, value, GAUGE, 0);
+	}
+
+	public void addGauge(SeriesName name, long epoch, double value) {
+		add(name, epoch, Double.doubleToRawLongBits(value), DOUBLE_GAUGE, 0);
+	}
+
+	/**
+	 * Integral wrappers are kept as longs, anything else as a double. Floats go through their decimal
+	 * representation, so they are sent as they print rather than widened.
+	 */
+	public void addGauge(SeriesName name, long epoch, Number value) {
+		addGauge(name, epoch, value, 0);
+	}
+
+	private void addGauge(SeriesName name, long epoch, Number value, int continued) {
+		if (isIntegral(value)) {
+			add(name, epoch, value.longValue(), (byte) (GAUGE | continued), 0);
+		} else {
+			add(name, epoch, Double.doubleToRawLongBits(toDouble(value)), (byte) (DOUBLE_GAUGE | continued), 0);
+		}
+	}
+
+	private static boolean isIntegral(Number value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+			|| value instanceof AtomicLong || value instanceof AtomicInteger
+			|| (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64);
+	}
+
+	private static double toDouble(Number value) {
+		if (value instanceof Float || value instanceof BigDecimal) {
+			return Double.parseDouble(value.toString());
+		}
+		return value.doubleValue();
+	}
+
+	/**
+	 * @param interval in seconds the count was taken over, null for a cumulative count
+	 */
+	public void addCounter(SeriesName name, long epoch, long count, Long interval) {
+		add(name, epoch, count, COUNTER, interval == null ? 0 : interval.intValue());
+	}
+
+	/**
+	 * Add another point to the series of the last row
+	 */
+	public void addPoint(long epoch, long value) {
+		byte kind = lastKind() == COUNTER ? COUNTER : GAUGE;
+		add(names.get(nameIds.get(size - 1)), epoch, value, (byte) (kind | CONTINUED), intervals.get(size - 1));
+	}
+
+	/**
+	 * Add another point to the gauge of the last row
+	 */
+	public void addPoint(long epoch, double value) {
+		if (lastKind() == COUNTER) {
+			throw new IllegalStateException("Points of counters are longs");
+		}
+		add(names.get(nameIds.get(size - 1)), epoch, Double.doubleToRawLongBits(value),
+			(byte) (DOUBLE_GAUGE | CONTINUED), 0);
+	}
+
+	private byte lastKind() {
+		if (size == 0) {
+			throw new IllegalStateException("No series to add a point to");
+		}
+		return (byte) (kinds.get(size - 1) & KIND_MASK);
+	}
+
+	/**
+	 * Append a row of another batch. A continued row stays continued, so the rows of a series with several points
+	 * have to be appended together.
+	 */
+	public void add(SeriesBatch batch, int row) {
+		byte kind = batch.kinds.get(row);
+		add(batch.getName(row), batch.epochs.get(row), batch.values.get(row),
+			size == 0 ? (byte) (kind & KIND_MASK) : kind, batch.intervals.get(row));
+	}
+
+	/**
+	 * Append a series object with all of its points
+	 */
+	public void add(DatadogSeries<?> series) {
+		Long interval = series instanceof DatadogCounter ? ((DatadogCounter) series).getInterval() : null;
+		if (series.getPointCount() == 1) {
+			add(series, series.getEpoch(), series.getValue(), interval, 0);
+			return;
+		}
+		List<List<Number>> points = series.getPoints();
+		for (int i = 0; i < points.size(); i++) {
+			add(series, points.get(i).get(0).longValue(), points.get(i).get(1), interval, i > 0 ? CONTINUED : 0);
+		}
+	}
+
+	private void add(DatadogSeries<?> series, long epoch, Number value, Long interval, int continued) {
+		if (series instanceof DatadogCounter) {
+			add(series.getName(), epoch, value.longValue(), (byte) (COUNTER | continued),
+				interval == null ? 0 : interval.intValue());
+		} else {
+			addGauge(series.getName(), epoch, value, continued);
+		}
+	}
+
+	public void addAll(SeriesBatch batch) {
+		for (int row = 0; row < batch.size; row++) {
+			add(batch, row);
+		}
+	}
+
+	private void add(SeriesName name, long epoch, long value, byte kind, int interval) {
+		if (size == capacity) {
+			grow();
+		}
+		nameIds.put(size, intern(name));
+		epochs.put(size, epoch);
+		values.put(size, value);
+		kinds.put(size, kind);
+		intervals.put(size, interval);
+		size++;
+	}
+
+	/**
+	 * Remove all rows, keeping the columns and interned names for the next use
+	 */
+	public void clear() {
+		size = 0;
+		if (names.size() > MAX_NAMES) {
+			clearNames();
+		}
+	}
+
+	/**
+	 * Remove all rows and interned names
+	 */
+	public void clearNames() {
+		size = 0;
+		names.clear();
+		tagSets.clear();
+		nameSlots = new int[128];
+		tagSetSlots = new int[16];
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Whether the rows allocated are used up, adding more grows the columns
+	 */
+	public boolean isFull() {
+		return size >= capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getNameCount() {
+		return names.size();
+	}
+
+	public int getTagSetCount() {
+		return tagSets.size();
+	}
+
+	public int getNameId(int row) {
+		return nameIds.get(checkRow(row));
+	}
+
+	public SeriesName getName(int row) {
+		return names.get(getNameId(row));
+	}
+
+	public String getMetric(int row) {
+		return getName(row).getMetric();
+	}
+
+	public int getTagSetId(int row) {
+		return nameTagSets[getNameId(row)];
+	}
+
+	public List<String> getTagSet(int tagSetId) {
+		return tagSets.get(tagSetId);
+	}
+
+	public List<String> getTags(int row) {
+		return getName(row).getTags();
+	}
+
+	public long getEpoch(int row) {
+		return epochs.get(checkRow(row));
+	}
+
+	public boolean isCounter(int row) {
+		return (kinds.get(checkRow(row)) & KIND_MASK) == COUNTER;
+	}
+
+	/**
+	 * Whether the row is a further point of the series of the row before
+	 */
+	public boolean isContinued(int row) {
+		return (kinds.get(checkRow(row)) & CONTINUED) != 0;
+	}
+
+	/**
+	 * Number of points of the series starting at the row, the row itself and the continued rows following it
+	 */
+	public int getPointCount(int row) {
+		int end = checkRow(row) + 1;
+		while (end < size && (kinds.get(end) & CONTINUED) != 0) {
+			end++;
+		}
+		return end - row;
+	}
+
+	/**
+	 * Whether the value is a double, see {@link #getDouble(int)}, rather than a long, see {@link #getLong(int)}
+	 */
+	public boolean isDouble(int row) {
+		return (kinds.get(checkRow(row)) & KIND_MASK) == DOUBLE_GAUGE;
+	}
+
+	public long getLong(int row) {
+		return values.get(checkRow(row));
+	}
+
+	public double getDouble(int row) {
+		return Double.longBitsToDouble(values.get(checkRow(row)));
+	}
+
+	/**
+	 * The value boxed, for consumers that take series one at a time
+	 */
+	public Number getValue(int row) {
+		return isDouble(row) ? (Number) getDouble(row) : (Number) getLong(row);
+	}
+
+	/**
+	 * @return the interval in seconds a count was taken over, null for cumulative counts and gauges
+	 */
+	public Long getInterval(int row) {
+		int interval = intervals.get(checkRow(row));
+		return interval == 0 ? null : Long.valueOf(interval);
+	}
+
+	/**
+	 * The datadog type of the row, as the one of the equivalent series
+	 */
+	public String getType(int row) {
+		if (!isCounter(row)) {
+			return "gauge";
+		}
+		return intervals.get(row) == 0 ? "counter" : "count";
+	}
+
+	/**
+	 * The series starting at the row as a series object, with all of its points
+	 */
+	public DatadogSeries<?> toSeries(int row) {
+		int points = getPointCount(row);
+		if (points > 1) {
+			List<List<Number>> list = new ArrayList<List<Number>>(points);
+			for (int i = row; i < row + points; i++) {
+				List<Number> point = new ArrayList<Number>(2);
+				point.add(getEpoch(i));
+				point.add(getValue(i));
+				list.add(point);
+			}
+			if (isCounter(row)) {
+				return new DatadogCounter(getName(row), list, host, getInterval(row));
+			}
+			return new DatadogGauge(getName(row), list, host);
+		}
+		if (isCounter(row)) {
+			return new DatadogCounter(getName(row), getLong(row), getEpoch(row), host, getInterval(row));
+		}
+		return new DatadogGauge(getName(row), getValue(row), getEpoch(row), host);
+	}
+
+	/**
+	 * Add every series, in order, to the given request. A request taking batches gets the batch itself, any other
+	 * request a series object per series. The request is not sent.
+	 */
+	public void replayTo(Transport.Request request) throws IOException {
+		if (request instanceof Transport.BatchRequest) {
+			((Transport.BatchRequest) request).addBatch(this);
+			return;
+		}
+		for (int row = 0; row < size; row += getPointCount(row)) {
+			DatadogSeries<?> series = toSeries(row);
+			if (series instanceof DatadogCounter) {
+				request.addCounter((DatadogCounter) series);
+			} else {
+				request.addGauge((DatadogGauge) series);
+			}
+		}
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+		return row;
+	}
+
+	/**
+	 * The id of a name, interning it and its tag list by identity. The slots of the open addressing tables hold
+	 * the id plus one, zero for an empty slot.
+	 */
+	private int intern(SeriesName name) {
+		int mask = nameSlots.length - 1;
+		int slot = mix(System.identityHashCode(name)) & mask;
+		while (nameSlots[slot] != 0) {
+			int id = nameSlots[slot] - 1;
+			if (names.get(id) == name) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int id = names.size();
+		names.add(name);
+		if (id == nameTagSets.length) {
+			int[] grown = new int[id * 2];
+			System.arraycopy(nameTagSets, 0, grown, 0, id);
+			nameTagSets = grown;
+		}
+		nameTagSets[id] = internTags(name.getTags());
+		nameSlots[slot] = id + 1;
+		if (names.size() > nameSlots.length * 3 / 4) {
+			nameSlots = rehash(nameSlots, names);
+		}
+		return id;
+	}
+
+	private int internTags(List<String> tags) {
+		int mask = tagSetSlots.length - 1;
+		int slot = mix(System.identityHashCode(tags)) & mask;
+		while (tagSetSlots[slot] != 0) {
+			int id = tagSetSlots[slot] - 1;
+			if (tagSets.get(id) == tags) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int id = tagSets.size();
+		tagSets.add(tags);
+		tagSetSlots[slot] = id + 1;
+		if (tagSets.size() > tagSetSlots.length * 3 / 4) {
+			tagSetSlots = rehash(tagSetSlots, tagSets);
+		}
+		return id;
+	}
+
+	private static int[] rehash(int[] slots, List<?> entries) {
+		int[] rehashed = new int[slots.length * 2];
+		int mask = rehashed.length - 1;
+		for (int id = 0; id < entries.size(); id++) {
+			int slot = mix(System.identityHashCode(entries.get(id))) & mask;
+			while (rehashed[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			rehashed[slot] = id + 1;
+		}
+		return rehashed;
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+		nameIds = offHeap ? direct(capacity * 4).asIntBuffer() : IntBuffer.allocate(capacity);
+		epochs = offHeap ? direct(capacity * 8).asLongBuffer() : LongBuffer.allocate(capacity);
+		values = offHeap ? direct(capacity * 8).asLongBuffer() : LongBuffer.allocate(capacity);
+		kinds = offHeap ? direct(capacity) : ByteBuffer.allocate(capacity);
+		intervals = offHeap ? direct(capacity * 4).asIntBuffer() : IntBuffer.allocate(capacity);
+	}
+
+	private void grow() {
+		IntBuffer oldNameIds = nameIds;
+		LongBuffer oldEpochs = epochs;
+		LongBuffer oldValues = values;
+		ByteBuffer oldKinds = kinds;
+		IntBuffer oldIntervals = intervals;
+		allocate(capacity * 2);
+		for (int row = 0; row < size; row++) {
+			nameIds.put(row, oldNameIds.get(row));
+			epochs.put(row, oldEpochs.get(row));
+			values.put(row, oldValues.get(row));
+			kinds.put(row, oldKinds.get(row));
+			intervals.put(row, oldIntervals.get(row));
+		}
+	}
+
+	private static ByteBuffer direct(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+}
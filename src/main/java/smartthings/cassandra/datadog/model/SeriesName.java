@@ -0,0 +1,90 @@
+package smartthings.cassandra.datadog.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A metric name split into the datadog metric and its tags, the tags of the name followed by the global tags.
+ * Immutable, so it is parsed once and shared by all series of that name. Names are equal if their metric and tags
+ * are, so a name parsed again still stands for the same series.
+ */
+public class SeriesName {
+	// Expect the tags in the pattern
+	// namespace.metricName[tag1:value1,tag2:value2,etc....]
+	static final Pattern TAG_PATTERN = Pattern.compile("([\\w\\.]+)\\[([\\w\\W]+)\\]");
+
+	private final String metric;
+	private final List<String> tags;
+	private int hash;
+
+	public SeriesName(String metric, List<String> tags) {
+		this.metric = metric;
+		this.tags = ImmutableList.copyOf(tags);
+	}
+
+	/**
+	 * Parse a name with optional tags in brackets, e.g. {@code cassandra.ReadLatency[keyspace:ks1,table:t1]}
+	 */
+	public static SeriesName parse(String name, List<String> additionalTags) {
+		Matcher matcher = TAG_PATTERN.matcher(name);
+		if (matcher.find() && matcher.groupCount() == 2) {
+			return new SeriesName(matcher.group(1), tags(matcher.group(2), additionalTags));
+		}
+		return new SeriesName(name, additionalTags == null ? ImmutableList.<String>of() : additionalTags);
+	}
+
+	/**
+	 * Tags in brackets, split at commas, followed by the additional tags
+	 */
+	static List<String> tags(String bracketed, List<String> additionalTags) {
+		ImmutableList.Builder<String> tags = ImmutableList.builder();
+		for (String t : bracketed.split("\\,")) {
+			tags.add(t);
+		}
+		if (additionalTags != null) {
+			tags.addAll(additionalTags);
+		}
+		return tags.build();
+	}
+
+	public String getMetric() {
+		return metric;
+	}
+
+	public List<String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof SeriesName)) {
+			return false;
+		}
+		SeriesName other = (SeriesName) o;
+		return hashCode() == other.hashCode() && metric.equals(other.metric) && tags.equals(other.tags);
+	}
+
+	/**
+	 * Computed once, names are hashed for every sample
+	 */
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = 31 * metric.hashCode() + tags.hashCode();
+			hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return metric + tags;
+	}
+}
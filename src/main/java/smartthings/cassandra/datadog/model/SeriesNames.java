@@ -0,0 +1,114 @@
+package smartthings.cassandra.datadog.model;
+
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistryListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+
+/**
+ * Parses metric names into {@link SeriesName}s once and hands out the cached result afterwards, with the global
+ * tags appended. Names sharing the same bracketed tags, such as the expansions of one metric, share one tag list.
+ * <p>
+ * At most maxSize names are cached, further names are parsed each time. Names looked up for a metric are evicted
+ * once the metric is removed from the metrics registry.
+ */
+public class SeriesNames implements MetricsRegistryListener {
+	public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+
+	private final List<String> globalTags;
+	private final int maxSize;
+	private final ConcurrentMap<String, SeriesName> names;
+	private final ConcurrentMap<String, List<String>> tagLists = new ConcurrentHashMap<String, List<String>>();
+	private final ConcurrentMap<MetricName, Set<String>> namesOf = new ConcurrentHashMap<MetricName, Set<String>>();
+
+	public SeriesNames(List<String> globalTags) {
+		this(globalTags, DEFAULT_MAX_SIZE);
+	}
+
+	public SeriesNames(List<String> globalTags, int maxSize) {
+		this.globalTags = ImmutableList.copyOf(globalTags);
+		this.maxSize = maxSize;
+		this.names = new ConcurrentHashMap<String, SeriesName>(Math.min(maxSize, 16 * 1024));
+	}
+
+	public SeriesName get(String name) {
+		return get(null, name);
+	}
+
+	/**
+	 * The series name of a name formatted from the metric, evicted once the metric is removed
+	 *
+	 * @param metric the name was formatted from, null if it belongs to no metric of the registry
+	 */
+	public SeriesName get(MetricName metric, String name) {
+		SeriesName seriesName = names.get(name);
+		if (seriesName == null) {
+			seriesName = parse(name);
+			if (names.size() < maxSize && names.putIfAbsent(name, seriesName) == null && metric != null) {
+				namesOf(metric).add(name);
+			}
+		}
+		return seriesName;
+	}
+
+	@Override
+	public void onMetricAdded(MetricName name, Metric metric) {
+		// names are cached when first looked up
+	}
+
+	@Override
+	public void onMetricRemoved(MetricName metric) {
+		Set<String> owned = namesOf.remove(metric);
+		if (owned != null) {
+			for (String name : owned) {
+				names.remove(name);
+			}
+		}
+	}
+
+	public List<String> getGlobalTags() {
+		return globalTags;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	private Set<String> namesOf(MetricName metric) {
+		Set<String> owned = namesOf.get(metric);
+		if (owned == null) {
+			owned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>(4));
+			Set<String> existing = namesOf.putIfAbsent(metric, owned);
+			if (existing != null) {
+				owned = existing;
+			}
+		}
+		return owned;
+	}
+
+	private SeriesName parse(String name) {
+		Matcher matcher = SeriesName.TAG_PATTERN.matcher(name);
+		if (matcher.find() && matcher.groupCount() == 2) {
+			return new SeriesName(matcher.group(1), tagList(matcher.group(2)));
+		}
+		return new SeriesName(name, globalTags);
+	}
+
+	private List<String> tagList(String bracketed) {
+		List<String> tags = tagLists.get(bracketed);
+		if (tags == null) {
+			tags = SeriesName.tags(bracketed, globalTags);
+			if (tagLists.size() < maxSize) {
+				tagLists.putIfAbsent(bracketed, tags);
+			}
+		}
+		return tags;
+	}
+}
@@ -0,0 +1,16 @@
+package smartthings.cassandra.datadog.serializer;
+
+import smartthings.cassandra.datadog.model.SeriesBatch;
+
+import java.io.IOException;
+
+/**
+ * A serializer that can append rows of a {@link SeriesBatch} without building a series object for each
+ */
+public interface BatchSerializer extends Serializer {
+
+	/**
+	 * Append the series starting at a row of the batch to the time series, with all of its points
+	 */
+	public void appendRow(SeriesBatch batch, int row) throws IOException;
+}
@@ -0,0 +1,53 @@
+package smartthings.cassandra.datadog.serializer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of byte arrays so that request bodies can be built without allocating a new buffer every poll.
+ * Buffers that had to grow while in use are returned at their grown size, so the pool settles on the size
+ * of a typical request.
+ */
+public class BufferPool {
+	private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+	private final AtomicInteger pooled = new AtomicInteger();
+	private final int initialSize;
+	private final int maxPooled;
+
+	/**
+	 * @param initialSize size of a newly allocated buffer
+	 * @param maxPooled   maximum number of idle buffers kept around
+	 */
+	public BufferPool(int initialSize, int maxPooled) {
+		if (initialSize <= 0) {
+			throw new IllegalArgumentException("initialSize must be positive");
+		}
+		this.initialSize = initialSize;
+		this.maxPooled = maxPooled;
+	}
+
+	public byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		if (buffer == null) {
+			return new byte[initialSize];
+		}
+		pooled.decrementAndGet();
+		return buffer;
+	}
+
+	public void release(byte[] buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+
+	public int getPooled() {
+		return pooled.get();
+	}
+}
@@ -1,15 +1,18 @@
 package smartthings.cassandra.datadog.serializer;
 
+import com.google.common.io.CountingOutputStream;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
 import smartthings.cassandra.datadog.model.DatadogGauge;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -22,12 +25,29 @@ public class JsonSerializer implements Serializer {
 	private static final ObjectMapper mapper = new ObjectMapper(jsonFactory);
 	private static final Logger LOG = LoggerFactory.getLogger(JsonSerializer.class);
 
+	private final CountingOutputStream target;
 	private JsonGenerator jsonOut;
 	private ByteArrayOutputStream outputStream;
 
+	public JsonSerializer() {
+		this.target = null;
+	}
+
+	/**
+	 * Serialize straight into the given stream rather than into an in-memory buffer
+	 */
+	public JsonSerializer(OutputStream target) {
+		this.target = new CountingOutputStream(target);
+	}
+
 	public void startObject() throws IOException {
-		outputStream = new ByteArrayOutputStream(2048);
-		jsonOut = jsonFactory.createJsonGenerator(outputStream);
+		if (target == null) {
+			outputStream = new ByteArrayOutputStream(2048);
+			jsonOut = jsonFactory.createJsonGenerator(outputStream);
+		} else {
+			jsonOut = jsonFactory.createJsonGenerator(target);
+			jsonOut.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		}
 		jsonOut.writeStartObject();
 		jsonOut.writeFieldName("series");
 		jsonOut.writeStartArray();
@@ -41,14 +61,50 @@ public class JsonSerializer implements Serializer {
 		mapper.writeValue(jsonOut, counter);
 	}
 
+	public void appendDistribution(DatadogDistribution distribution) throws IOException {
+		mapper.writeValue(jsonOut, distribution);
+	}
+
 	public void endObject() throws IOException {
 		jsonOut.writeEndArray();
 		jsonOut.writeEndObject();
 		jsonOut.flush();
-		outputStream.close();
+		if (outputStream != null) {
+			outputStream.close();
+		}
 	}
 
 	public String getAsString() throws UnsupportedEncodingException {
+		checkBuffered();
 		return outputStream.toString("UTF-8");
 	}
+
+	public int getSize() {
+		return target == null ? outputStream.size() : (int) target.getCount();
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		checkBuffered();
+		outputStream.writeTo(out);
+	}
+
+	private void checkBuffered() {
+		if (outputStream == null) {
+			throw new UnsupportedOperationException("Body was streamed to its target and is not buffered");
+		}
+	}
+
+	public void close() throws IOException {
+		// nothing to release
+	}
+
+	public static class Factory implements SerializerFactory {
+		public Serializer create() {
+			return new JsonSerializer();
+		}
+
+		public Serializer create(OutputStream out) {
+			return new JsonSerializer(out);
+		}
+	}
 }
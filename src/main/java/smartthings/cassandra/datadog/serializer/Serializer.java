@@ -2,17 +2,20 @@ package smartthings.cassandra.datadog.serializer;
 
 
 import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
 import smartthings.cassandra.datadog.model.DatadogGauge;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * This defines the interface to build a datadog request body.
  * The call order is expected to be:
- * startObject() -> One or more of appendGauge/appendCounter -> endObject()
+ * startObject() -> One or more of appendGauge/appendCounter -> endObject() -> writeTo()/getAsString() -> close()
  * Note that this is a single-use class and nothing can be appended once endObject() is called.
  */
-public interface Serializer {
+public interface Serializer extends Closeable {
 
 	/**
 	 * Write starting marker of the datadog time series object
@@ -29,6 +32,11 @@ public interface Serializer {
 	 */
 	public void appendCounter(DatadogCounter counter) throws IOException;
 
+	/**
+	 * Append a distribution, only to bodies of distribution points
+	 */
+	public void appendDistribution(DatadogDistribution distribution) throws IOException;
+
 	/**
 	 * Mark ending of the datadog time series object
 	 */
@@ -38,4 +46,19 @@ public interface Serializer {
 	 * Get datadog time series object serialized as a string
 	 */
 	public String getAsString() throws IOException;
+
+	/**
+	 * Number of bytes serialized so far
+	 */
+	public int getSize();
+
+	/**
+	 * Write the serialized time series object as UTF-8 bytes to the given stream
+	 */
+	public void writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * Release any buffers held by the serializer
+	 */
+	public void close() throws IOException;
 }
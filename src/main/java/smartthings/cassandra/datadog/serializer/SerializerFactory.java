@@ -0,0 +1,21 @@
+package smartthings.cassandra.datadog.serializer;
+
+import java.io.OutputStream;
+
+/**
+ * Creates a fresh {@link Serializer} for every datadog request.
+ */
+public interface SerializerFactory {
+
+	/**
+	 * Create a new, single-use serializer
+	 */
+	public Serializer create();
+
+	/**
+	 * Create a new, single-use serializer that writes through to the given stream as series are appended
+	 * instead of buffering the whole body. {@link Serializer#getAsString()} and {@link Serializer#writeTo}
+	 * are not supported by such a serializer and the stream is not closed by it.
+	 */
+	public Serializer create(OutputStream out);
+}
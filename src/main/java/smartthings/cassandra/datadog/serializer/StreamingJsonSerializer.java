@@ -0,0 +1,370 @@
+package smartthings.cassandra.datadog.serializer;
+
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Serialize datadog time series objects into json by writing the fields directly as UTF-8 into a pooled byte
+ * buffer. Produces the same document as {@link JsonSerializer} without going through jackson's bean
+ * introspection or copying the body into a String. Rows of a {@link SeriesBatch} are written straight from its
+ * columns. When given a target stream the buffer is flushed to it
+ * whenever it fills up, so the body is never held in memory as a whole.
+ *
+ * @see <a href="http://docs.datadoghq.com/api/">API docs</a>
+ */
+public class StreamingJsonSerializer implements BatchSerializer {
+	private static final byte[] START_OBJECT = ascii("{\"series\":[");
+	private static final byte[] END_OBJECT = ascii("]}");
+	private static final byte[] HOST_FIELD = ascii("{\"host\":");
+	private static final byte[] METRIC_FIELD = ascii(",\"metric\":");
+	private static final byte[] TAGS_FIELD = ascii(",\"tags\":[");
+	private static final byte[] POINTS_FIELD = ascii("],\"points\":[[");
+	private static final byte[] NEXT_POINT = ascii("],[");
+	private static final byte[] START_VALUES = ascii(",[");
+	private static final byte[] TYPE_FIELD = ascii("]],\"type\":");
+	private static final byte[] INTERVAL_FIELD = ascii(",\"interval\":");
+	private static final byte[] NULL = ascii("null");
+	private static final byte[] HEX = ascii("0123456789ABCDEF");
+	private static final byte[] MIN_LONG = ascii(String.valueOf(Long.MIN_VALUE));
+
+	private final BufferPool pool;
+	private final OutputStream target;
+	private byte[] buffer;
+	private int position;
+	private long flushed;
+	private boolean firstSeries;
+
+	public StreamingJsonSerializer(BufferPool pool) {
+		this(pool, null);
+	}
+
+	/**
+	 * Serialize through to the given stream, using a pooled buffer to batch up writes
+	 */
+	public StreamingJsonSerializer(BufferPool pool, OutputStream target) {
+		this.pool = pool;
+		this.target = target;
+	}
+
+	public void startObject() throws IOException {
+		buffer = pool.acquire();
+		position = 0;
+		flushed = 0;
+		firstSeries = true;
+		writeRaw(START_OBJECT);
+	}
+
+	public void appendGauge(DatadogGauge gauge) throws IOException {
+		appendSeries(gauge, gauge.getType(), null);
+	}
+
+	public void appendCounter(DatadogCounter counter) throws IOException {
+		appendSeries(counter, counter.getType(), counter.getInterval());
+	}
+
+	/**
+	 * Writes the value of every bin as many times as it counts, the values of a sketch are never NaN or infinite
+	 */
+	public void appendDistribution(DatadogDistribution distribution) throws IOException {
+		startSeries(distribution.getHost(), distribution.getMetric(), distribution.getTags());
+		writeLong(distribution.getEpoch());
+		writeRaw(START_VALUES);
+		boolean first = true;
+		for (int bin = 0; bin < distribution.getBinCount(); bin++) {
+			String value = Double.toString(distribution.getValue(bin));
+			for (long i = distribution.getCount(bin); i > 0; i--) {
+				if (!first) {
+					writeByte(',');
+				}
+				first = false;
+				writeAscii(value);
+			}
+		}
+		writeByte(']');
+		endSeries(distribution.getType(), null);
+	}
+
+	public void appendRow(SeriesBatch batch, int row) throws IOException {
+		startSeries(batch.getHost(), batch.getMetric(row), batch.getTags(row));
+		int end = row + batch.getPointCount(row);
+		for (int i = row; i < end; i++) {
+			if (i > row) {
+				writeRaw(NEXT_POINT);
+			}
+			writeLong(batch.getEpoch(i));
+			writeByte(',');
+			if (batch.isDouble(i)) {
+				writeDouble(batch.getDouble(i));
+			} else {
+				writeLong(batch.getLong(i));
+			}
+		}
+		endSeries(batch.getType(row), batch.getInterval(row));
+	}
+
+	private void appendSeries(DatadogSeries<?> series, String type, Long interval) throws IOException {
+		startSeries(series.getHost(), series.getMetric(), series.getTags());
+		if (series.getPointCount() == 1) {
+			writeNumber(series.getEpoch());
+			writeByte(',');
+			writeNumber(series.getValue());
+		} else {
+			List<List<Number>> points = series.getPoints();
+			for (int i = 0; i < points.size(); i++) {
+				if (i > 0) {
+					writeRaw(NEXT_POINT);
+				}
+				writeNumber(points.get(i).get(0));
+				writeByte(',');
+				writeNumber(points.get(i).get(1));
+			}
+		}
+		endSeries(type, interval);
+	}
+
+	/**
+	 * Everything up to the first point
+	 */
+	private void startSeries(String host, String metric, List<String> tags) throws IOException {
+		if (!firstSeries) {
+			writeByte(',');
+		}
+		firstSeries = false;
+
+		writeRaw(HOST_FIELD);
+		writeString(host);
+		writeRaw(METRIC_FIELD);
+		writeString(metric);
+		writeRaw(TAGS_FIELD);
+		for (int i = 0; i < tags.size(); i++) {
+			if (i > 0) {
+				writeByte(',');
+			}
+			writeString(tags.get(i));
+		}
+		writeRaw(POINTS_FIELD);
+	}
+
+	private void endSeries(String type, Long interval) throws IOException {
+		writeRaw(TYPE_FIELD);
+		writeString(type);
+		if (interval != null) {
+			writeRaw(INTERVAL_FIELD);
+			writeNumber(interval);
+		}
+		writeByte('}');
+	}
+
+	public void endObject() throws IOException {
+		writeRaw(END_OBJECT);
+		if (target != null) {
+			flushBuffer();
+			target.flush();
+		}
+	}
+
+	public String getAsString() throws UnsupportedEncodingException {
+		checkBuffered();
+		return new String(buffer, 0, position, "UTF-8");
+	}
+
+	public int getSize() {
+		return (int) (flushed + position);
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		checkBuffered();
+		out.write(buffer, 0, position);
+	}
+
+	private void checkBuffered() {
+		if (target != null) {
+			throw new UnsupportedOperationException("Body was streamed to its target and is not buffered");
+		}
+	}
+
+	public void close() throws IOException {
+		if (buffer != null) {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	private void writeNumber(Number value) throws IOException {
+		if (value == null) {
+			writeRaw(NULL);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			writeLong(value.longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			double d = value.doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				// matches jackson's default of quoting non numeric numbers
+				writeString(value.toString());
+			} else {
+				writeAscii(value.toString());
+			}
+		} else if (value instanceof BigInteger || value instanceof BigDecimal) {
+			writeAscii(value.toString());
+		} else {
+			writeAscii(String.valueOf(value.doubleValue()));
+		}
+	}
+
+	private void writeDouble(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			writeString(Double.toString(value));
+		} else {
+			writeAscii(Double.toString(value));
+		}
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			writeRaw(MIN_LONG);
+			return;
+		}
+		if (value < 0) {
+			writeByte('-');
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value / 10; v > 0; v /= 10) {
+			digits++;
+		}
+		ensureCapacity(digits);
+		int end = position + digits;
+		for (int i = end - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		position = end;
+	}
+
+	private void writeAscii(String value) throws IOException {
+		int length = value.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			buffer[position++] = (byte) value.charAt(i);
+		}
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			writeRaw(NULL);
+			return;
+		}
+		int length = value.length();
+		// worst case is 6 bytes per char for escaped control characters
+		ensureCapacity(length * 6 + 2);
+		byte[] buf = buffer;
+		int pos = position;
+		buf[pos++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				if (c == '"' || c == '\\') {
+					buf[pos++] = '\\';
+					buf[pos++] = (byte) c;
+				} else if (c < 0x20) {
+					buf[pos++] = '\\';
+					buf[pos++] = 'u';
+					buf[pos++] = '0';
+					buf[pos++] = '0';
+					buf[pos++] = HEX[c >> 4];
+					buf[pos++] = HEX[c & 0xF];
+				} else {
+					buf[pos++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		buf[pos++] = '"';
+		position = pos;
+	}
+
+	private void writeRaw(byte[] bytes) throws IOException {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void writeByte(char c) throws IOException {
+		ensureCapacity(1);
+		buffer[position++] = (byte) c;
+	}
+
+	private void ensureCapacity(int needed) throws IOException {
+		if (target != null && position + needed > buffer.length) {
+			flushBuffer();
+		}
+		if (position + needed > buffer.length) {
+			int size = Math.max(buffer.length * 2, position + needed);
+			byte[] grown = new byte[size];
+			System.arraycopy(buffer, 0, grown, 0, position);
+			buffer = grown;
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		target.write(buffer, 0, position);
+		flushed += position;
+		position = 0;
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Creates serializers that share a pool of buffers across requests.
+	 */
+	public static class Factory implements SerializerFactory {
+		private final BufferPool pool;
+
+		public Factory() {
+			this(new BufferPool(64 * 1024, 4));
+		}
+
+		public Factory(BufferPool pool) {
+			this.pool = pool;
+		}
+
+		public Serializer create() {
+			return new StreamingJsonSerializer(pool);
+		}
+
+		public Serializer create(OutputStream out) {
+			return new StreamingJsonSerializer(pool, out);
+		}
+
+		public BufferPool getPool() {
+			return pool;
+		}
+	}
+}
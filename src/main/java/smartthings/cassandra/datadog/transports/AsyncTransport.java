@@ -0,0 +1,226 @@
+package smartthings.cassandra.datadog.transports;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartthings.cassandra.datadog.Transport;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples sending from the polling thread. Requests only buffer the series of a poll; send() hands the
+ * complete batch to a bounded queue which a dedicated sender thread drains into the wrapped transport. A slow
+ * datadog intake therefore no longer delays the next poll.
+ * <p>
+ * The number of queued and dropped batches and the current queue depth are registered as metrics in the given
+ * registry, so they are reported along with everything else. The metrics of each instance have a scope of their
+ * own, by default the name of the wrapped transport's class, made unique within the registry, and are removed on
+ * close.
+ */
+public class AsyncTransport implements Transport {
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncTransport.class);
+	private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+	private final Transport delegate;
+	private final OverflowPolicy overflowPolicy;
+	private final BlockingQueue<BufferedRequest> queue;
+	private final MetricsRegistry registry;
+	private final String scope;
+	private final Counter queuedBatches;
+	private final Counter droppedBatches;
+	private final Thread sender;
+	private volatile int lastBatchSize = 256;
+	private volatile boolean closed = false;
+
+	public AsyncTransport(Transport delegate, int queueDepth, OverflowPolicy overflowPolicy, MetricsRegistry registry) {
+		this(delegate, queueDepth, overflowPolicy, registry, defaultScope(delegate));
+	}
+
+	/**
+	 * @param scope of the metrics of this instance, suffixed with a number if another instance already uses it
+	 */
+	public AsyncTransport(Transport delegate, int queueDepth, OverflowPolicy overflowPolicy, MetricsRegistry registry,
+						  String scope) {
+		this.delegate = delegate;
+		this.overflowPolicy = overflowPolicy;
+		this.queue = new ArrayBlockingQueue<BufferedRequest>(queueDepth);
+		this.registry = registry;
+		this.scope = uniqueScope(registry, scope);
+		this.queuedBatches = registry.newCounter(name("queued-batches"));
+		this.droppedBatches = registry.newCounter(name("dropped-batches"));
+		registry.newGauge(name("queue-depth"), new Gauge<Integer>() {
+			@Override
+			public Integer value() {
+				return queue.size();
+			}
+		});
+		this.sender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "datadog-async-sender-" + this.scope);
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	private static String defaultScope(Transport delegate) {
+		String name = delegate.getClass().getSimpleName();
+		return name.isEmpty() ? "transport" : name;
+	}
+
+	private static synchronized String uniqueScope(MetricsRegistry registry, String scope) {
+		String unique = scope;
+		int i = 2;
+		while (registry.allMetrics().containsKey(new MetricName(AsyncTransport.class, "queue-depth", unique))) {
+			unique = scope + "-" + i++;
+		}
+		return unique;
+	}
+
+	private MetricName name(String name) {
+		return new MetricName(AsyncTransport.class, name, scope);
+	}
+
+	@Override
+	public Request prepare() throws IOException {
+		return new AsyncRequest(this, lastBatchSize);
+	}
+
+	/**
+	 * Stops the sender once the batch in flight has been sent, batches still queued are dropped. A sender still
+	 * busy after 10 seconds is interrupted. The metrics of the transport are removed from the registry.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			sender.join(CLOSE_TIMEOUT_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (sender.isAlive()) {
+			LOG.warn("Sender of {} still busy after {} ms, interrupting it", scope, CLOSE_TIMEOUT_MILLIS);
+			sender.interrupt();
+		}
+		if (!queue.isEmpty()) {
+			LOG.warn("Dropping {} queued batches on close", queue.size());
+			droppedBatches.inc(queue.size());
+			queue.clear();
+		}
+		registry.removeMetric(name("queued-batches"));
+		registry.removeMetric(name("dropped-batches"));
+		registry.removeMetric(name("queue-depth"));
+		delegate.close();
+	}
+
+	public Transport getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * The scope of the metrics of this instance
+	 */
+	public String getScope() {
+		return scope;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public long getQueuedBatches() {
+		return queuedBatches.count();
+	}
+
+	public long getDroppedBatches() {
+		return droppedBatches.count();
+	}
+
+	/**
+	 * Queue a complete batch as it is, which may be shared with other transports
+	 */
+	void enqueue(BufferedRequest batch) throws InterruptedException {
+		lastBatchSize = batch.size();
+		if (closed) {
+			droppedBatches.inc();
+			return;
+		}
+		if (overflowPolicy == OverflowPolicy.BLOCK) {
+			queue.put(batch);
+		} else {
+			while (!queue.offer(batch)) {
+				if (queue.poll() != null) {
+					droppedBatches.inc();
+					LOG.warn("Send queue full, dropped the oldest batch");
+				}
+			}
+		}
+		queuedBatches.inc();
+	}
+
+	private void drain() {
+		while (!closed) {
+			BufferedRequest batch;
+			try {
+				batch = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (batch != null) {
+				sendBatch(batch);
+			}
+		}
+	}
+
+	private void sendBatch(BufferedRequest batch) {
+		try {
+			send(batch);
+		} catch (Throwable t) {
+			LOG.error("Error sending batch of " + batch.size() + " series of " + scope, t);
+		}
+	}
+
+	/**
+	 * Send a dequeued batch to the wrapped transport, on the sender thread
+	 */
+	void send(BufferedRequest batch) throws Exception {
+		Request request = delegate.prepare();
+		batch.replayTo(request);
+		request.send();
+	}
+
+	/**
+	 * What to do when a batch is ready and the queue is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Drop the oldest queued batch to make room, the polling thread never waits
+		 */
+		DROP_OLDEST,
+		/**
+		 * Block the polling thread until the sender has made room
+		 */
+		BLOCK
+	}
+
+	static class AsyncRequest extends BufferedRequest {
+		private final AsyncTransport transport;
+
+		AsyncRequest(AsyncTransport transport, int expectedSize) {
+			super(expectedSize);
+			this.transport = transport;
+		}
+
+		@Override
+		public void send() throws Exception {
+			transport.enqueue(this);
+		}
+	}
+}
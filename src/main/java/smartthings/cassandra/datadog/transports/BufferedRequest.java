@@ -0,0 +1,93 @@
+package smartthings.cassandra.datadog.transports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartthings.cassandra.datadog.Transport;
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A request that holds on to the series added to it so they can be replayed into another request later,
+ * possibly on another thread. Series are immutable, so once a buffered request is complete it can be
+ * handed off safely. Sending a buffered request does nothing.
+ * <p>
+ * Distributions are buffered apart from the series, and only replayed into requests that take distributions.
+ */
+public class BufferedRequest implements Transport.DistributionRequest {
+	private static final Logger LOG = LoggerFactory.getLogger(BufferedRequest.class);
+	private final List<DatadogSeries<?>> series;
+	private List<DatadogDistribution> distributions = Collections.emptyList();
+
+	public BufferedRequest() {
+		this(256);
+	}
+
+	public BufferedRequest(int expectedSize) {
+		this.series = new ArrayList<DatadogSeries<?>>(expectedSize);
+	}
+
+	@Override
+	public void addGauge(DatadogGauge gauge) throws IOException {
+		series.add(gauge);
+	}
+
+	@Override
+	public void addCounter(DatadogCounter counter) throws IOException {
+		series.add(counter);
+	}
+
+	@Override
+	public void addDistribution(DatadogDistribution distribution) throws IOException {
+		if (distributions.isEmpty()) {
+			distributions = new ArrayList<DatadogDistribution>();
+		}
+		distributions.add(distribution);
+	}
+
+	@Override
+	public void send() throws Exception {
+		// nothing to send, see replayTo
+	}
+
+	/**
+	 * Add every buffered series, in order, to the given request. The request is not sent.
+	 */
+	public void replayTo(Transport.Request request) throws IOException {
+		for (DatadogSeries<?> s : series) {
+			if (s instanceof DatadogCounter) {
+				request.addCounter((DatadogCounter) s);
+			} else {
+				request.addGauge((DatadogGauge) s);
+			}
+		}
+		if (request instanceof Transport.DistributionRequest) {
+			for (DatadogDistribution distribution : distributions) {
+				((Transport.DistributionRequest) request).addDistribution(distribution);
+			}
+		} else if (!distributions.isEmpty()) {
+			LOG.debug("Request does not take distributions, dropped {}", distributions.size());
+		}
+	}
+
+	public List<DatadogSeries<?>> getSeries() {
+		return Collections.unmodifiableList(series);
+	}
+
+	public List<DatadogDistribution> getDistributions() {
+		return Collections.unmodifiableList(distributions);
+	}
+
+	/**
+	 * Number of series, not counting distributions
+	 */
+	public int size() {
+		return series.size();
+	}
+}
@@ -0,0 +1,347 @@
+package smartthings.cassandra.datadog.transports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartthings.cassandra.datadog.Transport;
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+
+/**
+ * Pushes metrics to a local datadog agent using the UDP dogstatsd protocol. Metric lines are packed into as few
+ * datagrams as the MTU allows and are encoded straight into a reused direct buffer.
+ * <p>
+ * Cassandra counters are cumulative, so they are sent as dogstatsd gauges; a dogstatsd counter would be summed
+ * by the agent. Counter deltas are sent as dogstatsd counters. The host of a series is not sent, the agent
+ * reports its own host name. NaN and infinite values are skipped, the agent rejects the lines.
+ * <p>
+ * Dogstatsd lines carry no timestamp, so of a series with several points only the last is sent, except for counter
+ * deltas, whose points are sent one by one for the agent to add up. Requests share the transport's buffers, so
+ * only one request may be in use at a time.
+ *
+ * @see <a href="http://docs.datadoghq.com/guides/dogstatsd/">DogStatsD</a>
+ */
+public class DogStatsdTransport implements Transport {
+	private static final Logger LOG = LoggerFactory.getLogger(DogStatsdTransport.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] GAUGE_TYPE = {'|', 'g'};
+	private static final byte[] COUNTER_TYPE = {'|', 'c'};
+	private static final byte[] TAGS_START = {'|', '#'};
+	private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes(UTF_8);
+
+	private final InetSocketAddress address;
+	private final DatagramChannel channel;
+	private final ByteBuffer packet;
+	private final ByteBuffer line;
+	private final CharsetEncoder encoder = UTF_8.newEncoder();
+	private long packetsSent;
+	private long packetsDropped;
+	private long metricsDropped;
+
+	private DogStatsdTransport(Builder builder) throws IOException {
+		this.address = new InetSocketAddress(builder.host, builder.port);
+		this.packet = ByteBuffer.allocateDirect(builder.mtu);
+		this.line = ByteBuffer.allocateDirect(builder.mtu);
+		this.channel = DatagramChannel.open();
+		this.channel.configureBlocking(false);
+	}
+
+	@Override
+	public Request prepare() throws IOException {
+		packet.clear();
+		return new DogStatsdRequest(this);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public int getMtu() {
+		return packet.capacity();
+	}
+
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	/**
+	 * Datagrams dropped because the socket send buffer was full or the send failed
+	 */
+	public long getPacketsDropped() {
+		return packetsDropped;
+	}
+
+	/**
+	 * Metrics dropped because a single line did not fit into the MTU
+	 */
+	public long getMetricsDropped() {
+		return metricsDropped;
+	}
+
+	private void append(DatadogSeries<?> series) throws IOException {
+		boolean delta = series instanceof DatadogCounter && ((DatadogCounter) series).isDelta();
+		if (delta && series.getPointCount() > 1) {
+			for (List<Number> point : series.getPoints()) {
+				append(series, point.get(1), true);
+			}
+		} else {
+			append(series, series.getValue(), delta);
+		}
+	}
+
+	private void append(DatadogSeries<?> series, Number value, boolean delta) {
+		if (!isFinite(value)) {
+			skipped(series.getMetric(), value);
+			return;
+		}
+		line.clear();
+		try {
+			encodeLine(series, value, delta);
+		} catch (BufferOverflowException e) {
+			dropped(series.getMetric());
+			return;
+		}
+		pack();
+	}
+
+	/**
+	 * Encodes the row from the columns of the batch, without a series object
+	 */
+	private void append(SeriesBatch batch, int row) {
+		if (batch.isDouble(row) && !isFinite(batch.getDouble(row))) {
+			skipped(batch.getMetric(row), batch.getDouble(row));
+			return;
+		}
+		line.clear();
+		try {
+			putString(batch.getMetric(row), true);
+			line.put((byte) ':');
+			if (batch.isDouble(row)) {
+				putDouble(batch.getDouble(row));
+			} else {
+				putLong(batch.getLong(row));
+			}
+			line.put(batch.isCounter(row) && batch.getInterval(row) != null ? COUNTER_TYPE : GAUGE_TYPE);
+			putTags(batch.getTags(row));
+		} catch (BufferOverflowException e) {
+			dropped(batch.getMetric(row));
+			return;
+		}
+		pack();
+	}
+
+	private static boolean isFinite(Number value) {
+		double d = value.doubleValue();
+		return !(Double.isNaN(d) || Double.isInfinite(d));
+	}
+
+	private void skipped(String metric, Number value) {
+		LOG.debug("Metric {} has the value {}, which dogstatsd does not take, skipped", metric, value);
+	}
+
+	private void dropped(String metric) {
+		metricsDropped++;
+		LOG.debug("Metric {} does not fit into a single datagram, skipped", metric);
+	}
+
+	/**
+	 * Move the encoded line into the packet, sending the packet first if the line does not fit
+	 */
+	private void pack() {
+		line.flip();
+		if (line.remaining() + 1 > packet.remaining()) {
+			flush();
+		}
+		if (packet.position() > 0) {
+			packet.put((byte) '\n');
+		}
+		packet.put(line);
+	}
+
+	private void encodeLine(DatadogSeries<?> series, Number value, boolean delta) {
+		putString(series.getMetric(), true);
+		line.put((byte) ':');
+		putNumber(value);
+		line.put(delta ? COUNTER_TYPE : GAUGE_TYPE);
+		putTags(series.getTags());
+	}
+
+	private void putTags(List<String> tags) {
+		for (int i = 0; i < tags.size(); i++) {
+			if (i == 0) {
+				line.put(TAGS_START);
+			} else {
+				line.put((byte) ',');
+			}
+			putString(tags.get(i), false);
+		}
+	}
+
+	private void putNumber(Number value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			putLong(value.longValue());
+		} else {
+			putDouble(value.doubleValue());
+		}
+	}
+
+	private void putDouble(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			putLong((long) value);
+		} else {
+			putString(Double.toString(value), false);
+		}
+	}
+
+	private void putLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			line.put(MIN_LONG);
+			return;
+		}
+		if (value < 0) {
+			line.put((byte) '-');
+			value = -value;
+		}
+		long divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			line.put((byte) ('0' + (value / divisor) % 10));
+		}
+	}
+
+	/**
+	 * Writes ascii characters directly, falling back to the charset encoder for anything else. Characters that
+	 * are part of the protocol are replaced with underscores.
+	 */
+	private void putString(String value, boolean metricName) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				putEncoded(value, i, metricName);
+				return;
+			}
+			if (c == '|' || c == '\n' || (metricName ? (c == ':' || c == '@') : c == ',')) {
+				c = '_';
+			}
+			line.put((byte) c);
+		}
+	}
+
+	private void putEncoded(String value, int offset, boolean metricName) {
+		StringBuilder rest = new StringBuilder(value.length() - offset);
+		for (int i = offset; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '|' || c == '\n' || (metricName ? (c == ':' || c == '@') : c == ',')) {
+				c = '_';
+			}
+			rest.append(c);
+		}
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(rest), line, true);
+		if (result.isOverflow()) {
+			throw new BufferOverflowException();
+		}
+		encoder.flush(line);
+	}
+
+	private void flush() {
+		if (packet.position() == 0) {
+			return;
+		}
+		packet.flip();
+		try {
+			if (channel.send(packet, address) == 0) {
+				packetsDropped++;
+				LOG.debug("Socket buffer full, dropped a datagram to {}", address);
+			} else {
+				packetsSent++;
+			}
+		} catch (IOException e) {
+			packetsDropped++;
+			LOG.warn("Error sending datagram to " + address, e);
+		}
+		packet.clear();
+	}
+
+	public static class Builder {
+		private String host = "localhost";
+		private int port = 8125;
+		private int mtu = 1432;
+
+		public Builder withHost(String host) {
+			this.host = host;
+			return this;
+		}
+
+		public Builder withPort(int port) {
+			this.port = port;
+			return this;
+		}
+
+		/**
+		 * Maximum size of a datagram. The default of 1432 bytes fits a typical ethernet frame, an agent on the
+		 * loopback interface can take much larger datagrams.
+		 */
+		public Builder withMtu(int mtu) {
+			this.mtu = mtu;
+			return this;
+		}
+
+		public DogStatsdTransport build() throws IOException {
+			return new DogStatsdTransport(this);
+		}
+	}
+
+	static class DogStatsdRequest implements Transport.BatchRequest {
+		private final DogStatsdTransport transport;
+
+		DogStatsdRequest(DogStatsdTransport transport) {
+			this.transport = transport;
+		}
+
+		@Override
+		public void addGauge(DatadogGauge gauge) throws IOException {
+			transport.append(gauge);
+		}
+
+		@Override
+		public void addCounter(DatadogCounter counter) throws IOException {
+			transport.append(counter);
+		}
+
+		@Override
+		public void addBatch(SeriesBatch batch) throws IOException {
+			for (int row = 0; row < batch.size(); row++) {
+				boolean delta = batch.isCounter(row) && batch.getInterval(row) != null;
+				if (delta || row + 1 == batch.size() || !batch.isContinued(row + 1)) {
+					transport.append(batch, row);
+				}
+			}
+		}
+
+		@Override
+		public void send() throws Exception {
+			transport.flush();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package smartthings.cassandra.datadog.transports;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartthings.cassandra.datadog.Transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same metrics to several transports, e.g. datadog and a local file or agent. Requests buffer the series
+ * of a poll once, send() hands the same immutable batch to every destination. Each destination is wrapped in an
+ * {@link AsyncTransport} dropping its oldest batch once its queue is full, so a slow or failing destination
+ * neither delays the others nor the polling thread.
+ * <p>
+ * The series are built once for all destinations, each destination encodes them in its own format.
+ * <p>
+ * Per destination, the send latency and errors are registered as metrics in the given registry, scoped by the
+ * destination name, along with the queue metrics of its {@link AsyncTransport}, so they are reported along with
+ * everything else.
+ */
+public class FanOutTransport implements Transport {
+	private static final Logger LOG = LoggerFactory.getLogger(FanOutTransport.class);
+
+	private final List<Destination> destinations;
+	private volatile int lastBatchSize = 256;
+
+	private FanOutTransport(Builder builder) {
+		List<Destination> destinations = new ArrayList<Destination>();
+		for (int i = 0; i < builder.names.size(); i++) {
+			destinations.add(new Destination(builder.names.get(i), builder.transports.get(i), builder.queueDepth,
+				builder.registry));
+		}
+		this.destinations = Collections.unmodifiableList(destinations);
+	}
+
+	@Override
+	public Request prepare() throws IOException {
+		return new FanOutRequest(this, lastBatchSize);
+	}
+
+	/**
+	 * Stops every sender once the batch it has in flight has been sent, and closes the destinations. Batches
+	 * still queued are dropped.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Destination destination : destinations) {
+			try {
+				destination.close();
+			} catch (IOException e) {
+				LOG.error("Error closing destination " + destination.name + ", ignored", e);
+			}
+		}
+	}
+
+	public List<Destination> getDestinations() {
+		return destinations;
+	}
+
+	private void fanOut(BufferedRequest batch) throws InterruptedException {
+		lastBatchSize = batch.size();
+		for (Destination destination : destinations) {
+			destination.enqueue(batch);
+		}
+	}
+
+	/**
+	 * One transport the metrics are sent to, with the async transport queueing its batches and its stats
+	 */
+	public static class Destination {
+		private final String name;
+		private final Transport transport;
+		private final MetricsRegistry registry;
+		private final Timer latency;
+		private final Counter errors;
+		private final AsyncTransport async;
+
+		Destination(String name, Transport transport, int queueDepth, MetricsRegistry registry) {
+			this.name = name;
+			this.transport = transport;
+			this.registry = registry;
+			this.latency = registry.newTimer(metricName("send-latency"), TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+			this.errors = registry.newCounter(metricName("errors"));
+			this.async = new MeasuredAsyncTransport(queueDepth);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Transport getTransport() {
+			return transport;
+		}
+
+		/**
+		 * Time taken to send a batch to this destination
+		 */
+		public Timer getLatency() {
+			return latency;
+		}
+
+		/**
+		 * Batches the destination failed to take, including posts its transport reports as failed
+		 */
+		public long getErrors() {
+			return errors.count();
+		}
+
+		public long getDroppedBatches() {
+			return async.getDroppedBatches();
+		}
+
+		private MetricName metricName(String metric) {
+			return new MetricName(FanOutTransport.class, metric, name);
+		}
+
+		private void enqueue(BufferedRequest batch) throws InterruptedException {
+			async.enqueue(batch);
+		}
+
+		/**
+		 * Closes the async transport, and with it the destination, and removes the stats of the destination
+		 */
+		private void close() throws IOException {
+			try {
+				async.close();
+			} finally {
+				registry.removeMetric(metricName("send-latency"));
+				registry.removeMetric(metricName("errors"));
+			}
+		}
+
+		/**
+		 * Queues the shared batches as they are and measures sending each to the destination
+		 */
+		private class MeasuredAsyncTransport extends AsyncTransport {
+			MeasuredAsyncTransport(int queueDepth) {
+				super(transport, queueDepth, OverflowPolicy.DROP_OLDEST, registry, name);
+			}
+
+			@Override
+			void send(BufferedRequest batch) throws Exception {
+				long start = System.nanoTime();
+				try {
+					super.send(batch);
+				} catch (Exception e) {
+					errors.inc();
+					throw e;
+				} finally {
+					latency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+	}
+
+	static class FanOutRequest extends BufferedRequest {
+		private final FanOutTransport transport;
+
+		FanOutRequest(FanOutTransport transport, int expectedSize) {
+			super(expectedSize);
+			this.transport = transport;
+		}
+
+		@Override
+		public void send() throws Exception {
+			transport.fanOut(this);
+		}
+	}
+
+	public static class Builder {
+		private final List<String> names = new ArrayList<String>();
+		private final List<Transport> transports = new ArrayList<Transport>();
+		private int queueDepth = 4;
+		private MetricsRegistry registry = Metrics.defaultRegistry();
+
+		/**
+		 * Add a destination, the name tells its stats and log messages apart
+		 */
+		public Builder withDestination(String name, Transport transport) {
+			if (names.contains(name)) {
+				throw new IllegalArgumentException("Duplicate destination " + name);
+			}
+			names.add(name);
+			transports.add(transport);
+			return this;
+		}
+
+		/**
+		 * Number of batches each destination may fall behind before its oldest batch is dropped
+		 */
+		public Builder withQueueDepth(int queueDepth) {
+			this.queueDepth = queueDepth;
+			return this;
+		}
+
+		/**
+		 * The registry to register the stats of the destinations in, usually the one the reporter reports
+		 */
+		public Builder withMetricsRegistry(MetricsRegistry registry) {
+			this.registry = registry;
+			return this;
+		}
+
+		public FanOutTransport build() {
+			if (names.isEmpty()) {
+				throw new IllegalStateException("No destinations");
+			}
+			return new FanOutTransport(this);
+		}
+	}
+}
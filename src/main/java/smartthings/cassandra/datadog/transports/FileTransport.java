@@ -1,39 +1,470 @@
 package smartthings.cassandra.datadog.transports;
 
+import com.yammer.metrics.core.Clock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import smartthings.cassandra.datadog.Transport;
 import smartthings.cassandra.datadog.model.DatadogCounter;
 import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.model.SeriesName;
 
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Appends metrics to a local file, e.g. as a flight recorder on every node. The file stays open between polls,
+ * series are encoded straight into a reused direct buffer which is written to the file when full and on send.
+ * <p>
+ * Lines of the text format hold the host, type, epoch, value and metric of a point, a header line starts every
+ * poll. The binary format is several times smaller and cheaper to write, see {@link RecordReader} to read it.
+ * <p>
+ * The file can be rotated once it reached a size or age, the rotated file is renamed with the time of the
+ * rotation appended, and only the newest rotated files are kept. Rotation happens at the start of a poll, so a
+ * file may exceed its size by up to one poll. Requests share the transport's buffer, so only one request may be
+ * in use at a time.
+ */
 public class FileTransport implements Transport {
 	private static final Logger LOG = LoggerFactory.getLogger(FileTransport.class);
-	private final String fileName;
-	private FileWriter fw;
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
+	/**
+	 * Starts every binary file, and every append to one, after which names, host and epoch are defined anew
+	 */
+	static final byte[] MAGIC = {0, 'D', 'D', 'R', 1};
+	static final byte NAME = 'N';
+	static final byte HOST = 'H';
+	static final byte POLL = 'P';
+	static final byte GAUGE = 'G';
+	static final byte DOUBLE_GAUGE = 'D';
+	static final byte COUNTER = 'C';
+	static final byte COUNT = 'I';
+	/**
+	 * Set in the type of a further point of the series of the record before
+	 */
+	static final int CONTINUED = 0x80;
+	private static final int MAX_RECORD = 32;
+	private static final int MAX_NAMES = 1 << 16;
+	private static final byte[] HEADER_START = "+++++++++++++++++++++ ".getBytes();
+	private static final byte[] HEADER_END = " +++++++++++++++++++++\n".getBytes();
+	private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes();
+	private static final byte[] NULL = "null".getBytes();
+
+	public enum Format {
+		TEXT, BINARY
+	}
+
+	private final File file;
+	private final Format format;
+	private final long maxFileBytes;
+	private final long maxFileMillis;
+	private final int maxFiles;
+	private final Clock clock;
+	private final ByteBuffer buffer;
+	private final SeriesBatch scratch = new SeriesBatch(null, 16, false);
+	private final Map<SeriesName, Integer> nameIds = new IdentityHashMap<SeriesName, Integer>();
+	private FileChannel channel;
+	private long fileBytes;
+	private long openedMillis;
+	private String lastHost;
+	private long lastEpoch;
+	private long rotations;
+
+	/**
+	 * A text file growing without bounds
+	 */
 	public FileTransport(String fileName) {
-		this.fileName = fileName;
+		this(new Builder().withFile(fileName));
+	}
+
+	private FileTransport(Builder builder) {
+		this.file = builder.file;
+		this.format = builder.format;
+		this.maxFileBytes = builder.maxFileBytes;
+		this.maxFileMillis = builder.maxFileMillis;
+		this.maxFiles = builder.maxFiles;
+		this.clock = builder.clock;
+		this.buffer = ByteBuffer.allocateDirect(builder.bufferSize);
 	}
 
 	@Override
 	public Request prepare() throws IOException {
-		fw = new FileWriter(fileName, true);
-		fw.append("+++++++++++++++++++++ " + new Date().toString() + " +++++++++++++++++++++\n");
+		long now = clock.time();
+		if (channel != null && isDue(now)) {
+			rotate(now);
+		}
+		if (channel == null) {
+			open(now);
+		}
+		if (format == Format.TEXT) {
+			put(HEADER_START);
+			putString(new Date(now).toString());
+			put(HEADER_END);
+		} else {
+			ensure(MAX_RECORD);
+			buffer.put(POLL);
+			putVarLong(now);
+		}
 		return new FileRequest(this);
 	}
 
+	/**
+	 * Writes what is buffered and closes the file, the next poll opens it again
+	 */
 	@Override
 	public void close() throws IOException {
-		if (fw != null) {
-			fw.close();
+		if (channel != null) {
+			try {
+				drain();
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Number of times the file was rotated
+	 */
+	public long getRotations() {
+		return rotations;
+	}
+
+	private boolean isDue(long now) {
+		return (maxFileBytes > 0 && fileBytes + buffer.position() >= maxFileBytes)
+			|| (maxFileMillis > 0 && now - openedMillis >= maxFileMillis);
+	}
+
+	private void open(long now) throws IOException {
+		channel = new FileOutputStream(file, true).getChannel();
+		fileBytes = channel.size();
+		openedMillis = now;
+		if (format == Format.BINARY) {
+			nameIds.clear();
+			lastHost = null;
+			lastEpoch = 0;
+			put(MAGIC);
+		}
+	}
+
+	private void rotate(long now) throws IOException {
+		close();
+		File rotated = new File(file.getPath() + "." + now);
+		while (rotated.exists()) {
+			rotated = new File(file.getPath() + "." + ++now);
+		}
+		if (file.renameTo(rotated)) {
+			rotations++;
+		} else {
+			LOG.warn("Could not rename {} to {}, appending to it", file, rotated);
+		}
+		deleteOldest();
+	}
+
+	private void deleteOldest() {
+		if (maxFiles <= 0) {
+			return;
+		}
+		final String prefix = file.getName() + ".";
+		File dir = file.getAbsoluteFile().getParentFile();
+		File[] rotated = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && isDigits(name, prefix.length());
+			}
+		});
+		if (rotated == null || rotated.length <= maxFiles) {
+			return;
+		}
+		String[] names = new String[rotated.length];
+		for (int i = 0; i < rotated.length; i++) {
+			names[i] = rotated[i].getName();
+		}
+		Arrays.sort(names, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+			}
+		});
+		for (int i = 0; i < names.length - maxFiles; i++) {
+			File old = new File(dir, names[i]);
+			if (!old.delete()) {
+				LOG.warn("Could not delete rotated file {}", old);
+			}
+		}
+	}
+
+	private static boolean isDigits(String name, int from) {
+		if (from >= name.length()) {
+			return false;
+		}
+		for (int i = from; i < name.length(); i++) {
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void write(SeriesBatch batch, String host) throws IOException {
+		for (int row = 0; row < batch.size(); row++) {
+			if (format == Format.TEXT) {
+				writeLine(batch, row, host);
+			} else {
+				writeRecord(batch, row, host);
+			}
+		}
+	}
+
+	/**
+	 * A line of the same columns as {@code String.format("%-10s %-10s %-12s %-20s %s\n", ...)}
+	 */
+	private void writeLine(SeriesBatch batch, int row, String host) throws IOException {
+		pad(putString(host), 10);
+		pad(putString(batch.getType(row)), 10);
+		ensure(MAX_RECORD);
+		pad(putLong(batch.getEpoch(row)), 12);
+		if (batch.isDouble(row)) {
+			pad(putString(Double.toString(batch.getDouble(row))), 20);
+		} else {
+			ensure(MAX_RECORD);
+			pad(putLong(batch.getLong(row)), 20);
+		}
+		putString(batch.getMetric(row));
+		ensure(1);
+		buffer.put((byte) '\n');
+	}
+
+	/**
+	 * Pads a column of the given number of chars to its width, and puts the space separating it from the next
+	 */
+	private void pad(int chars, int width) throws IOException {
+		ensure(width + 1);
+		for (int i = chars; i < width; i++) {
+			buffer.put((byte) ' ');
+		}
+		buffer.put((byte) ' ');
+	}
+
+	private void writeRecord(SeriesBatch batch, int row, String host) throws IOException {
+		boolean continued = batch.isContinued(row);
+		if (!continued) {
+			if (host == null ? lastHost != null : !host.equals(lastHost)) {
+				ensure(1);
+				buffer.put(HOST);
+				putUtf8(host == null ? "" : host);
+				lastHost = host;
+			}
+		}
+		int id = nameId(batch.getName(row));
+		int type;
+		if (batch.isCounter(row)) {
+			type = batch.getInterval(row) == null ? COUNTER : COUNT;
+		} else {
+			type = batch.isDouble(row) ? DOUBLE_GAUGE : GAUGE;
+		}
+		ensure(MAX_RECORD);
+		buffer.put((byte) (continued ? type | CONTINUED : type));
+		putVarLong(id);
+		long epoch = batch.getEpoch(row);
+		putVarLong(zigZag(epoch - lastEpoch));
+		lastEpoch = epoch;
+		if (type == DOUBLE_GAUGE) {
+			buffer.putLong(batch.getLong(row));
+		} else {
+			putVarLong(zigZag(batch.getLong(row)));
+		}
+		if (type == COUNT) {
+			putVarLong(batch.getInterval(row));
+		}
+	}
+
+	/**
+	 * The id of a name in the current file, writing its definition when it is new. Ids count up from zero in the
+	 * order of the definitions; names are compared by identity, so past a bound the ids start over.
+	 */
+	private int nameId(SeriesName name) throws IOException {
+		Integer id = nameIds.get(name);
+		if (id != null) {
+			return id;
+		}
+		if (nameIds.size() == MAX_NAMES) {
+			nameIds.clear();
+			lastHost = null;
+			lastEpoch = 0;
+			put(MAGIC);
+		}
+		id = nameIds.size();
+		nameIds.put(name, id);
+		ensure(MAX_RECORD);
+		buffer.put(NAME);
+		putUtf8(name.getMetric());
+		List<String> tags = name.getTags();
+		ensure(MAX_RECORD);
+		putVarLong(tags.size());
+		for (String tag : tags) {
+			putUtf8(tag);
 		}
+		return id;
 	}
 
-	static class FileRequest implements Transport.Request {
+	private void write(DatadogSeries<?> series) throws IOException {
+		scratch.add(series);
+		try {
+			write(scratch, series.getHost());
+		} finally {
+			scratch.clear();
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			fileBytes += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void put(byte[] bytes) throws IOException {
+		ensure(bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Puts a string as UTF-8 a char at a time, draining the buffer as it fills up
+	 *
+	 * @return the number of chars put
+	 */
+	private int putString(String value) throws IOException {
+		if (value == null) {
+			put(NULL);
+			return NULL.length;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (buffer.remaining() < 4) {
+				drain();
+			}
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xf0 | (cp >> 18)));
+				buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+				buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (cp & 0x3f)));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+		return value.length();
+	}
+
+	/**
+	 * Puts a string prefixed by its length in UTF-8 bytes
+	 */
+	private void putUtf8(String value) throws IOException {
+		ensure(MAX_RECORD);
+		putVarLong(utf8Length(value));
+		putString(value);
+	}
+
+	static int utf8Length(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Puts the decimal digits of a long, the buffer must have room for 20 bytes
+	 *
+	 * @return the number of chars put
+	 */
+	private int putLong(long value) {
+		int start = buffer.position();
+		if (value == Long.MIN_VALUE) {
+			buffer.put(MIN_LONG);
+			return MIN_LONG.length;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			buffer.put((byte) ('0' + value / divisor % 10));
+		}
+		return buffer.position() - start;
+	}
+
+	/**
+	 * Puts an unsigned varint, seven bits a byte, the buffer must have room for 10 bytes
+	 */
+	private void putVarLong(long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static class FileRequest implements BatchRequest {
 		private final FileTransport transport;
 
 		FileRequest(FileTransport transport) {
@@ -42,23 +473,93 @@ public class FileTransport implements Transport {
 
 		@Override
 		public void addGauge(DatadogGauge gauge) throws IOException {
-			Number epoch = gauge.getPoints().get(0).get(0);
-			Number count = gauge.getPoints().get(0).get(1);
-			transport.fw.append(String.format("%-10s %-10s %-12s %-20s %s\n", gauge.getHost(), gauge.getType(), epoch, count, gauge.getMetric()));
+			transport.write(gauge);
 		}
 
 		@Override
 		public void addCounter(DatadogCounter counter) throws IOException {
-			Number epoch = counter.getPoints().get(0).get(0);
-			Number count = counter.getPoints().get(0).get(1);
-			transport.fw.append(String.format("%-10s %-10s %-12s %-20s %s\n", counter.getHost(), counter.getType(), epoch, count, counter.getMetric()));
+			transport.write(counter);
+		}
+
+		@Override
+		public void addBatch(SeriesBatch batch) throws IOException {
+			transport.write(batch, batch.getHost());
 		}
 
+		/**
+		 * Writes what is buffered to the file, which stays open for the next poll
+		 */
 		@Override
 		public void send() throws Exception {
-			transport.fw.flush();
-			transport.fw.close();
-			transport.fw = null;
+			transport.drain();
+		}
+	}
+
+	public static class Builder {
+		private File file;
+		private Format format = Format.TEXT;
+		private long maxFileBytes = 0;
+		private long maxFileMillis = 0;
+		private int maxFiles = 0;
+		private int bufferSize = DEFAULT_BUFFER_SIZE;
+		private Clock clock = Clock.defaultClock();
+
+		public Builder withFile(String fileName) {
+			return withFile(new File(fileName));
+		}
+
+		public Builder withFile(File file) {
+			this.file = file;
+			return this;
+		}
+
+		public Builder withFormat(Format format) {
+			this.format = format;
+			return this;
+		}
+
+		/**
+		 * Rotate the file once it has at least the given size, 0 to not rotate by size
+		 */
+		public Builder withMaxFileBytes(long maxFileBytes) {
+			this.maxFileBytes = maxFileBytes;
+			return this;
+		}
+
+		/**
+		 * Rotate the file once it is open for the given time, 0 to not rotate by time
+		 */
+		public Builder withRotationInterval(long interval, TimeUnit unit) {
+			this.maxFileMillis = unit.toMillis(interval);
+			return this;
+		}
+
+		/**
+		 * Number of rotated files to keep, the oldest are deleted on rotation, 0 to keep all
+		 */
+		public Builder withMaxFiles(int maxFiles) {
+			this.maxFiles = maxFiles;
+			return this;
+		}
+
+		public Builder withBufferSize(int bufferSize) {
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		public Builder withClock(Clock clock) {
+			this.clock = clock;
+			return this;
+		}
+
+		public FileTransport build() {
+			if (file == null) {
+				throw new IllegalStateException("No file");
+			}
+			if (bufferSize < MAX_RECORD) {
+				throw new IllegalArgumentException("Buffer must hold at least " + MAX_RECORD + " bytes, was " + bufferSize);
+			}
+			return new FileTransport(this);
 		}
 	}
 }
@@ -1,36 +1,134 @@
 package smartthings.cassandra.datadog.transports;
 
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import smartthings.cassandra.datadog.Transport;
 import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogDistribution;
 import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.SeriesBatch;
+import smartthings.cassandra.datadog.serializer.BatchSerializer;
 import smartthings.cassandra.datadog.serializer.JsonSerializer;
 import smartthings.cassandra.datadog.serializer.Serializer;
+import smartthings.cassandra.datadog.serializer.SerializerFactory;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Uses the datadog http webservice to push metrics.
+ * <p>
+ * A request is split into batches once a batch reaches the configured number of series or bytes. Full batches
+ * are posted as soon as they are sealed, on a small pool of sender threads when one is configured, and
+ * {@link Transport.Request#send()} returns once every batch of the request has been posted. It throws if any
+ * batch was neither delivered nor spilled, so callers can tell a lost request from a delivered one.
+ * <p>
+ * Connections are kept alive between polls: the response is drained instead of disconnecting, so the JDK can
+ * hand the socket, and its TLS session, to the next request instead of handshaking with datadog every poll.
+ * <p>
+ * Distributions are posted to the distribution points intake in batches of their own, compressed like the series
+ * batches but never spilled.
  *
  * @see <a href="http://docs.datadoghq.com/api/">API docs</a>
  */
 public class HttpTransport implements Transport {
 	private static final Logger LOG = LoggerFactory.getLogger(HttpTransport.class);
 	private static final int GATEWAY_TIMEOUT_MILLIS = 5000;
+	private static final int CHUNK_SIZE = 8192;
+	/**
+	 * Compressed bytes of a streamed batch kept in memory for the spill buffer without a batch byte limit
+	 */
+	private static final int SPILL_BUFFER_BYTES = 1024 * 1024;
+	private static final String DEFAULT_BASE_URL = "https://app.datadoghq.com";
 
 	private final URL seriesUrl;
+	private final URL distributionUrl;
+	private final URL validateUrl;
+	private final SSLSocketFactory sslSocketFactory;
+	private final SpillBuffer spill;
+	private final SerializerFactory serializerFactory;
+	private final Compression compression;
+	private final int maxBatchSeries;
+	private final int maxBatchBytes;
+	private final ExecutorService senders;
+	private final List<BatchListener> batchListeners = new CopyOnWriteArrayList<BatchListener>();
 
 	public HttpTransport(String apiKey) {
+		this(apiKey, new JsonSerializer.Factory());
+	}
+
+	public HttpTransport(String apiKey, SerializerFactory serializerFactory) {
+		this(new Builder().withApiKey(apiKey).withSerializerFactory(serializerFactory));
+	}
+
+	private HttpTransport(Builder builder) {
+		this.serializerFactory = builder.serializerFactory;
+		this.compression = builder.compression;
+		this.maxBatchSeries = builder.maxBatchSeries;
+		this.maxBatchBytes = builder.maxBatchBytes;
+		this.sslSocketFactory = builder.sslSocketFactory;
 		try {
-			this.seriesUrl = new URL(String.format("https://app.datadoghq.com/api/v1/series?api_key=%s", apiKey));
+			this.seriesUrl = new URL(String.format("%s/api/v1/series?api_key=%s", builder.baseUrl, builder.apiKey));
+			this.distributionUrl = new URL(String.format("%s/api/v1/distribution_points?api_key=%s", builder.baseUrl,
+				builder.apiKey));
+			this.validateUrl = new URL(String.format("%s/api/v1/validate?api_key=%s", builder.baseUrl, builder.apiKey));
 		} catch (MalformedURLException e) {
 			throw new IllegalArgumentException("Unable to form URL", e);
 		}
+		if (builder.senderThreads > 0) {
+			// Once every sender is busy and the queue is full, further batches are posted by the polling thread
+			this.senders = new ThreadPoolExecutor(builder.senderThreads, builder.senderThreads,
+				0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(builder.senderThreads),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("datadog-http-sender-%d").build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		} else {
+			this.senders = null;
+		}
+		if (builder.spillDirectory != null) {
+			this.spill = new SpillBuffer(builder.spillDirectory, builder.spillMaxBytes, builder.spillMaxAgeMillis,
+				builder.initialBackoffMillis, builder.maxBackoffMillis, new SpillBuffer.Sender() {
+				@Override
+				public boolean resend(File segment, Compression encoding) throws IOException {
+					return HttpTransport.this.resend(segment, encoding);
+				}
+			});
+		} else {
+			this.spill = null;
+		}
+		if (builder.prewarm) {
+			Thread prewarmer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					prewarm();
+				}
+			}, "datadog-http-prewarm");
+			prewarmer.setDaemon(true);
+			prewarmer.start();
+		}
 	}
 
 	@Override
@@ -40,69 +138,942 @@ public class HttpTransport implements Transport {
 
 	@Override
 	public void close() throws IOException {
-		// nothing to close
+		if (senders != null) {
+			senders.shutdown();
+		}
+		if (spill != null) {
+			spill.close();
+		}
 	}
 
 	public URL getSeriesUrl() {
 		return seriesUrl;
 	}
 
-	static class HttpRequest implements Transport.Request {
-		private final Serializer serializer;
+	public URL getDistributionUrl() {
+		return distributionUrl;
+	}
+
+	public SerializerFactory getSerializerFactory() {
+		return serializerFactory;
+	}
+
+	public Compression getCompression() {
+		return compression;
+	}
+
+	public int getMaxBatchSeries() {
+		return maxBatchSeries;
+	}
+
+	public int getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	public SpillBuffer getSpill() {
+		return spill;
+	}
+
+	/**
+	 * Open a connection to datadog ahead of the first poll, by validating the api key, so the first batch finds
+	 * an established connection. Failures are logged and otherwise ignored.
+	 *
+	 * @return true if the connection could be established
+	 */
+	public boolean prewarm() {
+		HttpURLConnection urlConnection = null;
+		boolean reusable = false;
+		try {
+			urlConnection = (HttpURLConnection) validateUrl.openConnection();
+			configure(urlConnection);
+			urlConnection.setRequestMethod("GET");
+			long connectNanos = connect(urlConnection);
+			int responseCode = urlConnection.getResponseCode();
+			drainResponse(urlConnection);
+			reusable = true;
+			LOG.info("Pre-warmed connection to datadog in {} ms, api key validation returned {}",
+				TimeUnit.NANOSECONDS.toMillis(connectNanos), responseCode);
+			return true;
+		} catch (IOException e) {
+			LOG.warn("Could not pre-warm connection to datadog", e);
+			return false;
+		} finally {
+			if (urlConnection != null && !reusable) {
+				urlConnection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Register a listener notified after every batch has been posted
+	 */
+	public void addBatchListener(BatchListener listener) {
+		batchListeners.add(listener);
+	}
+
+	private HttpURLConnection openConnection(URL url) throws IOException {
+		HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+		configure(urlConnection);
+
+		urlConnection.setRequestMethod("POST");
+		urlConnection.setDoOutput(true);
+		urlConnection.setRequestProperty("content-type", "application/json; charset=utf-8");
+		return urlConnection;
+	}
+
+	private void configure(HttpURLConnection urlConnection) {
+		urlConnection.setDoInput(true);
+		urlConnection.setUseCaches(false);
+		urlConnection.setConnectTimeout(GATEWAY_TIMEOUT_MILLIS);
+		urlConnection.setReadTimeout(GATEWAY_TIMEOUT_MILLIS);
+		if (sslSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) urlConnection).setSSLSocketFactory(sslSocketFactory);
+		}
+	}
+
+	/**
+	 * Connect explicitly to time it, this covers the TCP and TLS handshakes unless a kept alive connection
+	 * is reused.
+	 */
+	private static long connect(URLConnection urlConnection) throws IOException {
+		long start = System.nanoTime();
+		urlConnection.connect();
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Read the response to the end and close it, which returns the connection to the keep-alive cache
+	 */
+	private static void drainResponse(HttpURLConnection urlConnection) throws IOException {
+		InputStream response;
+		try {
+			response = urlConnection.getInputStream();
+		} catch (IOException e) {
+			response = urlConnection.getErrorStream();
+		}
+		if (response == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[512];
+			while (response.read(buffer) >= 0) {
+				// discard
+			}
+		} finally {
+			response.close();
+		}
+	}
+
+	private static int checkResponse(HttpURLConnection urlConnection) throws IOException {
+		int responseCode = urlConnection.getResponseCode();
+		if (responseCode >= 300) {
+			LOG.warn("Datadog returned a non-200 response: {}", responseCode);
+		}
+		return responseCode;
+	}
+
+	/**
+	 * Failures worth retrying: no response at all, timeouts, throttling and server errors. Anything else,
+	 * such as a bad api key, would fail the same way again.
+	 */
+	private static boolean isRetryable(int responseCode) {
+		return responseCode < 0 || responseCode == 408 || responseCode == 429 || responseCode >= 500;
+	}
+
+	/**
+	 * Post a spilled payload as it was stored
+	 *
+	 * @return true once the payload is delivered or rejected for good
+	 */
+	private boolean resend(File segment, Compression encoding) throws IOException {
+		HttpURLConnection urlConnection = openConnection(seriesUrl);
+		boolean reusable = false;
+		try {
+			urlConnection.setFixedLengthStreamingMode((int) segment.length());
+			if (encoding != Compression.NONE) {
+				urlConnection.setRequestProperty("Content-Encoding", encoding.getContentEncoding());
+			}
+			OutputStream os = urlConnection.getOutputStream();
+			Files.copy(segment, os);
+			os.close();
+
+			int responseCode = checkResponse(urlConnection);
+			drainResponse(urlConnection);
+			reusable = true;
+			if (responseCode < 300) {
+				LOG.info("Replayed spilled payload {}", segment.getName());
+			} else if (!isRetryable(responseCode)) {
+				LOG.error("Datadog rejected spilled payload {} with {}, dropped", segment.getName(), responseCode);
+			}
+			return !isRetryable(responseCode);
+		} finally {
+			if (!reusable) {
+				urlConnection.disconnect();
+			}
+		}
+	}
+
+	private void batchPosted(BatchStats stats) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Posted batch of {} series, {} bytes in {} ms, connecting took {} ms", new Object[]{
+				stats.getSeries(), stats.getBytes(),
+				TimeUnit.NANOSECONDS.toMillis(stats.getElapsedNanos()),
+				TimeUnit.NANOSECONDS.toMillis(stats.getConnectNanos())});
+		}
+		for (BatchListener listener : batchListeners) {
+			try {
+				listener.onBatch(stats);
+			} catch (RuntimeException e) {
+				LOG.error("Batch listener failed, ignored", e);
+			}
+		}
+	}
+
+	/**
+	 * Content encodings the request body can be compressed with. Compressed bodies are streamed to datadog as
+	 * they are serialized using chunked transfer encoding.
+	 */
+	public enum Compression {
+		NONE(null),
+		GZIP("gzip"),
+		DEFLATE("deflate");
+
+		private final String contentEncoding;
+
+		Compression(String contentEncoding) {
+			this.contentEncoding = contentEncoding;
+		}
+
+		public String getContentEncoding() {
+			return contentEncoding;
+		}
+
+		OutputStream wrap(OutputStream out) throws IOException {
+			switch (this) {
+				case GZIP:
+					return new GZIPOutputStream(out, CHUNK_SIZE);
+				case DEFLATE:
+					return new DeflaterOutputStream(out);
+				default:
+					return out;
+			}
+		}
+	}
+
+	/**
+	 * Notified with the outcome of every posted batch, for example to tune the batch limits.
+	 */
+	public interface BatchListener {
+		void onBatch(BatchStats stats);
+	}
+
+	/**
+	 * Size and latency of a single posted batch. Latency is measured from the moment the batch is sealed
+	 * until datadog has responded. Connect time is reported separately: it covers the TCP and TLS handshakes
+	 * and drops to next to nothing when a kept alive connection is reused.
+	 */
+	public static class BatchStats {
+		private final int series;
+		private final long bytes;
+		private final long elapsedNanos;
+		private final long connectNanos;
+		private final boolean success;
+
+		public BatchStats(int series, long bytes, long elapsedNanos, long connectNanos, boolean success) {
+			this.series = series;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+			this.connectNanos = connectNanos;
+			this.success = success;
+		}
+
+		public int getSeries() {
+			return series;
+		}
+
+		/**
+		 * Uncompressed size of the batch body
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public long getConnectNanos() {
+			return connectNanos;
+		}
+
+		public boolean isSuccess() {
+			return success;
+		}
+	}
+
+	public static class Builder {
+		private String baseUrl = DEFAULT_BASE_URL;
+		private String apiKey = null;
+		private SerializerFactory serializerFactory = new JsonSerializer.Factory();
+		private Compression compression = Compression.NONE;
+		private int maxBatchSeries = 0;
+		private int maxBatchBytes = 0;
+		private int senderThreads = 0;
+		private boolean prewarm = false;
+		private SSLSocketFactory sslSocketFactory = null;
+		private File spillDirectory = null;
+		private long spillMaxBytes = 64L * 1024 * 1024;
+		private long spillMaxAgeMillis = TimeUnit.HOURS.toMillis(6);
+		private long initialBackoffMillis = TimeUnit.SECONDS.toMillis(1);
+		private long maxBackoffMillis = TimeUnit.MINUTES.toMillis(5);
+
+		/**
+		 * Scheme, host and port of the datadog api, defaults to https://app.datadoghq.com
+		 */
+		public Builder withBaseUrl(String baseUrl) {
+			this.baseUrl = baseUrl;
+			return this;
+		}
+
+		public Builder withApiKey(String apiKey) {
+			this.apiKey = apiKey;
+			return this;
+		}
+
+		public Builder withSerializerFactory(SerializerFactory serializerFactory) {
+			this.serializerFactory = serializerFactory;
+			return this;
+		}
+
+		public Builder withCompression(Compression compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		/**
+		 * Seal a batch once it holds this many series, 0 for no limit
+		 */
+		public Builder withMaxBatchSeries(int maxBatchSeries) {
+			this.maxBatchSeries = maxBatchSeries;
+			return this;
+		}
+
+		/**
+		 * Seal a batch once its uncompressed body reaches this many bytes, 0 for no limit. The limit is checked
+		 * after every series, so leave room for one more series below the datadog intake limit.
+		 */
+		public Builder withMaxBatchBytes(int maxBatchBytes) {
+			this.maxBatchBytes = maxBatchBytes;
+			return this;
+		}
+
+		/**
+		 * Post sealed batches in parallel on this many threads, 0 to post them on the calling thread
+		 */
+		public Builder withSenderThreads(int senderThreads) {
+			this.senderThreads = senderThreads;
+			return this;
+		}
+
+		/**
+		 * Establish a connection to datadog in the background as soon as the transport is built
+		 */
+		public Builder withPrewarm(boolean prewarm) {
+			this.prewarm = prewarm;
+			return this;
+		}
+
+		/**
+		 * Socket factory for https connections, for example to trust a private certificate authority
+		 */
+		public Builder withSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+			this.sslSocketFactory = sslSocketFactory;
+			return this;
+		}
+
+		/**
+		 * Keep batches that could not be delivered in the given directory, at most maxBytes in total and for at
+		 * most maxAgeMillis, and retry them in the background. Only failed batches are written: with compression,
+		 * the compressed body of a batch is kept in memory while it is posted, up to the max batch bytes or 1 MB
+		 * without a limit, and beyond that in a spill segment.
+		 *
+		 * @see SpillBuffer
+		 */
+		public Builder withSpill(File directory, long maxBytes, long maxAgeMillis) {
+			this.spillDirectory = directory;
+			this.spillMaxBytes = maxBytes;
+			this.spillMaxAgeMillis = maxAgeMillis;
+			return this;
+		}
+
+		/**
+		 * Bounds of the jittered exponential backoff between retries of spilled batches
+		 */
+		public Builder withSpillBackoff(long initialMillis, long maxMillis) {
+			this.initialBackoffMillis = initialMillis;
+			this.maxBackoffMillis = maxMillis;
+			return this;
+		}
+
+		public HttpTransport build() {
+			return new HttpTransport(this);
+		}
+	}
+
+	static class HttpRequest implements Transport.BatchRequest, Transport.DistributionRequest {
 		private final HttpTransport transport;
+		private final List<Future<Boolean>> inFlight = new ArrayList<Future<Boolean>>();
+		private Batch batch;
+		private Batch distributions;
+		private IOException failure;
+		private IOException distributionFailure;
+		private int batches;
+		private int lostBatches;
 
 		HttpRequest(HttpTransport transport) throws IOException {
 			this.transport = transport;
-			serializer = new JsonSerializer();
-			serializer.startObject();
+			this.batch = openBatch(transport.seriesUrl);
 		}
 
 		@Override
 		public void addGauge(DatadogGauge gauge) throws IOException {
-			serializer.appendGauge(gauge);
+			if (currentBatch() != null) {
+				batch.appendGauge(gauge);
+				sealIfFull();
+			}
 		}
 
 		@Override
 		public void addCounter(DatadogCounter counter) throws IOException {
-			serializer.appendCounter(counter);
+			if (currentBatch() != null) {
+				batch.appendCounter(counter);
+				sealIfFull();
+			}
+		}
+
+		@Override
+		public void addBatch(SeriesBatch rows) throws IOException {
+			for (int row = 0; row < rows.size(); row += rows.getPointCount(row)) {
+				if (currentBatch() == null) {
+					return;
+				}
+				batch.appendRow(rows, row);
+				sealIfFull();
+			}
+		}
+
+		@Override
+		public void addDistribution(DatadogDistribution distribution) throws IOException {
+			if (currentDistributions() == null) {
+				return;
+			}
+			distributions.appendDistribution(distribution);
+			if (isFull(distributions)) {
+				seal(distributions);
+				distributions = null;
+			}
+		}
+
+		/**
+		 * Opens a new batch if needed. If that fails the error is raised once and the rest of the request is
+		 * dropped rather than trying to connect for every single series.
+		 */
+		private Batch currentBatch() throws IOException {
+			if (batch == null && failure == null) {
+				try {
+					batch = openBatch(transport.seriesUrl);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				}
+			}
+			return batch;
+		}
+
+		/**
+		 * Opens a new distribution batch if needed, failing once per request like {@link #currentBatch()}
+		 */
+		private Batch currentDistributions() throws IOException {
+			if (distributions == null && distributionFailure == null) {
+				try {
+					distributions = openBatch(transport.distributionUrl);
+				} catch (IOException e) {
+					distributionFailure = e;
+					throw e;
+				}
+			}
+			return distributions;
 		}
 
 		@Override
 		public void send() throws Exception {
-			serializer.endObject();
-			postMetric(serializer.getAsString());
+			if (batch != null) {
+				seal(batch);
+				batch = null;
+			}
+			if (distributions != null) {
+				seal(distributions);
+				distributions = null;
+			}
+			for (Future<Boolean> future : inFlight) {
+				try {
+					if (!future.get()) {
+						lostBatches++;
+					}
+				} catch (ExecutionException e) {
+					LOG.error("Error posting batch to datadog", e.getCause());
+					lostBatches++;
+				}
+			}
+			inFlight.clear();
+			if (lostBatches > 0) {
+				throw new IOException(lostBatches + " of " + batches + " batches were not delivered to datadog");
+			}
+		}
+
+		private Batch openBatch(URL url) throws IOException {
+			if (transport.compression == Compression.NONE) {
+				return new BufferedBatch(transport, url);
+			}
+			return new StreamedBatch(transport, url);
 		}
 
-		private void postMetric(final String messageJson) {
+		private void sealIfFull() {
+			if (isFull(batch)) {
+				seal(batch);
+				batch = null;
+			}
+		}
+
+		private boolean isFull(Batch batch) {
+			return (transport.maxBatchSeries > 0 && batch.series >= transport.maxBatchSeries)
+				|| (transport.maxBatchBytes > 0 && batch.serializer.getSize() >= transport.maxBatchBytes);
+		}
+
+		private void seal(Batch sealed) {
+			sealed.sealedAt = System.nanoTime();
+			batches++;
+			if (transport.senders == null || transport.senders.isShutdown()) {
+				if (!sealed.call()) {
+					lostBatches++;
+				}
+			} else {
+				inFlight.add(transport.senders.submit(sealed));
+			}
+		}
+	}
+
+	/**
+	 * A single POST to datadog, call() returns whether the batch was delivered or kept in the spill buffer
+	 */
+	abstract static class Batch implements Callable<Boolean> {
+		final HttpTransport transport;
+		final URL url;
+		Serializer serializer;
+		int series;
+		long sealedAt;
+		long connectNanos;
+
+		Batch(HttpTransport transport, URL url) {
+			this.transport = transport;
+			this.url = url;
+		}
+
+		void appendGauge(DatadogGauge gauge) throws IOException {
+			serializer.appendGauge(gauge);
+			series++;
+		}
+
+		void appendCounter(DatadogCounter counter) throws IOException {
+			serializer.appendCounter(counter);
+			series++;
+		}
+
+		void appendDistribution(DatadogDistribution distribution) throws IOException {
+			serializer.appendDistribution(distribution);
+			series++;
+		}
+
+		/**
+		 * Append the series starting at the row, serializers that do not take rows get a series object for it
+		 */
+		void appendRow(SeriesBatch rows, int row) throws IOException {
+			if (serializer instanceof BatchSerializer) {
+				((BatchSerializer) serializer).appendRow(rows, row);
+			} else if (rows.isCounter(row)) {
+				serializer.appendCounter((DatadogCounter) rows.toSeries(row));
+			} else {
+				serializer.appendGauge((DatadogGauge) rows.toSeries(row));
+			}
+			series++;
+		}
+
+		@Override
+		public Boolean call() {
+			int responseCode = -1;
+			boolean spilled = false;
+			try {
+				responseCode = post();
+			} catch (Exception e) {
+				LOG.error("Error connecting to datadog", e);
+			}
+			boolean success = responseCode >= 0 && responseCode < 300;
+			try {
+				if (!success && transport.spill != null && url == transport.seriesUrl && isRetryable(responseCode)) {
+					spilled = spill();
+				} else {
+					discard();
+				}
+			} catch (IOException e) {
+				LOG.error("Error spilling undelivered batch to disk, dropped", e);
+			} finally {
+				try {
+					serializer.close();
+				} catch (IOException e) {
+					LOG.warn("Error releasing serializer", e);
+				}
+			}
+			long elapsed = System.nanoTime() - sealedAt;
+			transport.batchPosted(new BatchStats(series, serializer.getSize(), elapsed, connectNanos, success));
+			return success || spilled;
+		}
+
+		/**
+		 * @return the response code, or -1 if the body could not be delivered
+		 */
+		abstract int post() throws IOException;
+
+		/**
+		 * Keep the undelivered body in the spill buffer for a later retry
+		 *
+		 * @return true if the body was kept
+		 */
+		abstract boolean spill() throws IOException;
+
+		abstract void discard();
+	}
+
+	/**
+	 * Builds the body in memory and posts it once the batch is sealed.
+	 */
+	static class BufferedBatch extends Batch {
+
+		BufferedBatch(HttpTransport transport, URL url) throws IOException {
+			super(transport, url);
+			serializer = transport.serializerFactory.create();
+			serializer.startObject();
+		}
+
+		@Override
+		int post() throws IOException {
+			serializer.endObject();
 			HttpURLConnection urlConnection = null;
+			boolean reusable = false;
 			try {
 				LOG.debug("sending data to the datadog gateway");
-				urlConnection = (HttpURLConnection) transport.seriesUrl.openConnection();
-
-				urlConnection.setRequestMethod("POST");
-				urlConnection.setDoInput(true);
-				urlConnection.setDoOutput(true);
-				urlConnection.setUseCaches(false);
-				urlConnection.setConnectTimeout(GATEWAY_TIMEOUT_MILLIS);
-				urlConnection.setReadTimeout(GATEWAY_TIMEOUT_MILLIS);
-				urlConnection.setRequestProperty("content-type", "application/json; charset=utf-8");
+				urlConnection = transport.openConnection(url);
+				urlConnection.setFixedLengthStreamingMode(serializer.getSize());
+				connectNanos = connect(urlConnection);
 
 				OutputStream os = urlConnection.getOutputStream();
-				os.write(messageJson.getBytes());
+				serializer.writeTo(os);
 				os.flush();
 				os.close();
 
-				int responseCode = urlConnection.getResponseCode();
-				if (responseCode >= 300) {
-					LOG.warn("Datadog returned a non-200 response: {}", responseCode);
+				int responseCode = checkResponse(urlConnection);
+				drainResponse(urlConnection);
+				reusable = true;
+				return responseCode;
+			} finally {
+				if (urlConnection != null && !reusable) {
+					urlConnection.disconnect();
 				}
-			} catch (Exception e) {
-				LOG.error("Error connecting to datadog", e);
+			}
+		}
+
+		@Override
+		boolean spill() throws IOException {
+			SpillBuffer.Segment segment = transport.spill.newSegment(Compression.NONE);
+			try {
+				serializer.writeTo(segment.getOutput());
+			} catch (IOException e) {
+				segment.discard();
+				throw e;
+			}
+			segment.commit();
+			return true;
+		}
+
+		@Override
+		void discard() {
+			// nothing was written outside of the serializer
+		}
+	}
+
+	/**
+	 * Opens the connection up front and streams the compressed body to datadog while metrics are being added,
+	 * so the plain body is never held in memory as a whole. With a spill buffer a copy of the compressed body of
+	 * series batches is kept, see {@link SpillingOutputStream}, and spilled if the upload fails.
+	 */
+	static class StreamedBatch extends Batch {
+		private final HttpURLConnection urlConnection;
+		private final OutputStream body;
+		private final SpillingOutputStream spillingOutput;
+		private IOException failure;
+
+		StreamedBatch(HttpTransport transport, URL url) throws IOException {
+			super(transport, url);
+			boolean spilled = transport.spill != null && url == transport.seriesUrl;
+			LOG.debug("streaming data to the datadog gateway");
+			urlConnection = transport.openConnection(url);
+			OutputStream connectionOutput = null;
+			try {
+				urlConnection.setChunkedStreamingMode(CHUNK_SIZE);
+				urlConnection.setRequestProperty("Content-Encoding", transport.compression.getContentEncoding());
+				connectNanos = connect(urlConnection);
+				connectionOutput = urlConnection.getOutputStream();
+			} catch (IOException e) {
+				urlConnection.disconnect();
+				if (!spilled) {
+					throw e;
+				}
+				LOG.warn("Unable to connect to datadog, spilling batch to disk", e);
+			}
+			boolean started = false;
+			try {
+				if (spilled) {
+					int maxBufferedBytes = transport.maxBatchBytes > 0 ? transport.maxBatchBytes : SPILL_BUFFER_BYTES;
+					spillingOutput = new SpillingOutputStream(connectionOutput, transport.spill, transport.compression,
+						maxBufferedBytes);
+					body = transport.compression.wrap(spillingOutput);
+				} else {
+					spillingOutput = null;
+					body = transport.compression.wrap(connectionOutput);
+				}
+				serializer = transport.serializerFactory.create(body);
+				serializer.startObject();
+				started = true;
+			} finally {
+				if (!started) {
+					urlConnection.disconnect();
+				}
+			}
+		}
+
+		@Override
+		void appendGauge(DatadogGauge gauge) throws IOException {
+			if (failure == null) {
+				try {
+					super.appendGauge(gauge);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		void appendCounter(DatadogCounter counter) throws IOException {
+			if (failure == null) {
+				try {
+					super.appendCounter(counter);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		void appendRow(SeriesBatch rows, int row) throws IOException {
+			if (failure == null) {
+				try {
+					super.appendRow(rows, row);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		void appendDistribution(DatadogDistribution distribution) throws IOException {
+			if (failure == null) {
+				try {
+					super.appendDistribution(distribution);
+				} catch (IOException e) {
+					failure = e;
+					throw e;
+				}
+			}
+		}
+
+		@Override
+		int post() throws IOException {
+			boolean reusable = false;
+			try {
+				if (failure != null) {
+					LOG.error("Dropping batch, streaming to datadog failed earlier", failure);
+					return -1;
+				}
+				serializer.endObject();
+				body.close();
+				if (spillingOutput != null && spillingOutput.primaryFailure != null) {
+					LOG.error("Error streaming batch to datadog", spillingOutput.primaryFailure);
+					return -1;
+				}
+				int responseCode = checkResponse(urlConnection);
+				drainResponse(urlConnection);
+				reusable = true;
+				return responseCode;
 			} finally {
-				if (urlConnection != null) {
+				if (!reusable) {
 					urlConnection.disconnect();
 				}
 			}
 		}
+
+		@Override
+		boolean spill() throws IOException {
+			if (spillingOutput == null || failure != null) {
+				discard();
+				return false;
+			}
+			return spillingOutput.spill();
+		}
+
+		@Override
+		void discard() {
+			if (spillingOutput != null) {
+				spillingOutput.discard();
+			}
+		}
+	}
+
+	/**
+	 * Writes to the connection and keeps a copy of the body, in memory up to a limit and beyond it in a spill
+	 * segment, so delivering a batch of the usual size does not touch the disk. Once writing to the connection
+	 * fails the rest of the body only goes to the copy, so the batch can still be completed and retried later.
+	 * Failing to keep the copy does not affect the upload.
+	 */
+	static class SpillingOutputStream extends OutputStream {
+		private final SpillBuffer spillBuffer;
+		private final Compression encoding;
+		private final int maxBufferedBytes;
+		private ByteArrayOutputStream buffered = new ByteArrayOutputStream(CHUNK_SIZE);
+		private SpillBuffer.Segment segment;
+		private IOException copyFailure;
+		private OutputStream primary;
+		private IOException primaryFailure;
+
+		SpillingOutputStream(OutputStream primary, SpillBuffer spillBuffer, Compression encoding,
+							 int maxBufferedBytes) {
+			this.primary = primary;
+			this.spillBuffer = spillBuffer;
+			this.encoding = encoding;
+			this.maxBufferedBytes = maxBufferedBytes;
+			if (primary == null) {
+				primaryFailure = new IOException("Not connected");
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (primary != null) {
+				try {
+					primary.write(b, off, len);
+				} catch (IOException e) {
+					primaryFailed(e);
+				}
+			}
+			copy(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (primary != null) {
+				try {
+					primary.flush();
+				} catch (IOException e) {
+					primaryFailed(e);
+				}
+			}
+		}
+
+		/**
+		 * Completes the upload, the copy is spilled or discarded separately
+		 */
+		@Override
+		public void close() throws IOException {
+			if (primary != null) {
+				try {
+					primary.close();
+				} catch (IOException e) {
+					primaryFailed(e);
+				}
+			}
+		}
+
+		/**
+		 * Commit the copy of the body to the spill buffer
+		 *
+		 * @return true if the copy was kept
+		 */
+		boolean spill() throws IOException {
+			if (copyFailure != null) {
+				throw copyFailure;
+			}
+			if (segment == null) {
+				segment = spillBuffer.newSegment(encoding);
+				try {
+					buffered.writeTo(segment.getOutput());
+				} catch (IOException e) {
+					discard();
+					throw e;
+				}
+			}
+			segment.commit();
+			return true;
+		}
+
+		void discard() {
+			buffered = null;
+			if (segment != null) {
+				segment.discard();
+				segment = null;
+			}
+		}
+
+		private void copy(byte[] b, int off, int len) {
+			if (copyFailure != null) {
+				return;
+			}
+			try {
+				if (segment == null && buffered.size() + len > maxBufferedBytes) {
+					segment = spillBuffer.newSegment(encoding);
+					buffered.writeTo(segment.getOutput());
+					buffered = null;
+				}
+				if (segment != null) {
+					segment.getOutput().write(b, off, len);
+				} else {
+					buffered.write(b, off, len);
+				}
+			} catch (IOException e) {
+				LOG.warn("Unable to keep a copy of the batch for the spill buffer", e);
+				copyFailure = e;
+				discard();
+			}
+		}
+
+		private void primaryFailed(IOException e) {
+			primaryFailure = e;
+			primary = null;
+		}
 	}
 }
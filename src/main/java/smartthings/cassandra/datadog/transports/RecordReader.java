@@ -0,0 +1,225 @@
+package smartthings.cassandra.datadog.transports;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import smartthings.cassandra.datadog.Transport;
+import smartthings.cassandra.datadog.model.DatadogCounter;
+import smartthings.cassandra.datadog.model.DatadogGauge;
+import smartthings.cassandra.datadog.model.DatadogSeries;
+import smartthings.cassandra.datadog.model.SeriesName;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the files written by a {@link FileTransport} in the binary format, series by series. A record cut short
+ * at the end of the file, as left by a crash, ends the file. Run main with file names to print their series as
+ * text.
+ */
+public class RecordReader implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(RecordReader.class);
+	private static final String UTF_8 = "UTF-8";
+
+	private final BufferedInputStream stream;
+	private final DataInputStream in;
+	private final List<SeriesName> names = new ArrayList<SeriesName>();
+	private String host;
+	private long epoch;
+	private long pollMillis;
+
+	public RecordReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	public RecordReader(InputStream in) throws IOException {
+		this.stream = new BufferedInputStream(in);
+		this.in = new DataInputStream(stream);
+		if (stream.read() != FileTransport.MAGIC[0]) {
+			throw new IOException("Not a binary metrics file");
+		}
+		readMagic();
+	}
+
+	/**
+	 * @return the next series with all of its points, null at the end of the file
+	 */
+	public DatadogSeries<?> next() throws IOException {
+		try {
+			int type;
+			while ((type = stream.read()) >= 0) {
+				if (type == FileTransport.MAGIC[0]) {
+					readMagic();
+				} else if (type == FileTransport.NAME) {
+					readName();
+				} else if (type == FileTransport.HOST) {
+					host = readString();
+					host = host.isEmpty() ? null : host;
+				} else if (type == FileTransport.POLL) {
+					pollMillis = readVarLong();
+				} else if ((type & FileTransport.CONTINUED) == 0) {
+					return readSeries(type);
+				} else {
+					throw new IOException("Point without series, type " + type);
+				}
+			}
+			return null;
+		} catch (EOFException e) {
+			LOG.warn("Last record cut short, ignored");
+			return null;
+		}
+	}
+
+	/**
+	 * Adds every remaining series to the request, which is not sent
+	 *
+	 * @return the number of series added
+	 */
+	public int replayTo(Transport.Request request) throws IOException {
+		int count = 0;
+		DatadogSeries<?> series;
+		while ((series = next()) != null) {
+			if (series instanceof DatadogCounter) {
+				request.addCounter((DatadogCounter) series);
+			} else {
+				request.addGauge((DatadogGauge) series);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * The start of the poll of the series read last, in milliseconds
+	 */
+	public long getPollMillis() {
+		return pollMillis;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void readMagic() throws IOException {
+		for (int i = 1; i < FileTransport.MAGIC.length; i++) {
+			if (in.readByte() != FileTransport.MAGIC[i]) {
+				throw new IOException("Not a binary metrics file of version " + FileTransport.MAGIC[4]);
+			}
+		}
+		names.clear();
+		host = null;
+		epoch = 0;
+	}
+
+	private void readName() throws IOException {
+		String metric = readString();
+		int count = (int) readVarLong();
+		List<String> tags = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			tags.add(readString());
+		}
+		names.add(new SeriesName(metric, Collections.unmodifiableList(tags)));
+	}
+
+	private DatadogSeries<?> readSeries(int type) throws IOException {
+		SeriesName name = names.get((int) readVarLong());
+		Long interval = null;
+		List<List<Number>> points = new ArrayList<List<Number>>(1);
+		points.add(readPoint(type));
+		if (type == FileTransport.COUNT) {
+			interval = readVarLong();
+		}
+		stream.mark(1);
+		int next;
+		while ((next = stream.read()) >= 0 && (next & FileTransport.CONTINUED) != 0) {
+			readVarLong();
+			points.add(readPoint(next & ~FileTransport.CONTINUED));
+			if (type == FileTransport.COUNT) {
+				readVarLong();
+			}
+			stream.mark(1);
+		}
+		if (next >= 0) {
+			stream.reset();
+		}
+		if (type == FileTransport.COUNTER || type == FileTransport.COUNT) {
+			if (points.size() == 1) {
+				return new DatadogCounter(name, (Long) points.get(0).get(1), epoch, host, interval);
+			}
+			return new DatadogCounter(name, points, host, interval);
+		}
+		if (points.size() == 1) {
+			return new DatadogGauge(name, points.get(0).get(1), epoch, host);
+		}
+		return new DatadogGauge(name, points, host);
+	}
+
+	private List<Number> readPoint(int type) throws IOException {
+		epoch += unZigZag(readVarLong());
+		Number value;
+		if (type == FileTransport.DOUBLE_GAUGE) {
+			value = Double.longBitsToDouble(in.readLong());
+		} else if (type == FileTransport.GAUGE || type == FileTransport.COUNTER || type == FileTransport.COUNT) {
+			value = unZigZag(readVarLong());
+		} else {
+			throw new IOException("Unknown record type " + type);
+		}
+		List<Number> point = new ArrayList<Number>(2);
+		point.add(epoch);
+		point.add(value);
+		return point;
+	}
+
+	private String readString() throws IOException {
+		byte[] bytes = new byte[(int) readVarLong()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Prints the series of the given files, a line per point
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String fileName : args) {
+			RecordReader reader = new RecordReader(new File(fileName));
+			try {
+				DatadogSeries<?> series;
+				while ((series = reader.next()) != null) {
+					String type = series instanceof DatadogCounter ? ((DatadogCounter) series).getType()
+						: ((DatadogGauge) series).getType();
+					for (List<Number> point : series.getPoints()) {
+						System.out.println(String.format("%-10s %-10s %-12s %-20s %s %s", series.getHost(), type,
+							point.get(0), point.get(1), series.getMetric(), series.getTags()));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+}
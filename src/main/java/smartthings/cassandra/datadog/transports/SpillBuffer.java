@@ -0,0 +1,262 @@
+package smartthings.cassandra.datadog.transports;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded on-disk log of payloads that could not be delivered, replayed oldest first on a background thread
+ * with jittered exponential backoff.
+ * <p>
+ * Every payload is a segment file in the spill directory holding the body exactly as it would be posted. The
+ * file name carries a sequence number, to keep replay in order across restarts, and the content encoding.
+ * Segments are written under a temporary name and only picked up once committed. Once the total size exceeds
+ * the byte cap the oldest segments are deleted, as are segments older than the age cap.
+ */
+public class SpillBuffer {
+	private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+	private static final String SEGMENT_SUFFIX = ".spill";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File directory;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final Sender sender;
+	private final ScheduledExecutorService retrier;
+	private final AtomicLong sequence = new AtomicLong();
+	private final Random random = new Random();
+	private volatile int failures = 0;
+	private boolean scheduled = false;
+
+	/**
+	 * Delivers a spilled payload
+	 */
+	public interface Sender {
+		/**
+		 * @return true when the payload is done with, either delivered or rejected for good, false to retry
+		 */
+		boolean resend(File segment, HttpTransport.Compression encoding) throws IOException;
+	}
+
+	public SpillBuffer(File directory, long maxBytes, long maxAgeMillis, long initialBackoffMillis,
+					   long maxBackoffMillis, Sender sender) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Unable to create spill directory " + directory);
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.sender = sender;
+		this.retrier = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("datadog-spill-retry-%d").build());
+
+		File[] partial = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX + TEMP_SUFFIX);
+			}
+		});
+		if (partial != null) {
+			for (File file : partial) {
+				delete(file);
+			}
+		}
+		File[] existing = segments();
+		if (existing.length > 0) {
+			sequence.set(sequenceOf(existing[existing.length - 1]) + 1);
+			LOG.info("Found {} spilled payloads in {}, replaying", existing.length, directory);
+			schedule(0);
+		}
+	}
+
+	/**
+	 * Start a new segment. The caller writes the payload and then either commits or discards it.
+	 */
+	public Segment newSegment(HttpTransport.Compression encoding) throws IOException {
+		long seq = sequence.getAndIncrement();
+		String name = String.format("%019d.%s%s", seq, encoding.name().toLowerCase(), SEGMENT_SUFFIX);
+		return new Segment(new File(directory, name));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Number of payloads waiting to be replayed
+	 */
+	public int getPending() {
+		return segments().length;
+	}
+
+	public void close() {
+		retrier.shutdownNow();
+	}
+
+	private synchronized void schedule(long delayMillis) {
+		if (scheduled || retrier.isShutdown()) {
+			return;
+		}
+		scheduled = true;
+		retrier.schedule(new Runnable() {
+			@Override
+			public void run() {
+				replay();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void replay() {
+		synchronized (this) {
+			scheduled = false;
+		}
+		File[] pending = segments();
+		long now = System.currentTimeMillis();
+		for (File segment : pending) {
+			if (now - segment.lastModified() > maxAgeMillis) {
+				LOG.warn("Dropping spilled payload {}, older than the age cap", segment.getName());
+				delete(segment);
+				continue;
+			}
+			boolean done;
+			try {
+				done = sender.resend(segment, encodingOf(segment));
+			} catch (Exception e) {
+				LOG.debug("Replaying spilled payload failed", e);
+				done = false;
+			}
+			if (!done) {
+				failures++;
+				long delay = backoffMillis();
+				LOG.warn("Replaying spilled payloads failed {} times, retrying in {} ms", failures, delay);
+				schedule(delay);
+				return;
+			}
+			failures = 0;
+			delete(segment);
+		}
+	}
+
+	/**
+	 * Exponential backoff with "equal jitter": half the delay is fixed, the other half random
+	 */
+	private long backoffMillis() {
+		long ceiling = initialBackoffMillis << Math.min(failures - 1, 30);
+		if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+			ceiling = maxBackoffMillis;
+		}
+		long half = ceiling / 2;
+		return half + (long) (random.nextDouble() * (ceiling - half));
+	}
+
+	private void committed() {
+		File[] pending = segments();
+		long total = 0;
+		for (File segment : pending) {
+			total += segment.length();
+		}
+		for (int i = 0; i < pending.length && total > maxBytes; i++) {
+			LOG.warn("Spill directory over {} bytes, dropping oldest payload {}", maxBytes, pending[i].getName());
+			total -= pending[i].length();
+			delete(pending[i]);
+		}
+		schedule(failures == 0 ? 0 : backoffMillis());
+	}
+
+	private File[] segments() {
+		File[] segments = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (segments == null) {
+			return new File[0];
+		}
+		// zero padded sequence numbers sort lexicographically
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private static long sequenceOf(File segment) {
+		String name = segment.getName();
+		return Long.parseLong(name.substring(0, name.indexOf('.')));
+	}
+
+	private static HttpTransport.Compression encodingOf(File segment) {
+		String[] parts = segment.getName().split("\\.");
+		return HttpTransport.Compression.valueOf(parts[1].toUpperCase());
+	}
+
+	private static void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			LOG.warn("Unable to delete {}", file);
+		}
+	}
+
+	/**
+	 * A payload being written to the spill directory
+	 */
+	public class Segment {
+		private final File file;
+		private final File temp;
+		private final OutputStream out;
+		private boolean open = true;
+
+		Segment(File file) throws IOException {
+			this.file = file;
+			this.temp = new File(file.getPath() + TEMP_SUFFIX);
+			this.out = new BufferedOutputStream(new FileOutputStream(temp));
+		}
+
+		public OutputStream getOutput() {
+			return out;
+		}
+
+		/**
+		 * Make the payload available for replay
+		 */
+		public void commit() throws IOException {
+			close();
+			if (!temp.renameTo(file)) {
+				delete(temp);
+				throw new IOException("Unable to commit spill segment " + file);
+			}
+			LOG.info("Spilled undelivered payload of {} bytes to {}", file.length(), file);
+			committed();
+		}
+
+		public void discard() {
+			try {
+				close();
+			} catch (IOException e) {
+				LOG.debug("Error closing spill segment", e);
+			}
+			delete(temp);
+		}
+
+		private void close() throws IOException {
+			if (open) {
+				open = false;
+				out.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package smartthings.cassandra.datadog
+
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricsRegistry
+import spock.lang.Specification
+
+class CachingMetricNameFormatterSpec extends Specification {
+	MetricNameFormatter delegate = Spy(PrefixReplacingFormatter, constructorArgs: ['org.apache.cassandra.metrics', 'cassandra'])
+	MetricName name = new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'ReadLatency', 'ks1.table1')
+
+	def 'formats each metric and expansion once'() {
+		given:
+		CachingMetricNameFormatter formatter = new CachingMetricNameFormatter(delegate, 10)
+
+		when:
+		List<String> first = [formatter.format(name), formatter.format(name, 'p99'), formatter.format(name, 'max')]
+		List<String> second = [formatter.format(name), formatter.format(name, 'p99'), formatter.format(name, 'max')]
+
+		then:
+		3 * delegate.format(*_)
+		first == ['cassandra.ColumnFamily.ks1.table1.ReadLatency',
+				  'cassandra.ColumnFamily.ks1.table1.ReadLatency.p99',
+				  'cassandra.ColumnFamily.ks1.table1.ReadLatency.max']
+		second == first
+		(0..2).every { first[it].is(second[it]) }
+	}
+
+	def 'stops caching at the maximum size'() {
+		given:
+		CachingMetricNameFormatter formatter = new CachingMetricNameFormatter(delegate, 1)
+		MetricName other = new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'WriteLatency', 'ks1.table1')
+
+		when:
+		formatter.format(name)
+		2.times { formatter.format(other) }
+
+		then:
+		formatter.size() == 1
+		3 * delegate.format(*_)
+	}
+
+	def 'evicts names of metrics removed from the registry'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		CachingMetricNameFormatter formatter = new CachingMetricNameFormatter(delegate, 10)
+		registry.addListener(formatter)
+		registry.newCounter(name)
+		formatter.format(name, 'count')
+
+		when:
+		registry.removeMetric(name)
+
+		then:
+		formatter.size() == 0
+	}
+}
@@ -0,0 +1,140 @@
+package smartthings.cassandra.datadog
+
+import com.yammer.metrics.core.Counter
+import com.yammer.metrics.core.Gauge
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricsRegistry
+import smartthings.cassandra.datadog.DatadogReporter.Expansions
+import smartthings.cassandra.datadog.transports.BufferedRequest
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class CardinalityLimiterSpec extends Specification {
+	static final String GROUP = 'org.apache.cassandra.metrics'
+
+	MetricsRegistry registry = new MetricsRegistry()
+	List<BufferedRequest> requests = []
+
+	def setup() {
+		(0..<30).each { int table ->
+			String scope = String.format('ks.t%02d', table)
+			registry.newCounter(new MetricName(GROUP, 'ColumnFamily', 'WriteCount', scope)).inc(table < 25 ? 1 : 1000)
+			registry.newGauge(new MetricName(GROUP, 'ColumnFamily', 'LiveDiskSpaceUsed', scope), new Gauge<Long>() {
+				Long value() { 10L }
+			})
+			registry.newTimer(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', scope), TimeUnit.MILLISECONDS,
+				TimeUnit.SECONDS).update(table, TimeUnit.MILLISECONDS)
+		}
+		registry.newCounter(new MetricName(GROUP, 'Storage', 'Load')).inc(5)
+	}
+
+	def 'keeps the most active tables and rolls the others up into other'() {
+		given:
+		CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+			.withRule(GROUP, 'ColumnFamily', 5)
+			.build()
+		DatadogReporter reporter = reporter(limiter)
+
+		when:
+		2.times { reporter.run() }
+		Map<String, Number> series = requests[1].series.collectEntries { [(it.metric): it.value] }
+
+		then:
+		limiter.getKeptScopes(0) == ['ks.t25', 'ks.t26', 'ks.t27', 'ks.t28', 'ks.t29'] as Set
+		series.keySet().count { it.contains('.ks.t') } == 5 * 3
+		series["${GROUP}.ColumnFamily.other.WriteCount".toString()] == 25L
+		series["${GROUP}.ColumnFamily.other.LiveDiskSpaceUsed".toString()] == 10L
+		series["${GROUP}.ColumnFamily.other.ReadLatency.count".toString()] == 25L
+		series["${GROUP}.Storage.Load".toString()] == 5L
+		reporter.suppressedSeries == 2 * 25 * 3
+	}
+
+	def 'keeps the first tables seen until the first ranking'() {
+		given:
+		CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+			.withRule(GROUP, 'ColumnFamily', 5)
+			.build()
+
+		when:
+		reporter(limiter).run()
+
+		then:
+		requests[0].series*.metric.findAll { it.contains('.ks.t') }.collect { it.split('\\.')[6] }.unique() ==
+			['t00', 't01', 't02', 't03', 't04']
+		requests[0].series.find { it.metric == "${GROUP}.ColumnFamily.other.WriteCount".toString() }.value == 5020L
+	}
+
+	def 'follows tables becoming active'() {
+		given:
+		CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+			.withRule(GROUP, 'ColumnFamily', 5)
+			.withHalfLife(1)
+			.build()
+		DatadogReporter reporter = reporter(limiter)
+		Counter writes = registry.newCounter(new MetricName(GROUP, 'ColumnFamily', 'WriteCount', 'ks.t00'))
+
+		when:
+		2.times { reporter.run() }
+		writes.inc(100000)
+		reporter.run()
+
+		then:
+		limiter.getKeptScopes(0).contains('ks.t00')
+		limiter.getKeptScopes(0).size() == 5
+	}
+
+	def 'does not roll anything up with fewer tables than the maximum'() {
+		given:
+		CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+			.withRule(GROUP, 'ColumnFamily', 50)
+			.build()
+		DatadogReporter reporter = reporter(limiter)
+
+		when:
+		2.times { reporter.run() }
+
+		then:
+		reporter.suppressedSeries == 0
+		!requests.any { request -> request.series.any { it.metric.contains('.other.') } }
+	}
+
+	def 'caches rules until the metric is removed from the registry'() {
+		given:
+		CardinalityLimiter limiter = new CardinalityLimiter.Builder()
+			.withRule(GROUP, 'ColumnFamily', 1)
+			.build()
+		registry.addListener(limiter)
+		MetricName name = new MetricName(GROUP, 'ColumnFamily', 'WriteCount', 'ks.t00')
+
+		when:
+		limiter.select(name, registry.allMetrics()[name], 1L)
+
+		then:
+		limiter.cache.size() == 1
+
+		when:
+		registry.removeMetric(name)
+
+		then:
+		limiter.cache.isEmpty()
+	}
+
+	private DatadogReporter reporter(CardinalityLimiter limiter) {
+		new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(new Transport() {
+				Transport.Request prepare() {
+					BufferedRequest request = new BufferedRequest()
+					requests << request
+					request
+				}
+
+				void close() {}
+			})
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(Expansions.COUNT))
+			.withCardinalityLimiter(limiter)
+			.build()
+	}
+}
@@ -0,0 +1,67 @@
+package smartthings.cassandra.datadog
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class ChangeFilterSpec extends Specification {
+	ChangeFilter filter = new ChangeFilter(5, TimeUnit.MINUTES)
+
+	def 'skips unchanged series until the heartbeat is due'() {
+		expect:
+		filter.shouldSend('a', 1L, 1000)
+		!filter.shouldSend('a', 1L, 1060)
+		filter.shouldSend('a', 2L, 1120)
+		!filter.shouldSend('a', 2L, 1180)
+		!filter.shouldSend('a', 2L, 1419)
+		filter.shouldSend('a', 2L, 1420)
+		filter.drainSent() == 3
+		filter.drainSuppressed() == 3
+	}
+
+	def 'treats longs and doubles of the same magnitude as different values'() {
+		expect:
+		filter.shouldSend('a', 1L, 1000)
+		filter.shouldSend('a', 1.0d, 1060)
+		!filter.shouldSend('a', 1.0d, 1120)
+		filter.shouldSend('a', Double.NaN, 1180)
+		!filter.shouldSend('a', Double.NaN, 1240)
+	}
+
+	def 'forgets series that are no longer reported'() {
+		given:
+		filter.shouldSend('a', 1L, 1000)
+		filter.shouldSend('b', 1L, 1000)
+
+		when:
+		filter.shouldSend('b', 1L, 1600)
+		filter.endPoll(1600)
+
+		then:
+		filter.size() == 1
+		filter.shouldSend('a', 1L, 1660)
+	}
+
+	def 'sends the series of a failed request again'() {
+		given:
+		filter.shouldSend('a', 1L, 1000)
+		filter.commit()
+
+		when:
+		filter.shouldSend('a', 2L, 1060)
+		filter.shouldSend('b', 1L, 1060)
+		filter.rollback()
+
+		then:
+		filter.shouldSend('a', 2L, 1120)
+		filter.shouldSend('b', 1L, 1120)
+
+		when:
+		filter.commit()
+
+		then:
+		!filter.shouldSend('a', 2L, 1180)
+		!filter.shouldSend('b', 1L, 1180)
+		filter.shouldSend('a', 1L, 1240)
+	}
+}
@@ -0,0 +1,120 @@
+package smartthings.cassandra.datadog
+
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricsRegistry
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CompiledMetricPredicateSpec extends Specification {
+	static final String GROUP = 'org.apache.cassandra.metrics'
+
+	CompiledMetricPredicate predicate = new CompiledMetricPredicate.Builder()
+		.includePrefix("${GROUP}.ClientRequest.")
+		.includeGlob("${GROUP}.ColumnFamily.*Latency")
+		.includeGlob("${GROUP}.Storage.Load")
+		.includeRegex('.*\\.Cache\\.KeyCache\\.(Hits|Requests)')
+		.excludeGlob("${GROUP}.ColumnFamily.system*")
+		.excludePrefix("${GROUP}.ClientRequest.CASRead")
+		.build()
+
+	@Unroll
+	def '#type #scope #name is #description'() {
+		expect:
+		predicate.matches(new MetricName(GROUP, type, name, scope), null) == included
+
+		where:
+		type            | scope          | name               | included
+		'ClientRequest' | 'Read'         | 'Latency'          | true
+		'ClientRequest' | 'CASRead'      | 'Latency'          | false
+		'ColumnFamily'  | 'ks1.t1'       | 'ReadLatency'      | true
+		'ColumnFamily'  | 'ks1.t1'       | 'LiveSSTableCount' | false
+		'ColumnFamily'  | 'system.local' | 'ReadLatency'      | false
+		'Storage'       | null           | 'Load'             | true
+		'Storage'       | null           | 'Exceptions'       | false
+		'Cache'         | 'KeyCache'     | 'Hits'             | true
+		'Cache'         | 'RowCache'     | 'Hits'             | false
+
+		description = included ? 'included' : 'excluded'
+	}
+
+	def 'includes everything not excluded without includes'() {
+		given:
+		CompiledMetricPredicate excludesOnly = new CompiledMetricPredicate.Builder().excludePrefix("${GROUP}.Cache").build()
+
+		expect:
+		excludesOnly.matches(new MetricName(GROUP, 'Storage', 'Load'), null)
+		!excludesOnly.matches(new MetricName(GROUP, 'Cache', 'Hits', 'KeyCache'), null)
+	}
+
+	def 'prefix trie matches any of its prefixes'() {
+		given:
+		CompiledMetricPredicate.PrefixTrie trie = new CompiledMetricPredicate.PrefixTrie()
+		['abc', 'abd', 'b'].each { trie.add(it) }
+
+		expect:
+		trie.matchesPrefixOf('abc')
+		trie.matchesPrefixOf('abdef')
+		trie.matchesPrefixOf('bcd')
+		!trie.matchesPrefixOf('ab')
+		!trie.matchesPrefixOf('ac')
+		!trie.matchesPrefixOf('')
+	}
+
+	def 'caches results until the metric is removed from the registry'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.addListener(predicate)
+		MetricName name = new MetricName(GROUP, 'ClientRequest', 'Latency', 'Read')
+		registry.newCounter(name)
+
+		when:
+		predicate.matches(name, null)
+
+		then:
+		predicate.cache.size() == 1
+
+		when:
+		registry.removeMetric(name)
+
+		then:
+		predicate.cache.isEmpty()
+	}
+
+	def 'loads include and exclude lists from yaml'() {
+		given:
+		String yaml = '''
+include:
+  prefixes: [org.apache.cassandra.metrics.ClientRequest.]
+  globs: ["org.apache.cassandra.metrics.ColumnFamily.*.ReadLatency"]
+exclude:
+  regexes: [".*\\\\.system(_\\\\w+)?\\\\..*"]
+'''
+
+		when:
+		CompiledMetricPredicate loaded = CompiledMetricPredicate.fromYaml(new ByteArrayInputStream(yaml.getBytes('UTF-8')))
+
+		then:
+		loaded.matches(new MetricName(GROUP, 'ClientRequest', 'Latency', 'Read'), null)
+		loaded.matches(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1'), null)
+		!loaded.matches(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'system_auth.roles'), null)
+		!loaded.matches(new MetricName(GROUP, 'ColumnFamily', 'WriteLatency', 'ks1.t1'), null)
+	}
+
+	def 'tells how the patterns were split between the matching strategies'() {
+		when:
+		CompiledMetricPredicate predicate = new CompiledMetricPredicate.Builder()
+			.includeGlob("${GROUP}.Storage.Load")
+			.includeGlob("${GROUP}.ClientRequest.*")
+			.includePrefix("${GROUP}.Cache.")
+			.includeGlob("${GROUP}.ColumnFamily.*.ReadLatency")
+			.includeGlob("${GROUP}.ColumnFamily.*.table?.*")
+			.includeRegex('.*\\.ks1\\..*')
+			.excludePrefix("${GROUP}.ColumnFamily.system.")
+			.build()
+
+		then:
+		predicate.toString() == 'CompiledMetricPredicate{' +
+			'includes=[1 exact, 2 prefixes, 1 prefix and suffix, 2 alternated], ' +
+			'excludes=[0 exact, 1 prefixes, 0 prefix and suffix, 0 alternated]}'
+	}
+}
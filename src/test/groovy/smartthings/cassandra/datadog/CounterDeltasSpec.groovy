@@ -0,0 +1,51 @@
+package smartthings.cassandra.datadog
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class CounterDeltasSpec extends Specification {
+	CounterDeltas deltas = new CounterDeltas(16, 10, TimeUnit.MINUTES)
+
+	def 'returns the count since the last call, nothing the first time'() {
+		expect:
+		deltas.delta('a.count', 10, 0) == CounterDeltas.NO_DELTA
+		deltas.delta('b.count', 7, 0) == CounterDeltas.NO_DELTA
+		deltas.delta('a.count', 15, 60) == 5
+		deltas.delta('a.count', 15, 120) == 0
+		deltas.delta('b.count', 9, 120) == 2
+	}
+
+	def 'takes a count lower than the last one as a reset'() {
+		given:
+		deltas.delta('a.count', 1000, 0)
+
+		expect:
+		deltas.delta('a.count', 3, 60) == 3
+		deltas.delta('a.count', 5, 120) == 2
+	}
+
+	def 'grows past the expected number of series'() {
+		when:
+		(0..<5000).each { deltas.delta("series${it}", it, 0) }
+
+		then:
+		deltas.size() == 5000
+		(0..<5000).every { deltas.delta("series${it}", it * 2, 60) == it }
+	}
+
+	def 'forgets series not seen for the expiry time'() {
+		given:
+		deltas.delta('idle', 1, 0)
+		deltas.delta('busy', 1, 0)
+
+		when:
+		deltas.delta('busy', 2, 600)
+		deltas.endPoll(600)
+
+		then:
+		deltas.size() == 1
+		deltas.delta('idle', 5, 660) == CounterDeltas.NO_DELTA
+		deltas.delta('busy', 4, 660) == 2
+	}
+}
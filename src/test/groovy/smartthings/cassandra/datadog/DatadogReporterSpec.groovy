@@ -1,11 +1,30 @@
 package smartthings.cassandra.datadog
 
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
 import com.yammer.metrics.Metrics
 import com.yammer.metrics.core.Clock
+import com.yammer.metrics.core.Counter
+import com.yammer.metrics.core.Gauge
+import com.yammer.metrics.core.Histogram
+import com.yammer.metrics.core.Meter
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricProcessor
 import com.yammer.metrics.core.MetricPredicate
 import com.yammer.metrics.core.MetricsRegistry
+import com.yammer.metrics.stats.Snapshot
+import org.codehaus.jackson.map.ObjectMapper
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogDistribution
+import smartthings.cassandra.datadog.model.DatadogGauge
+import smartthings.cassandra.datadog.model.QuantileSketch
+import smartthings.cassandra.datadog.transports.BufferedRequest
 import smartthings.cassandra.datadog.transports.HttpTransport
 import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.TimeUnit
 
 class DatadogReporterSpec extends Specification {
 	def "test things are setup properly"() {
@@ -36,4 +55,434 @@ class DatadogReporterSpec extends Specification {
 		reporter.host == 'test1'
 		!reporter.printVmMetrics
 	}
+
+	def "reports metrics of the reporter itself"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.newCounter(DatadogReporterSpec, 'requests').inc(3)
+		registry.newGauge(DatadogReporterSpec, 'state', new Gauge<String>() {
+			String value() { 'up' }
+		})
+		List<BufferedRequest> requests = []
+		Transport transport = new Transport() {
+			Transport.Request prepare() {
+				BufferedRequest request = new BufferedRequest()
+				requests << request
+				request
+			}
+
+			void close() {}
+		}
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(transport)
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.COUNT, DatadogReporter.Expansions.MAX))
+			.withReporterMetrics('datadog.reporter')
+			.build()
+
+		when:
+		reporter.run()
+		reporter.run()
+		Map<String, Number> second = requests[1].series.collectEntries { [(it.metric): it.value] }
+
+		then:
+		second['smartthings.cassandra.datadog.DatadogReporterSpec.requests'] == 3
+		second['datadog.reporter.poll.count'] == 1
+		second['datadog.reporter.series.max'] == 1
+		second['datadog.reporter.skipped_gauges'] == 2
+		second['datadog.reporter.metric_errors'] == 0
+
+		cleanup:
+		reporter.shutdown()
+	}
+
+	def "collects metrics in parallel in the same order as sequentially"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		500.times { int i ->
+			registry.newCounter(new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'WriteCount', "ks${i % 7}.t${i}")).inc(i)
+			Histogram histogram = registry.newHistogram(new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'SSTablesPerRead', "ks${i % 7}.t${i}"), true)
+			(1..20).each { histogram.update(it * i) }
+		}
+		List<BufferedRequest> requests = []
+		Transport transport = new Transport() {
+			Transport.Request prepare() {
+				BufferedRequest request = new BufferedRequest()
+				requests << request
+				request
+			}
+
+			void close() {}
+		}
+		Closure<DatadogReporter> reporter = { int threads ->
+			new DatadogReporter.Builder()
+				.withMetricsRegistry(registry)
+				.withTransport(transport)
+				.withVmMetricsEnabled(false)
+				.withClock(Mock(Clock) { time() >> 1400000000000L })
+				.withParallelCollection(threads)
+				.build()
+		}
+		DatadogReporter sequential = reporter(0)
+		DatadogReporter parallel = reporter(3)
+
+		when:
+		sequential.run()
+		parallel.run()
+
+		then:
+		requests[0].size() == 500 * 11
+		requests[1].series*.metric == requests[0].series*.metric
+		requests[1].series*.tags == requests[0].series*.tags
+		requests[1].series*.value == requests[0].series*.value
+
+		cleanup:
+		sequential.shutdown()
+		parallel.shutdown()
+	}
+
+	def "reports percentiles from a single snapshot"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Histogram histogram = registry.newHistogram(DatadogReporterSpec, 'latency', false)
+		(1..1000).each { histogram.update(it) }
+		Snapshot snapshot = histogram.snapshot
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.build()
+
+		when:
+		reporter.run()
+		Map<String, Number> series = requests[0].series.collectEntries { [(it.metric): it.value] }
+
+		then:
+		series['smartthings.cassandra.datadog.DatadogReporterSpec.latency.median'] == snapshot.median
+		series['smartthings.cassandra.datadog.DatadogReporterSpec.latency.p75'] == snapshot.get75thPercentile()
+		series['smartthings.cassandra.datadog.DatadogReporterSpec.latency.p99'] == snapshot.get99thPercentile()
+		series['smartthings.cassandra.datadog.DatadogReporterSpec.latency.p999'] == snapshot.get999thPercentile()
+		series['smartthings.cassandra.datadog.DatadogReporterSpec.latency.max'] == 1000
+	}
+
+	def "sends histograms as distributions in place of percentiles"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Histogram histogram = registry.newHistogram(DatadogReporterSpec, 'latency', false)
+		(1..1000).each { histogram.update(it) }
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.MAX, DatadogReporter.Expansions.P99))
+			.withDistributions(0.01, 0.1, 100)
+			.build()
+
+		when:
+		reporter.run()
+		(1..1000).each { histogram.update(it) }
+		reporter.run()
+		DatadogDistribution distribution = requests[1].distributions[0]
+		QuantileSketch sent = new QuantileSketch()
+		(0..<distribution.binCount).each { sent.add(distribution.getValue(it), distribution.getCount(it)) }
+
+		then:
+		requests[0].distributions.empty
+		requests[1].series*.metric == ['smartthings.cassandra.datadog.DatadogReporterSpec.latency.max']
+		requests[1].distributions*.metric == ['smartthings.cassandra.datadog.DatadogReporterSpec.latency']
+		distribution.valueCount == 100
+		Math.abs(sent.getValue(0.99) - 990) <= 990 * 0.0201
+	}
+
+	def "weights distributions by the updates since the last poll"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Histogram histogram = registry.newHistogram(DatadogReporterSpec, 'latency', false)
+		(1..1000).each { histogram.update(it) }
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.P99))
+			.withDistributions(0.01, 0.1, 100)
+			.build()
+
+		when:
+		reporter.run()
+		(1..300).each { histogram.update(it) }
+		reporter.run()
+		reporter.run()
+		(1..25).each { histogram.update(it) }
+		reporter.run()
+
+		then:
+		requests*.distributions*.size() == [0, 1, 0, 1]
+		requests[1].distributions[0].valueCount == 30
+		requests[3].distributions[0].valueCount in [2L, 3L]
+	}
+
+	def "sends percentiles of the sketch to requests without distributions"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Histogram histogram = registry.newHistogram(DatadogReporterSpec, 'latency', false)
+		(1..1000).each { histogram.update(it) }
+		List<DatadogGauge> gauges = []
+		Transport transport = new Transport() {
+			Transport.Request prepare() {
+				[addGauge: { DatadogGauge gauge -> gauges << gauge }, addCounter: {}, send: {}] as Transport.Request
+			}
+
+			void close() {}
+		}
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(transport)
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.P99))
+			.withDistributions(true)
+			.build()
+
+		when:
+		reporter.run()
+
+		then:
+		gauges*.metric == ['smartthings.cassandra.datadog.DatadogReporterSpec.latency.p99']
+		Math.abs(gauges[0].value - 990) <= 990 * 0.0101
+	}
+
+	def "skips the snapshot when no percentiles are enabled"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Histogram histogram = Mock()
+		registry.getOrAdd(new MetricName(DatadogReporterSpec, 'latency'), histogram)
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.MAX, DatadogReporter.Expansions.MEAN))
+			.build()
+
+		when:
+		reporter.run()
+
+		then:
+		1 * histogram.processWith(_, _, _) >> { MetricProcessor processor, MetricName name, Long epoch ->
+			processor.processHistogram(name, histogram, epoch)
+		}
+		1 * histogram.max() >> 10d
+		1 * histogram.mean() >> 5d
+		0 * histogram.getSnapshot()
+		requests[0].series*.metric == ['smartthings.cassandra.datadog.DatadogReporterSpec.latency.max',
+									   'smartthings.cassandra.datadog.DatadogReporterSpec.latency.mean']
+	}
+
+	def "sends counts since the last poll as counter deltas"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Counter counter = registry.newCounter(DatadogReporterSpec, 'requests')
+		Meter meter = registry.newMeter(DatadogReporterSpec, 'writes', 'writes', TimeUnit.SECONDS)
+		Clock clock = Mock(Clock)
+		clock.time() >>> [60000L, 120000L, 180000L]
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withClock(clock)
+			.withExpansions(EnumSet.of(DatadogReporter.Expansions.COUNT))
+			.withCounterDeltas(true)
+			.build()
+
+		when:
+		[10, 25, 5].each {
+			counter.inc(it)
+			meter.mark(it)
+			reporter.run()
+		}
+
+		then:
+		requests[0].series.empty
+		requests[1].series*.value == [25L, 25L]
+		requests[2].series*.value == [5L, 5L]
+		requests[2].series.every { DatadogCounter c -> c.type == 'count' && c.interval == 60L }
+	}
+
+	def "stamps aligned polls with the boundary and counts missed intervals"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.newCounter(DatadogReporterSpec, 'requests').inc()
+		Clock clock = Mock(Clock)
+		// scheduled at 10.5s for the 11s boundary, started 2.2s late, and still running past the next boundary
+		clock.time() >>> [10500L, 10500L, 13200L, 15100L]
+		List<BufferedRequest> requests = [].asSynchronized()
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withClock(clock)
+			.withAlignedSchedule(0, TimeUnit.SECONDS)
+			.build()
+
+		when:
+		reporter.start(1, TimeUnit.SECONDS)
+
+		then:
+		new PollingConditions(timeout: 5).eventually {
+			assert requests.size() == 1
+		}
+		requests[0].series[0].epoch == 13L
+		reporter.missedIntervals == 4
+		reporter.overruns == 1
+
+		cleanup:
+		reporter.shutdown()
+	}
+
+	def "polls the next boundary when the poll ends just as it is due"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.newCounter(DatadogReporterSpec, 'requests').inc()
+		Clock clock = Mock(Clock)
+		// scheduled at 10.5s for the 11s boundary, and done exactly when the poll of the 12s boundary is due
+		clock.time() >>> [10500L, 10500L, 11000L, 12000L]
+		List<BufferedRequest> requests = [].asSynchronized()
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withClock(clock)
+			.withAlignedSchedule(0, TimeUnit.SECONDS)
+			.build()
+
+		when:
+		reporter.start(1, TimeUnit.SECONDS)
+
+		then:
+		new PollingConditions(timeout: 5).eventually {
+			assert requests.size() >= 2
+		}
+		requests[0..1]*.series*.get(0)*.epoch == [11L, 12L]
+		reporter.overruns == 0
+
+		cleanup:
+		reporter.shutdown()
+	}
+
+	def "samples every poll and sends the points of several polls together"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Counter counter = registry.newCounter(DatadogReporterSpec, 'requests')
+		Clock clock = Mock(Clock)
+		clock.time() >>> [10000L, 20000L, 30000L, 40000L]
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(bufferingTransport(requests))
+			.withVmMetricsEnabled(false)
+			.withClock(clock)
+			.withSamplesPerFlush(3)
+			.build()
+
+		when:
+		[1, 2, 3, 4].each {
+			counter.inc(it)
+			reporter.run()
+		}
+
+		then:
+		requests.size() == 1
+		requests[0].series.size() == 1
+		requests[0].series[0].points == [[10L, 1L], [20L, 3L], [30L, 6L]]
+		requests[0].series[0].value == 6L
+	}
+
+	def "sends unchanged series again after a failed send"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.newCounter(DatadogReporterSpec, 'requests').inc(3)
+		List<BufferedRequest> requests = []
+		boolean failing = true
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(new Transport() {
+				Transport.Request prepare() {
+					BufferedRequest request = new BufferedRequest() {
+						@Override
+						void send() {
+							if (failing) {
+								throw new IOException('intake down')
+							}
+						}
+					}
+					requests << request
+					request
+				}
+
+				void close() {}
+			})
+			.withVmMetricsEnabled(false)
+			.withChangesOnly(5, TimeUnit.MINUTES)
+			.build()
+
+		when:
+		reporter.run()
+		failing = false
+		reporter.run()
+		reporter.run()
+
+		then:
+		requests*.series*.size() == [1, 1, 0]
+	}
+
+	def "sends unchanged series again after datadog failed a post"() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.newCounter(DatadogReporterSpec, 'requests').inc(3)
+		List<Integer> responses = [500, 202, 202].asSynchronized()
+		List<List> posted = [].asSynchronized()
+		HttpServer server = HttpServer.create(new InetSocketAddress('localhost', 0), 0)
+		server.createContext('/api/v1/series', new HttpHandler() {
+			void handle(HttpExchange exchange) {
+				posted << new ObjectMapper().readValue(exchange.requestBody, Map).series
+				exchange.sendResponseHeaders(responses.remove(0), -1)
+				exchange.close()
+			}
+		})
+		server.start()
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(new HttpTransport.Builder()
+				.withBaseUrl("http://localhost:${server.address.port}")
+				.withApiKey('abc')
+				.build())
+			.withVmMetricsEnabled(false)
+			.withChangesOnly(5, TimeUnit.MINUTES)
+			.build()
+
+		when:
+		3.times { reporter.run() }
+
+		then:
+		posted*.size() == [1, 1, 0]
+
+		cleanup:
+		server.stop(0)
+	}
+
+	private static Transport bufferingTransport(List<BufferedRequest> requests) {
+		new Transport() {
+			Transport.Request prepare() {
+				BufferedRequest request = new BufferedRequest()
+				requests << request
+				request
+			}
+
+			void close() {}
+		}
+	}
 }
@@ -0,0 +1,117 @@
+package smartthings.cassandra.datadog
+
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricsRegistry
+import com.yammer.metrics.core.Timer
+import smartthings.cassandra.datadog.DatadogReporter.Expansions
+import smartthings.cassandra.datadog.transports.BufferedRequest
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.TimeUnit
+
+class ExpansionPolicySpec extends Specification {
+	static final String GROUP = 'org.apache.cassandra.metrics'
+
+	ExpansionPolicy policy = new ExpansionPolicy.Builder()
+		.withDefault(EnumSet.of(Expansions.COUNT, Expansions.P99))
+		.withRule(null, 'ColumnFamily', 'system.*', null, EnumSet.noneOf(Expansions))
+		.withRule(null, 'ColumnFamily', null, '*Latency', EnumSet.of(Expansions.P99, Expansions.MAX))
+		.withRule(GROUP, 'ColumnFamily', null, null, EnumSet.of(Expansions.COUNT))
+		.build()
+
+	@Unroll
+	def 'selects #expected for #type #scope #name'() {
+		expect:
+		policy.select(new MetricName(GROUP, type, name, scope)).toString() == expected.toString()
+
+		where:
+		type            | scope        | name              | expected
+		'ColumnFamily'  | 'system.log' | 'ReadLatency'     | EnumSet.noneOf(Expansions)
+		'ColumnFamily'  | 'ks1.t1'     | 'ReadLatency'     | EnumSet.of(Expansions.P99, Expansions.MAX)
+		'ColumnFamily'  | 'ks1.t1'     | 'SSTablesPerRead' | EnumSet.of(Expansions.COUNT)
+		'ClientRequest' | 'Read'       | 'Latency'         | EnumSet.of(Expansions.COUNT, Expansions.P99)
+	}
+
+	def 'caches the selection per metric until the metric is removed'() {
+		given:
+		MetricName name = new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1')
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.addListener(policy)
+		registry.newCounter(name)
+
+		when:
+		ExpansionPolicy.Selection selection = policy.select(name)
+
+		then:
+		policy.select(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1')).is(selection)
+		policy.cache.size() == 1
+
+		when:
+		registry.removeMetric(name)
+
+		then:
+		policy.cache.size() == 0
+	}
+
+	def 'loads rules from yaml'() {
+		given:
+		String yaml = '''
+default: [count, 1MinuteRate]
+rules:
+  - type: ColumnFamily
+    name: "*Latency"
+    expansions: [P99, max]
+  - type: ColumnFamily
+    expansions: []
+'''
+
+		when:
+		ExpansionPolicy loaded = ExpansionPolicy.fromYaml(new ByteArrayInputStream(yaml.getBytes('UTF-8')))
+
+		then:
+		loaded.default == EnumSet.of(Expansions.COUNT, Expansions.RATE_1_MINUTE)
+		loaded.ruleCount == 2
+		loaded.select(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks.t')).toString() == '[max, p99]'
+		loaded.select(new MetricName(GROUP, 'ColumnFamily', 'LiveSSTableCount', 'ks.t')).toString() == '[]'
+		loaded.select(new MetricName(GROUP, 'Cache', 'Hits', 'KeyCache')).toString() == '[count, 1MinuteRate]'
+	}
+
+	def 'rejects unknown expansions'() {
+		when:
+		ExpansionPolicy.fromYaml(new ByteArrayInputStream('default: [p42]'.getBytes('UTF-8')))
+
+		then:
+		thrown(IllegalArgumentException)
+	}
+
+	def 'reporter only sends the expansions selected for each metric'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		Timer latency = registry.newTimer(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1'), TimeUnit.MILLISECONDS, TimeUnit.SECONDS)
+		latency.update(5, TimeUnit.MILLISECONDS)
+		Timer system = registry.newTimer(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'system.log'), TimeUnit.MILLISECONDS, TimeUnit.SECONDS)
+		system.update(5, TimeUnit.MILLISECONDS)
+		BufferedRequest request = new BufferedRequest()
+		DatadogReporter reporter = new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(new Transport() {
+				Transport.Request prepare() { request }
+
+				void close() {}
+			})
+			.withVmMetricsEnabled(false)
+			.withExpansionPolicy(policy)
+			.build()
+
+		when:
+		reporter.run()
+
+		then:
+		request.series*.metric == ["${GROUP}.ColumnFamily.ks1.t1.ReadLatency.max", "${GROUP}.ColumnFamily.ks1.t1.ReadLatency.p99"]*.toString()
+		reporter.expansions == EnumSet.of(Expansions.COUNT, Expansions.P99)
+
+		cleanup:
+		reporter.shutdown()
+	}
+}
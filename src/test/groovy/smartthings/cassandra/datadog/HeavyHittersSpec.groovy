@@ -0,0 +1,73 @@
+package smartthings.cassandra.datadog
+
+import spock.lang.Specification
+
+class HeavyHittersSpec extends Specification {
+
+	def 'counts the heavy keys of a long tail within their error'() {
+		given:
+		HeavyHitters hitters = new HeavyHitters(4)
+		Random random = new Random(1)
+		Map<String, Double> exact = [:]
+
+		when:
+		10000.times {
+			String key = random.nextInt(10) < 6 ? "hot${random.nextInt(2)}" : "cold${random.nextInt(1000)}"
+			hitters.add(key, 1)
+			exact[key] = (exact[key] ?: 0) + 1
+		}
+
+		then:
+		hitters.size() == 4
+		hitters.keys()[0..1].sort() == ['hot0', 'hot1']
+		['hot0', 'hot1'].every { hitters.count(it) >= exact[it] && hitters.count(it) - hitters.error(it) <= exact[it] }
+	}
+
+	def 'orders keys by count, then by key'() {
+		given:
+		HeavyHitters hitters = new HeavyHitters(8)
+
+		when:
+		hitters.add('b', 1)
+		hitters.add('a', 1)
+		hitters.add('c', 5)
+		hitters.add('d', 0)
+
+		then:
+		hitters.keys() == ['c', 'a', 'b', 'd']
+	}
+
+	def 'does not evict for keys without weight'() {
+		given:
+		HeavyHitters hitters = new HeavyHitters(2)
+		hitters.add('a', 1)
+		hitters.add('b', 2)
+
+		when:
+		hitters.add('c', 0)
+
+		then:
+		hitters.keys() == ['b', 'a']
+
+		when:
+		hitters.add('c', 3)
+
+		then:
+		hitters.keys() == ['c', 'b']
+		hitters.count('c') == 4
+		hitters.error('c') == 1
+		hitters.count('a') == 0
+	}
+
+	def 'decays all counts'() {
+		given:
+		HeavyHitters hitters = new HeavyHitters(2)
+		hitters.add('a', 8)
+
+		when:
+		hitters.decay(0.5)
+
+		then:
+		hitters.count('a') == 4
+	}
+}
@@ -0,0 +1,64 @@
+package smartthings.cassandra.datadog
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.TimeUnit
+
+class PollScheduleSpec extends Specification {
+	@Unroll
+	def 'next boundary after #now is #boundary'() {
+		given:
+		PollSchedule schedule = new PollSchedule(60, 0, TimeUnit.SECONDS, 'host1')
+
+		expect:
+		schedule.nextBoundary(now) == boundary
+
+		where:
+		now    | boundary
+		0      | 60000
+		59999  | 60000
+		60000  | 120000
+		-30000 | 0
+	}
+
+	def 'polls a boundary once its offset passed'() {
+		given:
+		PollSchedule schedule = new PollSchedule(60, 10, TimeUnit.SECONDS, 'host1')
+		long offset = schedule.offsetMillis
+
+		expect:
+		offset > 0
+		schedule.pollTime(60000) == 60000 + offset
+		schedule.nextBoundary(60000 + offset - 1) == 60000
+		schedule.nextBoundary(60000 + offset) == 120000
+	}
+
+	def 'offsets are stable per host and spread below the jitter'() {
+		when:
+		List<Long> offsets = (1..200).collect { new PollSchedule(60, 10, TimeUnit.SECONDS, "cass-${it}").offsetMillis }
+
+		then:
+		offsets.every { it >= 0 && it < 10000 }
+		offsets.toSet().size() > 150
+		new PollSchedule(60, 10, TimeUnit.SECONDS, 'cass-1').offsetMillis == offsets[0]
+		new PollSchedule(60, 0, TimeUnit.SECONDS, 'cass-1').offsetMillis == 0
+	}
+
+	def 'derives the offset from the local host name without a host'() {
+		expect:
+		new PollSchedule(60, 10, TimeUnit.SECONDS, null).offsetMillis ==
+			new PollSchedule(60, 10, TimeUnit.SECONDS, InetAddress.localHost.hostName).offsetMillis
+	}
+
+	def 'counts the boundaries passed since a poll was due'() {
+		given:
+		PollSchedule schedule = new PollSchedule(60, 0, TimeUnit.SECONDS, 'host1')
+
+		expect:
+		schedule.missedSince(60000, 60000) == 0
+		schedule.missedSince(60000, 119999) == 0
+		schedule.missedSince(60000, 120000) == 1
+		schedule.missedSince(60000, 250000) == 3
+	}
+}
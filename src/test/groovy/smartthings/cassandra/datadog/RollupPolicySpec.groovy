@@ -0,0 +1,161 @@
+package smartthings.cassandra.datadog
+
+import com.yammer.metrics.core.Gauge
+import com.yammer.metrics.core.Histogram
+import com.yammer.metrics.core.MetricName
+import com.yammer.metrics.core.MetricsRegistry
+import com.yammer.metrics.core.Timer
+import com.yammer.metrics.stats.Snapshot
+import smartthings.cassandra.datadog.DatadogReporter.Expansions
+import smartthings.cassandra.datadog.transports.BufferedRequest
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.TimeUnit
+
+class RollupPolicySpec extends Specification {
+	static final String GROUP = 'org.apache.cassandra.metrics'
+
+	RollupPolicy policy = new RollupPolicy.Builder()
+		.withRule(GROUP, 'ColumnFamily', '*Latency', RollupPolicy.Level.NODE, RollupPolicy.Aggregation.MAX, true)
+		.withRule(GROUP, 'ColumnFamily', RollupPolicy.Level.KEYSPACE)
+		.withRule(GROUP, 'Keyspace', RollupPolicy.Level.NODE)
+		.build()
+
+	@Unroll
+	def '#type #scope #name rolls up into #rolledUp'() {
+		when:
+		RollupPolicy.Target target = policy.select(new MetricName(GROUP, type, name, scope))
+
+		then:
+		target?.name == (rolledUp ? new MetricName(GROUP, type, name, rolledUp) : null)
+
+		where:
+		type            | scope    | name               | rolledUp
+		'ColumnFamily'  | 'ks1.t1' | 'ReadLatency'      | 'all'
+		'ColumnFamily'  | 'ks1.t1' | 'LiveSSTableCount' | 'ks1'
+		'ColumnFamily'  | null     | 'LiveSSTableCount' | null
+		'Keyspace'      | 'ks1'    | 'WriteLatency'     | 'all'
+		'ClientRequest' | 'Read'   | 'Latency'          | null
+	}
+
+	def 'sums counters, aggregates gauges and drops the fine grained series'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		[['ks1.t1', 3, 10], ['ks1.t2', 4, 20], ['ks2.t1', 5, 30]].each { String scope, int pending, long size ->
+			registry.newCounter(new MetricName(GROUP, 'ColumnFamily', 'PendingFlushes', scope)).inc(pending)
+			registry.newGauge(new MetricName(GROUP, 'ColumnFamily', 'LiveDiskSpaceUsed', scope), new Gauge<Long>() {
+				Long value() { size }
+			})
+		}
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = reporter(registry, new RollupPolicy.Builder()
+			.withRule(GROUP, 'ColumnFamily', 'LiveDiskSpaceUsed', RollupPolicy.Level.KEYSPACE,
+				RollupPolicy.Aggregation.SUM, false)
+			.withRule(GROUP, 'ColumnFamily', RollupPolicy.Level.KEYSPACE)
+			.build(), requests)
+
+		when:
+		reporter.run()
+
+		then:
+		requests[0].series.collectEntries { [(it.metric): it.value] } == [
+			("${GROUP}.ColumnFamily.ks1.LiveDiskSpaceUsed".toString()): 30L,
+			("${GROUP}.ColumnFamily.ks1.PendingFlushes".toString())   : 7L,
+			("${GROUP}.ColumnFamily.ks2.LiveDiskSpaceUsed".toString()): 30L,
+			("${GROUP}.ColumnFamily.ks2.PendingFlushes".toString())   : 5L
+		]
+	}
+
+	def 'merges the reservoirs of timers and keeps the originals if asked to'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		[ks1: 1..100, ks2: 101..200].each { String keyspace, IntRange latencies ->
+			Timer timer = registry.newTimer(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', "${keyspace}.t1"),
+				TimeUnit.MILLISECONDS, TimeUnit.SECONDS)
+			latencies.each { timer.update(it, TimeUnit.MILLISECONDS) }
+		}
+		List<BufferedRequest> requests = []
+		DatadogReporter reporter = reporter(registry, policy, requests)
+
+		when:
+		reporter.run()
+		Map<String, Number> series = requests[0].series.collectEntries { [(it.metric): it.value] }
+
+		then:
+		series.size() == 9
+		series["${GROUP}.ColumnFamily.ks1.t1.ReadLatency.count".toString()] == 100
+		series["${GROUP}.ColumnFamily.all.ReadLatency.count".toString()] == 200
+		series["${GROUP}.ColumnFamily.all.ReadLatency.max".toString()] == 200
+		series["${GROUP}.ColumnFamily.all.ReadLatency.median".toString()] == new Snapshot((1..200)*.doubleValue() as double[]).median
+	}
+
+	def 'weights mean and standard deviation by count'() {
+		given:
+		Rollup.SampledAggregate aggregate = new Rollup.SampledAggregate(false, true, false)
+		Histogram first = Mock(Histogram) {
+			count() >> 2
+			min() >> 1d
+			max() >> 3d
+			mean() >> 2d
+			stdDev() >> Math.sqrt(2d)
+		}
+		Histogram second = Mock(Histogram) {
+			count() >> 2
+			min() >> 5d
+			max() >> 7d
+			mean() >> 6d
+			stdDev() >> Math.sqrt(2d)
+		}
+
+		when:
+		aggregate.add(first)
+		aggregate.add(second)
+
+		then: 'the same as for the samples 1, 3, 5 and 7'
+		aggregate.count() == 4
+		aggregate.min() == 1d
+		aggregate.max() == 7d
+		aggregate.mean() == 4d
+		Math.abs(aggregate.stdDev() - Math.sqrt(20d / 3)) < 1e-9
+	}
+
+	def 'caches targets until the metric is removed from the registry'() {
+		given:
+		MetricsRegistry registry = new MetricsRegistry()
+		registry.addListener(policy)
+		MetricName name = new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1')
+		registry.newCounter(name)
+
+		when:
+		RollupPolicy.Target target = policy.select(name)
+
+		then:
+		policy.select(new MetricName(GROUP, 'ColumnFamily', 'ReadLatency', 'ks1.t1')).is(target)
+
+		when:
+		registry.removeMetric(name)
+
+		then:
+		policy.cache.isEmpty()
+	}
+
+	private static DatadogReporter reporter(MetricsRegistry registry, RollupPolicy policy,
+											List<BufferedRequest> requests) {
+		new DatadogReporter.Builder()
+			.withMetricsRegistry(registry)
+			.withTransport(new Transport() {
+				Transport.Request prepare() {
+					BufferedRequest request = new BufferedRequest()
+					requests << request
+					request
+				}
+
+				void close() {}
+			})
+			.withVmMetricsEnabled(false)
+			.withExpansions(EnumSet.of(Expansions.COUNT, Expansions.MAX, Expansions.MEDIAN))
+			.withRollupPolicy(policy)
+			.build()
+	}
+}
@@ -0,0 +1,102 @@
+package smartthings.cassandra.datadog
+
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.SeriesBatch
+import smartthings.cassandra.datadog.model.SeriesName
+import smartthings.cassandra.datadog.model.SeriesNames
+import smartthings.cassandra.datadog.transports.BufferedRequest
+import spock.lang.Specification
+
+class SampleBufferSpec extends Specification {
+	SeriesNames names = new SeriesNames(['env:test'])
+	SeriesName latency = names.get('read.latency[ks:1]')
+	SeriesName requests = names.get('read.requests')
+
+	def 'sends the points of each series oldest first, keeping the latest once the ring is full'() {
+		given:
+		SampleBuffer buffer = new SampleBuffer(3, 1)
+		SeriesBatch sample = new SeriesBatch('host1')
+		BufferedRequest request = new BufferedRequest()
+
+		when:
+		(1..4).each { long epoch ->
+			sample.clear()
+			sample.addGauge(latency, epoch, epoch * 1.5d)
+			sample.addCounter(requests, epoch, epoch * 10, 10L)
+			buffer.record(sample)
+		}
+		buffer.drainTo(new SeriesBatch('host1'), request)
+
+		then:
+		request.series*.metric == ['read.latency', 'read.requests']
+		request.series[0].points == [[2L, 3.0d], [3L, 4.5d], [4L, 6.0d]]
+		request.series[0].tags == ['ks:1', 'env:test']
+		request.series[1].points == [[2L, 20L], [3L, 30L], [4L, 40L]]
+		((DatadogCounter) request.series[1]).interval == 10L
+	}
+
+	def 'forgets series without points since the last flush'() {
+		given:
+		SampleBuffer buffer = new SampleBuffer(2, 16)
+		SeriesBatch sample = new SeriesBatch('host1')
+		sample.addGauge(latency, 1L, 1L)
+		sample.addGauge(requests, 1L, 1L)
+		buffer.record(sample)
+		buffer.drainTo(new SeriesBatch('host1'), new BufferedRequest())
+		BufferedRequest request = new BufferedRequest()
+
+		when:
+		sample.clear()
+		sample.addGauge(requests, 2L, 2L)
+		buffer.record(sample)
+		buffer.drainTo(new SeriesBatch('host1'), request)
+
+		then:
+		request.series*.metric == ['read.requests']
+		buffer.size() == 1
+	}
+
+	def 'keeps one ring for a name parsed again every poll'() {
+		given:
+		SeriesNames uncached = new SeriesNames(['env:test'], 0)
+		SampleBuffer buffer = new SampleBuffer(3, 16)
+		SeriesBatch sample = new SeriesBatch('host1')
+		BufferedRequest request = new BufferedRequest()
+
+		when:
+		(1..3).each { long epoch ->
+			sample.clear()
+			sample.addGauge(uncached.get('read.latency[ks:1]'), epoch, epoch)
+			buffer.record(sample)
+		}
+		buffer.drainTo(new SeriesBatch('host1'), request)
+
+		then:
+		buffer.size() == 1
+		request.series.size() == 1
+		request.series[0].points == [[1L, 1L], [2L, 2L], [3L, 3L]]
+	}
+
+	def 'splits the batch between series and grows with the number of series'() {
+		given:
+		SampleBuffer buffer = new SampleBuffer(2, 1)
+		SeriesBatch sample = new SeriesBatch('host1')
+		List<Integer> batches = []
+		Transport.BatchRequest request = Mock(Transport.BatchRequest) {
+			addBatch(_) >> { SeriesBatch batch -> batches << batch.size() }
+		}
+
+		when:
+		2.times { int epoch ->
+			sample.clear()
+			(1..100).each { sample.addGauge(names.get("series${it}"), epoch, it) }
+			buffer.record(sample)
+		}
+		buffer.drainTo(new SeriesBatch('host1', 5, false), request)
+
+		then:
+		buffer.size() == 100
+		batches.sum() == 200
+		batches.every { it == 4 }
+	}
+}
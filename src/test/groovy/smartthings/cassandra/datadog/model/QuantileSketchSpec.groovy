@@ -0,0 +1,97 @@
+package smartthings.cassandra.datadog.model
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class QuantileSketchSpec extends Specification {
+	Random random = new Random(42)
+	List<Double> values = (1..100000).collect { Math.exp(random.nextGaussian() * 2 + 5) }
+	List<Double> sorted = values.sort(false)
+
+	@Unroll
+	def 'keeps the p#percent within the relative accuracy'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		values.each { sketch.add(it) }
+		double exact = sorted[(int) (quantile * (sorted.size() - 1))]
+
+		expect:
+		Math.abs(sketch.getValue(quantile) - exact) <= exact * QuantileSketch.DEFAULT_RELATIVE_ACCURACY * 1.0001
+
+		where:
+		quantile << [0d, 0.5d, 0.95d, 0.99d, 0.999d, 1d]
+		percent = quantile * 100
+	}
+
+	def 'merges into the same sketch as one of all values'() {
+		given:
+		QuantileSketch all = new QuantileSketch()
+		QuantileSketch odd = new QuantileSketch()
+		QuantileSketch even = new QuantileSketch()
+		values.eachWithIndex { double value, int i ->
+			all.add(value)
+			(i % 2 ? odd : even).add(value)
+		}
+
+		when:
+		odd.merge(even)
+
+		then:
+		odd.count == all.count
+		[0.5d, 0.9d, 0.99d].every { odd.getValue(it) == all.getValue(it) }
+	}
+
+	def 'takes negative values and zeros'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		[-10d, -1d, 0d, 0d, 1d, 10d, 100d].each { sketch.add(it) }
+
+		expect:
+		sketch.getValue(0) == -10d
+		sketch.getValue(0.5) == 0d
+		sketch.getValue(1) == 100d
+		Math.abs(sketch.getValue(1d / 6) + 1) <= 0.01
+	}
+
+	def 'collapses the lowest bins past the maximum'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch(0.01, 100)
+		(0..<10000).each { sketch.add(Math.pow(1.05, it % 500)) }
+		double p99 = Math.pow(1.05, 494)
+
+		expect:
+		sketch.binCount <= 100
+		Math.abs(sketch.getValue(0.99) - p99) <= p99 * 0.0201
+	}
+
+	def 'scales the bins down to at most the given count'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		values.each { sketch.add(it) }
+		double[] binValues = new double[sketch.binCount]
+		long[] counts = new long[sketch.binCount]
+
+		when:
+		int bins = sketch.getBins(1000, binValues, counts)
+
+		then:
+		counts[0..<bins].sum() == 1000
+		(1..<bins).every { binValues[it - 1] < binValues[it] }
+		sketch.getBins(Long.MAX_VALUE, binValues, counts) == sketch.binCount
+		counts.sum() == values.size()
+	}
+
+	def 'scales the bins up or down to the given total'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		values[0..<100].each { sketch.add(it) }
+		double[] binValues = new double[sketch.binCount]
+		long[] counts = new long[sketch.binCount]
+
+		expect:
+		counts[0..<sketch.getScaledBins(total, binValues, counts)].sum() == total
+
+		where:
+		total << [30, 100, 250]
+	}
+}
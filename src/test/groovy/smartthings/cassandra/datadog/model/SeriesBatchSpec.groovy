@@ -0,0 +1,130 @@
+package smartthings.cassandra.datadog.model
+
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.transports.BufferedRequest
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.atomic.AtomicLong
+
+class SeriesBatchSpec extends Specification {
+	SeriesNames seriesNames = new SeriesNames(['env:test'])
+
+	@Unroll
+	def 'keeps rows in columns and grows #heap'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1', 2, offHeap)
+
+		when:
+		batch.addGauge(seriesNames.get('a[ks:1]'), 10L, 5L)
+		batch.addGauge(seriesNames.get('b[ks:1]'), 10L, 2.5d)
+		batch.addCounter(seriesNames.get('c'), 10L, 7L, null)
+		batch.addCounter(seriesNames.get('d'), 10L, 3L, 60L)
+
+		then:
+		batch.size() == 4
+		batch.capacity == 4
+		(0..3).collect { batch.getMetric(it) } == ['a', 'b', 'c', 'd']
+		(0..3).collect { batch.getValue(it) } == [5L, 2.5d, 7L, 3L]
+		(0..3).collect { batch.getType(it) } == ['gauge', 'gauge', 'counter', 'count']
+		(0..3).collect { batch.getEpoch(it) } == [10L] * 4
+		batch.getInterval(3) == 60L
+		batch.isDouble(1)
+		!batch.isDouble(0)
+
+		where:
+		offHeap << [false, true]
+		heap = offHeap ? 'off heap' : 'on heap'
+	}
+
+	def 'interns names and tag sets across clears'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1')
+		SeriesName p99 = seriesNames.get('latency.p99[ks:1]')
+		SeriesName max = seriesNames.get('latency.max[ks:1]')
+
+		when:
+		batch.addGauge(p99, 1L, 1L)
+		batch.addGauge(max, 1L, 2L)
+		batch.addGauge(seriesNames.get('jvm.thread_count'), 1L, 3L)
+		batch.clear()
+		batch.addGauge(max, 2L, 2L)
+
+		then:
+		batch.size() == 1
+		batch.getNameId(0) == 1
+		batch.nameCount == 3
+		batch.tagSetCount == 2
+		batch.getTagSet(batch.getTagSetId(0)).is(p99.tags)
+	}
+
+	@Unroll
+	def 'keeps #value of type #value.class.simpleName as #kept'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1')
+
+		when:
+		batch.addGauge(seriesNames.get('a'), 1L, value)
+
+		then:
+		batch.getValue(0) == kept
+		batch.getValue(0).class == kept.class
+
+		where:
+		value                  | kept
+		7                      | 7L
+		new AtomicLong(8)      | 8L
+		new BigDecimal('2.25') | 2.25d
+		new BigInteger('12')   | 12L
+	}
+
+	def 'replays rows as series to requests that do not take batches'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1')
+		batch.addGauge(seriesNames.get('a[ks:1]'), 1L, 2.5d)
+		batch.addCounter(seriesNames.get('b'), 1L, 3L, 60L)
+		BufferedRequest request = new BufferedRequest()
+
+		when:
+		batch.replayTo(request)
+
+		then:
+		request.series*.metric == ['a', 'b']
+		request.series*.tags == [['ks:1', 'env:test'], ['env:test']]
+		request.series*.value == [2.5d, 3L]
+		request.series*.host == ['host1', 'host1']
+		request.series[1].interval == 60L
+	}
+
+	def 'hands itself to requests that take batches'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1')
+		batch.addGauge(seriesNames.get('a'), 1L, 1L)
+		Transport.BatchRequest request = Mock(Transport.BatchRequest)
+
+		when:
+		batch.replayTo(request)
+
+		then:
+		1 * request.addBatch(batch)
+		0 * request.addGauge(_)
+	}
+
+	def 'takes series objects with all of their points'() {
+		given:
+		SeriesBatch batch = new SeriesBatch('host1')
+		SeriesName name = seriesNames.get('a')
+
+		when:
+		batch.add(new DatadogGauge(name, [[1L, 2L], [2L, 2.5d]] as List<List<Number>>, 'host2'))
+		batch.add(new DatadogCounter(seriesNames.get('b'), 3L, 1L, 'host2', 60L))
+
+		then:
+		batch.size() == 3
+		batch.getName(0).is(name)
+		batch.getPointCount(0) == 2
+		batch.getValue(1) == 2.5d
+		batch.isCounter(2)
+		batch.getInterval(2) == 60L
+	}
+}
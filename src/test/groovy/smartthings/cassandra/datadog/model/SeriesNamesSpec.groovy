@@ -0,0 +1,71 @@
+package smartthings.cassandra.datadog.model
+
+import com.yammer.metrics.core.MetricName
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class SeriesNamesSpec extends Specification {
+	SeriesNames seriesNames = new SeriesNames(['env:test', 'dc:east'])
+
+	@Unroll
+	def 'parses #name like a series built from the plain name'() {
+		when:
+		SeriesName parsed = seriesNames.get(name)
+		DatadogGauge series = new DatadogGauge(name, 1, 1L, 'host', ['env:test', 'dc:east'])
+
+		then:
+		parsed.metric == metric
+		parsed.tags == tags
+		series.metric == metric
+		series.tags == tags
+
+		where:
+		name                                        | metric                 | tags
+		'cassandra.ReadLatency'                     | 'cassandra.ReadLatency' | ['env:test', 'dc:east']
+		'cassandra.ReadLatency.p99[keyspace:ks1]'   | 'cassandra.ReadLatency.p99' | ['keyspace:ks1', 'env:test', 'dc:east']
+		'jvm.gc.time[type:PS Scavenge,kind:young]'  | 'jvm.gc.time'          | ['type:PS Scavenge', 'kind:young', 'env:test', 'dc:east']
+	}
+
+	def 'parses each name once and shares tag lists between names'() {
+		when:
+		SeriesName p99 = seriesNames.get('cassandra.ReadLatency.p99[keyspace:ks1]')
+		SeriesName max = seriesNames.get('cassandra.ReadLatency.max[keyspace:ks1]')
+
+		then:
+		seriesNames.get('cassandra.ReadLatency.p99[keyspace:ks1]').is(p99)
+		p99.tags.is(max.tags)
+		seriesNames.get('cassandra.ReadLatency').tags.is(seriesNames.globalTags)
+		seriesNames.size() == 3
+	}
+
+	def 'stops caching at the maximum size'() {
+		given:
+		SeriesNames bounded = new SeriesNames([], 1)
+
+		when:
+		bounded.get('a[x:1]')
+		SeriesName b = bounded.get('b[x:2]')
+
+		then:
+		bounded.size() == 1
+		b.metric == 'b'
+		!bounded.get('b[x:2]').is(b)
+	}
+
+	def 'evicts the names of a metric once it is removed'() {
+		given:
+		MetricName table = new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'ReadLatency', 'ks1.t1')
+		MetricName other = new MetricName('org.apache.cassandra.metrics', 'ColumnFamily', 'ReadLatency', 'ks1.t2')
+
+		when:
+		SeriesName p99 = seriesNames.get(table, 'cassandra.ReadLatency.p99[table:t1]')
+		seriesNames.get(table, 'cassandra.ReadLatency.max[table:t1]')
+		seriesNames.get(other, 'cassandra.ReadLatency.p99[table:t2]')
+		seriesNames.onMetricRemoved(table)
+
+		then:
+		seriesNames.size() == 1
+		!seriesNames.get('cassandra.ReadLatency.p99[table:t1]').is(p99)
+		seriesNames.get('cassandra.ReadLatency.p99[table:t1]').metric == 'cassandra.ReadLatency.p99'
+	}
+}
@@ -0,0 +1,161 @@
+package smartthings.cassandra.datadog.serializer
+
+import org.codehaus.jackson.map.ObjectMapper
+import smartthings.cassandra.datadog.DatadogReporter
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogDistribution
+import smartthings.cassandra.datadog.model.DatadogGauge
+import smartthings.cassandra.datadog.model.QuantileSketch
+import smartthings.cassandra.datadog.model.SeriesBatch
+import smartthings.cassandra.datadog.model.SeriesName
+import smartthings.cassandra.datadog.model.SeriesNames
+import spock.lang.Specification
+
+class StreamingJsonSerializerSpec extends Specification {
+	ObjectMapper mapper = new ObjectMapper()
+
+	def 'produces the same document as the jackson serializer'() {
+		given:
+		Serializer expected = new JsonSerializer()
+		Serializer actual = new StreamingJsonSerializer(new BufferPool(16, 1))
+		List<String> globalTags = ['env:prod']
+
+		when:
+		[expected, actual].each { Serializer serializer ->
+			serializer.startObject()
+			serializer.appendGauge(new DatadogGauge('cassandra.Read.p99[ks:foo,cf:b"ar]', 12.5d, 1000L, 'host1', globalTags))
+			serializer.appendGauge(new DatadogGauge('jvm.thread_count', 42L, 1000L, null, globalTags))
+			serializer.appendCounter(new DatadogCounter('cassandra.Write.counté漢', -17L, 1000L, 'host1', []))
+			serializer.appendCounter(new DatadogCounter(SeriesName.parse('cassandra.Read.count', []), 5L, 1000L, 'host1', 60L))
+			serializer.appendGauge(new DatadogGauge('cassandra.ratio', Double.NaN, 1000L, 'host1', null))
+			serializer.endObject()
+		}
+
+		then:
+		mapper.readValue(actual.getAsString(), Map) == mapper.readValue(expected.getAsString(), Map)
+		actual.getSize() == actual.getAsString().getBytes('UTF-8').length
+	}
+
+	def 'writes the body without a string copy and returns the buffer to the pool'() {
+		given:
+		BufferPool pool = new BufferPool(8, 2)
+		Serializer serializer = new StreamingJsonSerializer(pool)
+		ByteArrayOutputStream out = new ByteArrayOutputStream()
+
+		when:
+		serializer.startObject()
+		serializer.appendCounter(new DatadogCounter('a.b', 1L, 2L, 'h', []))
+		serializer.endObject()
+		serializer.writeTo(out)
+		serializer.close()
+
+		then:
+		out.toString('UTF-8') == '{"series":[{"host":"h","metric":"a.b","tags":[],"points":[[2,1]],"type":"counter"}]}'
+		pool.pooled == 1
+		pool.acquire().length >= out.size()
+	}
+
+	def 'writes the interval of counter deltas'() {
+		given:
+		Serializer serializer = new StreamingJsonSerializer(new BufferPool(8, 1))
+
+		when:
+		serializer.startObject()
+		serializer.appendCounter(new DatadogCounter(SeriesName.parse('a.b', []), 3L, 2L, 'h', 60L))
+		serializer.endObject()
+
+		then:
+		serializer.getAsString() == '{"series":[{"host":"h","metric":"a.b","tags":[],"points":[[2,3]],"type":"count","interval":60}]}'
+	}
+
+	def 'writes rows of a batch like the equivalent series'() {
+		given:
+		SeriesNames names = new SeriesNames(['env:prod'])
+		SeriesBatch batch = new SeriesBatch('host1')
+		batch.addGauge(names.get('cassandra.Read.p99[ks:foo,cf:b"ar]'), 1000L, 12.5d)
+		batch.addGauge(names.get('jvm.thread_count'), 1000L, 42L)
+		batch.addCounter(names.get('cassandra.Write.counté漢'), 1000L, -17L, null)
+		batch.addCounter(names.get('cassandra.Read.count'), 1000L, 5L, 60L)
+		batch.addGauge(names.get('cassandra.ratio'), 1000L, Double.NaN)
+		Serializer expected = new StreamingJsonSerializer(new BufferPool(16, 1))
+		BatchSerializer actual = new StreamingJsonSerializer(new BufferPool(16, 1))
+
+		when:
+		expected.startObject()
+		actual.startObject()
+		(0..<batch.size()).each { int row ->
+			batch.isCounter(row) ? expected.appendCounter(batch.toSeries(row)) : expected.appendGauge(batch.toSeries(row))
+			actual.appendRow(batch, row)
+		}
+		expected.endObject()
+		actual.endObject()
+
+		then:
+		actual.getAsString() == expected.getAsString()
+	}
+
+	def 'writes every point of a series with several points'() {
+		given:
+		SeriesName name = SeriesName.parse('a.b', [])
+		SeriesBatch batch = new SeriesBatch('h')
+		batch.addCounter(name, 1L, 2L, 10L)
+		batch.addPoint(11L, 3L)
+		Serializer expected = new JsonSerializer()
+		BatchSerializer actual = new StreamingJsonSerializer(new BufferPool(8, 1))
+
+		when:
+		[expected, actual].each { it.startObject() }
+		expected.appendCounter(new DatadogCounter(name, [[1L, 2L], [11L, 3L]], 'h', 10L))
+		actual.appendRow(batch, 0)
+		[expected, actual].each { it.endObject() }
+
+		then:
+		actual.getAsString() == '{"series":[{"host":"h","metric":"a.b","tags":[],"points":[[1,2],[11,3]],"type":"count","interval":10}]}'
+		mapper.readValue(actual.getAsString(), Map) == mapper.readValue(expected.getAsString(), Map)
+	}
+
+	def 'writes every value of a distribution as many times as its bin counts'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		[-2d, 0d, 0d, 1d, 1d, 1d, 500d].each { sketch.add(it) }
+		DatadogDistribution distribution = DatadogDistribution.of(new SeriesName('cassandra.Read.Latency', ['ks:foo']),
+			1000L, 'host1', sketch, 100)
+		Serializer expected = new JsonSerializer()
+		Serializer actual = new StreamingJsonSerializer(new BufferPool(16, 1))
+
+		when:
+		[expected, actual].each { Serializer serializer ->
+			serializer.startObject()
+			serializer.appendDistribution(distribution)
+			serializer.endObject()
+		}
+		Map series = mapper.readValue(actual.getAsString(), Map).series[0]
+
+		then:
+		actual.getAsString() == expected.getAsString()
+		series.type == 'distribution'
+		series.points[0][0] == 1000
+		series.points[0][1].size() == 7
+		series.points[0][1].count { it == 0 } == 2
+	}
+
+	def 'keeps a distribution of a full reservoir small at the default number of values'() {
+		given:
+		QuantileSketch sketch = new QuantileSketch()
+		(1..1028).each { sketch.add(it) }
+		DatadogDistribution distribution = DatadogDistribution.of(
+			new SeriesName('cassandra.ColumnFamily.ReadLatency', ['keyspace:ks1', 'table:t1']), 1000L, 'host1',
+			sketch, DatadogReporter.DEFAULT_DISTRIBUTION_VALUES)
+		Serializer serializer = new StreamingJsonSerializer(new BufferPool(16, 1))
+
+		when:
+		serializer.startObject()
+		serializer.appendDistribution(distribution)
+		serializer.endObject()
+
+		then:
+		mapper.readValue(serializer.getAsString(), Map).series[0].points[0][1].size() ==
+			DatadogReporter.DEFAULT_DISTRIBUTION_VALUES
+		serializer.getSize() < 2500
+	}
+}
@@ -0,0 +1,124 @@
+package smartthings.cassandra.datadog.transports
+
+import com.yammer.metrics.core.MetricsRegistry
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogGauge
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class AsyncTransportSpec extends Specification {
+	MetricsRegistry registry = new MetricsRegistry()
+	CountDownLatch release = new CountDownLatch(1)
+	LinkedBlockingQueue<BufferedRequest> delivered = new LinkedBlockingQueue<BufferedRequest>()
+
+	Transport slowTransport = new Transport() {
+		Transport.Request prepare() {
+			new BufferedRequest() {
+				@Override
+				void send() {
+					release.await()
+					delivered.add(this)
+				}
+			}
+		}
+
+		void close() {}
+	}
+
+	def 'sends batches on the sender thread in order'() {
+		given:
+		AsyncTransport transport = new AsyncTransport(slowTransport, 4, AsyncTransport.OverflowPolicy.BLOCK, registry)
+		release.countDown()
+
+		when:
+		sendBatch(transport, 'first')
+		sendBatch(transport, 'second')
+		BufferedRequest first = delivered.poll(5, TimeUnit.SECONDS)
+		BufferedRequest second = delivered.poll(5, TimeUnit.SECONDS)
+
+		then:
+		first.series*.metric == ['first.gauge', 'first.counter']
+		second.series*.metric == ['second.gauge', 'second.counter']
+		transport.queuedBatches == 2
+		transport.droppedBatches == 0
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'drops the oldest batches when the sender falls behind'() {
+		given:
+		AsyncTransport transport = new AsyncTransport(slowTransport, 2, AsyncTransport.OverflowPolicy.DROP_OLDEST, registry)
+
+		when: 'the first batch is stuck in the sender and the queue overflows'
+		sendBatch(transport, 'a')
+		waitForEmptyQueue()
+		['b', 'c', 'd', 'e'].each { sendBatch(transport, it) }
+		release.countDown()
+		List<String> sent = (1..3).collect { delivered.poll(5, TimeUnit.SECONDS).series[0].metric }
+
+		then:
+		sent == ['a.gauge', 'd.gauge', 'e.gauge']
+		transport.droppedBatches == 2
+		transport.queuedBatches == 5
+		registry.allMetrics().keySet()*.name.containsAll(['queued-batches', 'dropped-batches', 'queue-depth'])
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'scopes the metrics of every instance and removes them on close'() {
+		given:
+		AsyncTransport first = new AsyncTransport(slowTransport, 2, AsyncTransport.OverflowPolicy.DROP_OLDEST, registry)
+		AsyncTransport second = new AsyncTransport(slowTransport, 2, AsyncTransport.OverflowPolicy.DROP_OLDEST, registry)
+
+		expect:
+		first.scope != second.scope
+		registry.allMetrics().keySet().findAll { it.name == 'queue-depth' }*.scope as Set == [first.scope, second.scope] as Set
+
+		when:
+		release.countDown()
+		first.close()
+
+		then:
+		registry.allMetrics().keySet()*.scope as Set == [second.scope] as Set
+
+		cleanup:
+		second.close()
+	}
+
+	def 'lets the batch in flight finish on close'() {
+		given:
+		AsyncTransport transport = new AsyncTransport(slowTransport, 2, AsyncTransport.OverflowPolicy.BLOCK, registry)
+		sendBatch(transport, 'a')
+		waitForEmptyQueue()
+
+		when:
+		Thread.start {
+			Thread.sleep(200)
+			release.countDown()
+		}
+		transport.close()
+
+		then:
+		delivered.poll()?.series*.metric == ['a.gauge', 'a.counter']
+	}
+
+	private static void sendBatch(Transport transport, String name) {
+		Transport.Request request = transport.prepare()
+		request.addGauge(new DatadogGauge("${name}.gauge", 1L, 1L, 'host', []))
+		request.addCounter(new DatadogCounter("${name}.counter", 1L, 1L, 'host', []))
+		request.send()
+	}
+
+	private void waitForEmptyQueue() {
+		long deadline = System.currentTimeMillis() + 5000
+		while (registry.allMetrics().find { it.key.name == 'queue-depth' }.value.value() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10)
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package smartthings.cassandra.datadog.transports
+
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogGauge
+import smartthings.cassandra.datadog.model.SeriesBatch
+import smartthings.cassandra.datadog.model.SeriesName
+import smartthings.cassandra.datadog.model.SeriesNames
+import spock.lang.Specification
+
+class DogStatsdTransportSpec extends Specification {
+	DatagramSocket agent = new DatagramSocket(0, InetAddress.getByName('localhost'))
+
+	def cleanup() {
+		agent.close()
+	}
+
+	def 'packs metric lines into datagrams no larger than the mtu'() {
+		given:
+		DogStatsdTransport transport = new DogStatsdTransport.Builder()
+			.withHost('localhost')
+			.withPort(agent.localPort)
+			.withMtu(200)
+			.build()
+		agent.soTimeout = 2000
+
+		when:
+		Transport.Request request = transport.prepare()
+		10.times { int i ->
+			request.addGauge(new DatadogGauge("cassandra.Read.p99[keyspace:ks${i}]", 1.5d, 1L, 'host', ['env:test']))
+			request.addCounter(new DatadogCounter("cassandra.Write.count", (long) i, 1L, 'host', []))
+		}
+		request.send()
+		List<String> datagrams = (1..transport.packetsSent).collect {
+			DatagramPacket packet = new DatagramPacket(new byte[512], 512)
+			agent.receive(packet)
+			new String(packet.data, 0, packet.length, 'UTF-8')
+		}
+		List<String> lines = datagrams.collectMany { it.split('\n') as List }
+
+		then:
+		transport.packetsSent < 20
+		transport.packetsDropped == 0
+		datagrams.every { it.getBytes('UTF-8').length <= 200 }
+		lines.size() == 20
+		lines[0] == 'cassandra.Read.p99:1.5|g|#keyspace:ks0,env:test'
+		lines[1] == 'cassandra.Write.count:0|g'
+		lines[19] == 'cassandra.Write.count:9|g'
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'drops metrics that do not fit into a datagram'() {
+		given:
+		DogStatsdTransport transport = new DogStatsdTransport.Builder().withPort(agent.localPort).withMtu(32).build()
+
+		when:
+		Transport.Request request = transport.prepare()
+		request.addGauge(new DatadogGauge('a.very.long.metric.name.that.does.not.fit', 1L, 1L, 'host', []))
+		request.send()
+
+		then:
+		transport.metricsDropped == 1
+		transport.packetsSent == 0
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'sends counter deltas as dogstatsd counters'() {
+		given:
+		DogStatsdTransport transport = new DogStatsdTransport.Builder()
+			.withHost('localhost')
+			.withPort(agent.localPort)
+			.build()
+		agent.soTimeout = 2000
+		DatagramPacket packet = new DatagramPacket(new byte[512], 512)
+
+		when:
+		Transport.Request request = transport.prepare()
+		request.addCounter(new DatadogCounter(SeriesName.parse('cassandra.Write.count[keyspace:ks1]', []), 12L, 1L, 'host', 60L))
+		request.send()
+		agent.receive(packet)
+
+		then:
+		new String(packet.data, 0, packet.length, 'UTF-8') == 'cassandra.Write.count:12|c|#keyspace:ks1'
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'encodes rows of a batch straight from its columns'() {
+		given:
+		DogStatsdTransport transport = new DogStatsdTransport.Builder()
+			.withHost('localhost')
+			.withPort(agent.localPort)
+			.build()
+		agent.soTimeout = 2000
+		DatagramPacket packet = new DatagramPacket(new byte[512], 512)
+		SeriesNames names = new SeriesNames(['env:test'])
+		SeriesBatch batch = new SeriesBatch('host')
+		batch.addGauge(names.get('cassandra.Read.p99[keyspace:ks1]'), 1L, 1.5d)
+		batch.addCounter(names.get('cassandra.Write.count'), 1L, 7L, null)
+		batch.addCounter(names.get('cassandra.Read.count'), 1L, 3L, 60L)
+
+		when:
+		Transport.BatchRequest request = (Transport.BatchRequest) transport.prepare()
+		request.addBatch(batch)
+		request.send()
+		agent.receive(packet)
+
+		then:
+		new String(packet.data, 0, packet.length, 'UTF-8').split('\n') as List == [
+			'cassandra.Read.p99:1.5|g|#keyspace:ks1,env:test',
+			'cassandra.Write.count:7|g|#env:test',
+			'cassandra.Read.count:3|c|#env:test'
+		]
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'skips values dogstatsd does not take'() {
+		given:
+		DogStatsdTransport transport = new DogStatsdTransport.Builder()
+			.withHost('localhost')
+			.withPort(agent.localPort)
+			.build()
+		agent.soTimeout = 2000
+		DatagramPacket packet = new DatagramPacket(new byte[512], 512)
+		SeriesBatch batch = new SeriesBatch('host')
+		batch.addGauge(new SeriesName('cassandra.Read.mean', []), 1L, Double.POSITIVE_INFINITY)
+		batch.addGauge(new SeriesName('cassandra.Read.max', []), 1L, 2L)
+
+		when:
+		Transport.BatchRequest request = (Transport.BatchRequest) transport.prepare()
+		request.addGauge(new DatadogGauge('cassandra.Read.p99', Double.NaN, 1L, 'host', []))
+		request.addBatch(batch)
+		request.send()
+		agent.receive(packet)
+
+		then:
+		new String(packet.data, 0, packet.length, 'UTF-8') == 'cassandra.Read.max:2|g'
+		transport.metricsDropped == 0
+
+		cleanup:
+		transport.close()
+	}
+}
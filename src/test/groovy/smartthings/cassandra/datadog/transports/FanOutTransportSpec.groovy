@@ -0,0 +1,148 @@
+package smartthings.cassandra.datadog.transports
+
+import com.yammer.metrics.core.MetricsRegistry
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogGauge
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+class FanOutTransportSpec extends Specification {
+	MetricsRegistry registry = new MetricsRegistry()
+	CountDownLatch release = new CountDownLatch(1)
+	LinkedBlockingQueue<BufferedRequest> fastDelivered = new LinkedBlockingQueue<BufferedRequest>()
+	LinkedBlockingQueue<BufferedRequest> slowDelivered = new LinkedBlockingQueue<BufferedRequest>()
+
+	def 'sends every batch to every destination'() {
+		given:
+		release.countDown()
+		FanOutTransport transport = new FanOutTransport.Builder()
+			.withDestination('datadog', collecting(fastDelivered, null))
+			.withDestination('file', collecting(slowDelivered, release))
+			.withMetricsRegistry(registry)
+			.build()
+
+		when:
+		sendBatch(transport, 'first')
+		sendBatch(transport, 'second')
+
+		then:
+		[fastDelivered, slowDelivered].every { LinkedBlockingQueue<BufferedRequest> delivered ->
+			delivered.poll(5, TimeUnit.SECONDS).getSeries()*.metric == ['first.gauge', 'first.counter'] &&
+				delivered.poll(5, TimeUnit.SECONDS).getSeries()*.metric == ['second.gauge', 'second.counter']
+		}
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'a slow destination neither delays the others nor the caller'() {
+		given:
+		FanOutTransport transport = new FanOutTransport.Builder()
+			.withDestination('fast', collecting(fastDelivered, null))
+			.withDestination('slow', collecting(slowDelivered, release))
+			.withQueueDepth(2)
+			.withMetricsRegistry(registry)
+			.build()
+		FanOutTransport.Destination slow = transport.destinations[1]
+
+		when: 'the slow destination is stuck on its first batch'
+		sendBatch(transport, 'a')
+		new PollingConditions(timeout: 5).eventually {
+			assert queueDepth('slow') == 0
+		}
+		List<String> fastSent = ['a', 'b', 'c', 'd', 'e'].collect {
+			if (it != 'a') {
+				sendBatch(transport, it)
+			}
+			fastDelivered.poll(5, TimeUnit.SECONDS).getSeries()[0].metric
+		}
+
+		then:
+		fastSent == ['a.gauge', 'b.gauge', 'c.gauge', 'd.gauge', 'e.gauge']
+		new PollingConditions(timeout: 5).eventually {
+			assert slow.droppedBatches == 2
+		}
+
+		when:
+		release.countDown()
+
+		then: 'it catches up with the newest batches'
+		(1..3).collect { slowDelivered.poll(5, TimeUnit.SECONDS).getSeries()[0].metric } == ['a.gauge', 'd.gauge', 'e.gauge']
+
+		cleanup:
+		release.countDown()
+		transport.close()
+	}
+
+	def 'counts errors and latency per destination'() {
+		given:
+		Transport failing = new Transport() {
+			Transport.Request prepare() {
+				throw new IOException('unreachable')
+			}
+
+			void close() {}
+		}
+		FanOutTransport transport = new FanOutTransport.Builder()
+			.withDestination('failing', failing)
+			.withDestination('working', collecting(fastDelivered, null))
+			.withMetricsRegistry(registry)
+			.build()
+
+		when:
+		sendBatch(transport, 'a')
+
+		then:
+		fastDelivered.poll(5, TimeUnit.SECONDS) != null
+		new PollingConditions(timeout: 5).eventually {
+			assert transport.destinations[0].errors == 1
+			assert transport.destinations[0].latency.count() == 1
+		}
+		transport.destinations[1].errors == 0
+
+		cleanup:
+		transport.close()
+	}
+
+	private static Transport collecting(LinkedBlockingQueue<BufferedRequest> delivered, CountDownLatch release) {
+		new CollectingTransport(delivered: delivered, release: release)
+	}
+
+	private static void sendBatch(Transport transport, String prefix) {
+		Transport.Request request = transport.prepare()
+		request.addGauge(new DatadogGauge("${prefix}.gauge", 1L, 1L, 'host', []))
+		request.addCounter(new DatadogCounter("${prefix}.counter", 1L, 1L, 'host', []))
+		request.send()
+	}
+
+	private int queueDepth(String destination) {
+		registry.allMetrics().find { it.key.name == 'queue-depth' && it.key.scope == destination }.value.value()
+	}
+
+	static class CollectingTransport implements Transport {
+		LinkedBlockingQueue<BufferedRequest> delivered
+		CountDownLatch release
+
+		Transport.Request prepare() {
+			new CollectingRequest(delivered: delivered, release: release)
+		}
+
+		void close() {}
+	}
+
+	static class CollectingRequest extends BufferedRequest {
+		LinkedBlockingQueue<BufferedRequest> delivered
+		CountDownLatch release
+
+		@Override
+		void send() {
+			release?.await()
+			delivered.add(this)
+		}
+	}
+}
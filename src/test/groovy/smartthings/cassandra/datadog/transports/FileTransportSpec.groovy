@@ -0,0 +1,182 @@
+package smartthings.cassandra.datadog.transports
+
+import com.yammer.metrics.core.Clock
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogGauge
+import smartthings.cassandra.datadog.model.DatadogSeries
+import smartthings.cassandra.datadog.model.SeriesBatch
+import smartthings.cassandra.datadog.model.SeriesName
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class FileTransportSpec extends Specification {
+	File dir = File.createTempDir()
+	TestClock clock = new TestClock()
+
+	def cleanup() {
+		dir.deleteDir()
+	}
+
+	def 'writes the same lines as String.format'() {
+		given:
+		File file = new File(dir, 'metrics.log')
+		FileTransport transport = new FileTransport(file.path)
+
+		when:
+		Transport.Request request = transport.prepare()
+		request.addGauge(new DatadogGauge('cassandra.Read.p99', 1.5d, 1000L, 'host', []))
+		request.addGauge(new DatadogGauge('cassandra.Load', Long.MIN_VALUE, 1000L, 'a.long.host.name', []))
+		request.addCounter(new DatadogCounter('cassandra.Write.count', 7L, 1000L, 'höst', []))
+		request.send()
+		transport.close()
+		List<String> lines = file.readLines('UTF-8')
+
+		then:
+		lines.size() == 4
+		lines[0].startsWith('+++++++++++++++++++++ ')
+		lines[1] == String.format('%-10s %-10s %-12s %-20s %s', 'host', 'gauge', 1000L, 1.5d, 'cassandra.Read.p99')
+		lines[2] == String.format('%-10s %-10s %-12s %-20s %s', 'a.long.host.name', 'gauge', 1000L, Long.MIN_VALUE,
+			'cassandra.Load')
+		lines[3] == String.format('%-10s %-10s %-12s %-20s %s', 'höst', 'counter', 1000L, 7L, 'cassandra.Write.count')
+	}
+
+	def 'reads back binary records'() {
+		given:
+		File file = new File(dir, 'metrics.bin')
+		FileTransport transport = binary(file)
+		SeriesName delta = new SeriesName('cassandra.Write.delta', ['keyspace:é'])
+		SeriesBatch batch = new SeriesBatch('node1')
+		batch.addCounter(delta, 990L, 5L, 10L)
+		batch.addPoint(1000L, -6L)
+		batch.addGauge(new SeriesName('cassandra.Read.p99', []), 1000L, 2L)
+		batch.addPoint(1010L, 2.5d)
+
+		when:
+		Transport.Request request = transport.prepare()
+		request.addGauge(new DatadogGauge('cassandra.Load', 12L, 1000L, 'node1', ['env:test']))
+		request.addBatch(batch)
+		request.send()
+		clock.now = 2000
+		request = transport.prepare()
+		batch.clear()
+		batch.addCounter(delta, 1010L, 3L, 10L)
+		request.addBatch(batch)
+		request.send()
+		transport.close()
+		List<DatadogSeries> series = readAll(file)
+
+		then:
+		series*.metric == ['cassandra.Load', 'cassandra.Write.delta', 'cassandra.Read.p99', 'cassandra.Write.delta']
+		series*.host == ['node1', 'node1', 'node1', 'node1']
+		series[0].tags == ['env:test']
+		series[0].points == [[1000L, 12L]]
+		series[1] instanceof DatadogCounter
+		series[1].interval == 10L
+		series[1].tags == ['keyspace:é']
+		series[1].points == [[990L, 5L], [1000L, -6L]]
+		series[2].points == [[1000L, 2L], [1010L, 2.5d]]
+		series[3].points == [[1010L, 3L]]
+	}
+
+	def 'appends to an existing binary file and ignores a record cut short'() {
+		given:
+		File file = new File(dir, 'metrics.bin')
+		2.times { int i ->
+			FileTransport transport = binary(file)
+			Transport.Request request = transport.prepare()
+			request.addGauge(new DatadogGauge("metric${i}", (long) i, 1000L, 'host', []))
+			request.send()
+			transport.close()
+		}
+		byte[] bytes = file.bytes
+		File cut = new File(dir, 'cut.bin')
+		cut.bytes = Arrays.copyOf(bytes, bytes.length - 1)
+
+		expect:
+		readAll(file)*.metric == ['metric0', 'metric1']
+		readAll(cut)*.metric == ['metric0']
+	}
+
+	def 'rotates by size and keeps the newest files'() {
+		given:
+		File file = new File(dir, 'metrics.log')
+		FileTransport transport = new FileTransport.Builder()
+			.withFile(file)
+			.withMaxFileBytes(200)
+			.withMaxFiles(2)
+			.withClock(clock)
+			.build()
+
+		when:
+		(1..5).each { int poll ->
+			clock.now = poll
+			Transport.Request request = transport.prepare()
+			3.times { request.addGauge(new DatadogGauge("metric${it}", 1L, 1L, 'host', [])) }
+			request.send()
+		}
+		transport.close()
+
+		then:
+		transport.rotations == 4
+		dir.list().findAll { it.startsWith('metrics.log.') }.sort() == ['metrics.log.4', 'metrics.log.5']
+		file.readLines().size() == 4
+	}
+
+	def 'rotates by time'() {
+		given:
+		File file = new File(dir, 'metrics.log')
+		FileTransport transport = new FileTransport.Builder()
+			.withFile(file)
+			.withRotationInterval(1, TimeUnit.MINUTES)
+			.withClock(clock)
+			.build()
+
+		when:
+		[0L, 30000L, 60000L, 70000L, 130000L].each {
+			clock.now = it
+			transport.prepare().send()
+		}
+		transport.close()
+
+		then:
+		transport.rotations == 2
+		new File(dir, 'metrics.log.60000').exists()
+		new File(dir, 'metrics.log.130000').exists()
+	}
+
+	private FileTransport binary(File file) {
+		new FileTransport.Builder()
+			.withFile(file)
+			.withFormat(FileTransport.Format.BINARY)
+			.withBufferSize(64)
+			.withClock(clock)
+			.build()
+	}
+
+	private static List<DatadogSeries> readAll(File file) {
+		RecordReader reader = new RecordReader(file)
+		List<DatadogSeries> series = []
+		DatadogSeries next
+		while ((next = reader.next()) != null) {
+			series << next
+		}
+		reader.close()
+		series
+	}
+
+	static class TestClock extends Clock {
+		long now = 1000
+
+		@Override
+		long tick() {
+			now * 1000000
+		}
+
+		@Override
+		long time() {
+			now
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package smartthings.cassandra.datadog.transports
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.codehaus.jackson.map.ObjectMapper
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogCounter
+import smartthings.cassandra.datadog.model.DatadogDistribution
+import smartthings.cassandra.datadog.model.DatadogGauge
+import smartthings.cassandra.datadog.model.QuantileSketch
+import smartthings.cassandra.datadog.model.SeriesName
+import smartthings.cassandra.datadog.serializer.StreamingJsonSerializer
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.util.zip.GZIPInputStream
+import java.util.zip.InflaterInputStream
+
+class HttpTransportSpec extends Specification {
+	HttpServer server
+	List<Map> received = [].asSynchronized()
+	List<Integer> responses = [].asSynchronized()
+	File spillDirectory = File.createTempDir()
+
+	def setup() {
+		server = HttpServer.create(new InetSocketAddress('localhost', 0), 0)
+		HttpHandler handler = new HttpHandler() {
+			void handle(HttpExchange exchange) {
+				byte[] body = exchange.requestBody.bytes
+				received << [
+					path    : exchange.requestURI.path,
+					encoding: exchange.requestHeaders.getFirst('Content-Encoding'),
+					query   : exchange.requestURI.query,
+					body    : body,
+					spilled : spillDirectory.list().toList()
+				]
+				exchange.sendResponseHeaders(responses ? responses.remove(0) : 202, -1)
+				exchange.close()
+			}
+		}
+		server.createContext('/api/v1/series', handler)
+		server.createContext('/api/v1/distribution_points', handler)
+		server.start()
+	}
+
+	def cleanup() {
+		server.stop(0)
+		spillDirectory.deleteDir()
+	}
+
+	@Unroll
+	def 'streams #compression compressed bodies that decompress to the plain body'() {
+		given:
+		HttpTransport plain = transport(HttpTransport.Compression.NONE)
+		HttpTransport compressed = transport(compression)
+
+		when:
+		sendSeries(plain, 2000)
+		sendSeries(compressed, 2000)
+		int plainBytes = (received[0].body as byte[]).length
+		int wireBytes = (received[1].body as byte[]).length
+
+		then:
+		received.size() == 2
+		received[0].encoding == null
+		received[1].encoding == compression.contentEncoding
+		received[1].query == 'api_key=abc'
+		decompress(compression, received[1].body as byte[]) == received[0].body
+
+		and: 'bytes on the wire shrink substantially'
+		wireBytes < plainBytes / 5
+
+		where:
+		compression << [HttpTransport.Compression.GZIP, HttpTransport.Compression.DEFLATE]
+	}
+
+	@Unroll
+	def 'splits #compression requests into batches of at most 300 series'() {
+		given:
+		List<HttpTransport.BatchStats> batches = [].asSynchronized()
+		HttpTransport transport = new HttpTransport.Builder()
+			.withBaseUrl("http://localhost:${server.address.port}")
+			.withSerializerFactory(new StreamingJsonSerializer.Factory())
+			.withCompression(compression)
+			.withMaxBatchSeries(300)
+			.withSenderThreads(2)
+			.build()
+		transport.addBatchListener(new HttpTransport.BatchListener() {
+			void onBatch(HttpTransport.BatchStats stats) {
+				batches << stats
+			}
+		})
+
+		when:
+		sendSeries(transport, 500)
+
+		then:
+		received.size() == 4
+		batches.size() == 4
+		batches*.series.sort() == [100, 300, 300, 300]
+		batches.every { it.success && it.bytes > 0 }
+
+		cleanup:
+		transport.close()
+
+		where:
+		compression << [HttpTransport.Compression.NONE, HttpTransport.Compression.GZIP]
+	}
+
+	@Unroll
+	def 'spills #compression batches that failed with a server error and replays them'() {
+		given:
+		HttpTransport transport = new HttpTransport.Builder()
+			.withBaseUrl("http://localhost:${server.address.port}")
+			.withSerializerFactory(new StreamingJsonSerializer.Factory())
+			.withCompression(compression)
+			.withSpill(spillDirectory, 1024 * 1024, 60000)
+			.withSpillBackoff(10, 100)
+			.build()
+		responses.addAll([503, 503])
+
+		when:
+		sendSeries(transport, 200)
+
+		then:
+		new PollingConditions(timeout: 5).eventually {
+			assert received.size() == 3
+			assert transport.spill.pending == 0
+		}
+		received*.encoding.unique() == [compression.contentEncoding]
+		received[1].body == received[0].body
+		received[2].body == received[0].body
+
+		cleanup:
+		transport.close()
+
+		where:
+		compression << [HttpTransport.Compression.NONE, HttpTransport.Compression.GZIP]
+	}
+
+	def 'keeps delivered compressed batches off the disk'() {
+		given:
+		HttpTransport transport = new HttpTransport.Builder()
+			.withBaseUrl("http://localhost:${server.address.port}")
+			.withSerializerFactory(new StreamingJsonSerializer.Factory())
+			.withCompression(HttpTransport.Compression.GZIP)
+			.withSpill(spillDirectory, 1024 * 1024, 60000)
+			.build()
+
+		when:
+		sendSeries(transport, 200)
+
+		then:
+		received.size() == 1
+		received[0].spilled == []
+		spillDirectory.list().length == 0
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'spills the copy of a body larger than its memory limit from a segment'() {
+		given:
+		SpillBuffer spill = new SpillBuffer(spillDirectory, 1024 * 1024, 60000, 60000, 60000, Mock(SpillBuffer.Sender))
+		HttpTransport.SpillingOutputStream output = new HttpTransport.SpillingOutputStream(
+			new ByteArrayOutputStream(), spill, HttpTransport.Compression.GZIP, 16)
+		byte[] body = (0..<100).collect { it as byte } as byte[]
+
+		when:
+		output.write(body, 0, 10)
+		int afterSmallWrite = spillDirectory.list().length
+		output.write(body, 10, 90)
+		output.close()
+		boolean kept = output.spill()
+
+		then:
+		afterSmallWrite == 0
+		kept
+		spill.pending == 1
+		spillDirectory.listFiles()[0].bytes == body
+
+		cleanup:
+		spill.close()
+	}
+
+	def 'drops and reports batches rejected with a client error'() {
+		given:
+		HttpTransport transport = new HttpTransport.Builder()
+			.withBaseUrl("http://localhost:${server.address.port}")
+			.withSpill(spillDirectory, 1024 * 1024, 60000)
+			.build()
+		responses.add(403)
+
+		when:
+		sendSeries(transport, 10)
+
+		then:
+		thrown(IOException)
+		received.size() == 1
+		transport.spill.pending == 0
+
+		cleanup:
+		transport.close()
+	}
+
+	def 'posts distributions to the distribution points intake'() {
+		given:
+		HttpTransport transport = transport(HttpTransport.Compression.GZIP)
+		QuantileSketch sketch = new QuantileSketch()
+		(1..100).each { sketch.add(it) }
+
+		when:
+		Transport.DistributionRequest request = (Transport.DistributionRequest) transport.prepare()
+		request.addGauge(new DatadogGauge('cassandra.Load', 1L, 1400000000L, 'node1', []))
+		request.addDistribution(DatadogDistribution.of(new SeriesName('cassandra.Read.Latency', []), 1400000000L,
+			'node1', sketch, 1000))
+		request.send()
+		Map distributions = received.find { it.path == '/api/v1/distribution_points' }
+		byte[] body = decompress(HttpTransport.Compression.GZIP, distributions.body as byte[])
+		Map series = new ObjectMapper().readValue(body, Map).series[0]
+
+		then:
+		received*.path.sort() == ['/api/v1/distribution_points', '/api/v1/series']
+		distributions.encoding == 'gzip'
+		distributions.query == 'api_key=abc'
+		series.metric == 'cassandra.Read.Latency'
+		series.type == 'distribution'
+		series.points[0][1].size() == 100
+
+		cleanup:
+		transport.close()
+	}
+
+	private HttpTransport transport(HttpTransport.Compression compression) {
+		new HttpTransport.Builder()
+			.withBaseUrl("http://localhost:${server.address.port}")
+			.withApiKey('abc')
+			.withSerializerFactory(new StreamingJsonSerializer.Factory())
+			.withCompression(compression)
+			.build()
+	}
+
+	private static void sendSeries(HttpTransport transport, int count) {
+		Transport.Request request = transport.prepare()
+		count.times { int i ->
+			request.addGauge(new DatadogGauge("cassandra.ColumnFamily.ReadLatency.p99[keyspace:ks${i % 10}]", i * 1.5d, 1400000000L, 'node1', ['env:test']))
+			request.addCounter(new DatadogCounter("cassandra.ColumnFamily.WriteCount[keyspace:ks${i % 10}]", (long) i, 1400000000L, 'node1', ['env:test']))
+		}
+		request.send()
+	}
+
+	private static byte[] decompress(HttpTransport.Compression compression, byte[] body) {
+		InputStream input = compression == HttpTransport.Compression.GZIP ?
+			new GZIPInputStream(new ByteArrayInputStream(body)) :
+			new InflaterInputStream(new ByteArrayInputStream(body))
+		input.bytes
+	}
+}
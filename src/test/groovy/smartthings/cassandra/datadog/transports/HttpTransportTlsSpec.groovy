@@ -0,0 +1,106 @@
+package smartthings.cassandra.datadog.transports
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpsConfigurator
+import com.sun.net.httpserver.HttpsServer
+import smartthings.cassandra.datadog.Transport
+import smartthings.cassandra.datadog.model.DatadogGauge
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.net.ssl.KeyManagerFactory
+import javax.net.ssl.SSLContext
+import javax.net.ssl.SSLSocketFactory
+import javax.net.ssl.TrustManagerFactory
+import java.security.KeyStore
+
+class HttpTransportTlsSpec extends Specification {
+	@Shared
+	KeyStore keyStore
+
+	HttpsServer server
+	List<Integer> clientPorts = [].asSynchronized()
+
+	def setupSpec() {
+		File file = File.createTempFile('datadog-test', '.jks')
+		file.delete()
+		String keytool = new File(System.getProperty('java.home'), 'bin/keytool').path
+		Process process = [keytool, '-genkeypair', '-alias', 'test', '-keyalg', 'RSA', '-keysize', '2048',
+						   '-dname', 'CN=localhost', '-validity', '1', '-storetype', 'JKS', '-keystore', file.path,
+						   '-storepass', 'changeit', '-keypass', 'changeit'].execute()
+		process.waitFor()
+		keyStore = KeyStore.getInstance('JKS')
+		file.withInputStream { keyStore.load(it, 'changeit'.toCharArray()) }
+		file.delete()
+	}
+
+	def setup() {
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.defaultAlgorithm)
+		keyManagers.init(keyStore, 'changeit'.toCharArray())
+		SSLContext serverContext = SSLContext.getInstance('TLS')
+		serverContext.init(keyManagers.keyManagers, null, null)
+
+		server = HttpsServer.create(new InetSocketAddress('localhost', 0), 0)
+		server.httpsConfigurator = new HttpsConfigurator(serverContext)
+		HttpHandler handler = new HttpHandler() {
+			void handle(HttpExchange exchange) {
+				exchange.requestBody.bytes
+				clientPorts << exchange.remoteAddress.port
+				byte[] response = '{"status":"ok"}'.bytes
+				exchange.sendResponseHeaders(202, response.length)
+				exchange.responseBody.write(response)
+				exchange.close()
+			}
+		}
+		server.createContext('/api/v1/series', handler)
+		server.createContext('/api/v1/validate', handler)
+		server.start()
+	}
+
+	def cleanup() {
+		server.stop(0)
+	}
+
+	def 'pre-warms and keeps reusing one tls connection across polls'() {
+		given:
+		List<HttpTransport.BatchStats> batches = [].asSynchronized()
+		HttpTransport transport = new HttpTransport.Builder()
+			.withBaseUrl("https://localhost:${server.address.port}")
+			.withApiKey('abc')
+			.withSslSocketFactory(clientSocketFactory())
+			.build()
+		transport.addBatchListener(new HttpTransport.BatchListener() {
+			void onBatch(HttpTransport.BatchStats stats) {
+				batches << stats
+			}
+		})
+
+		when:
+		boolean warmed = transport.prewarm()
+		3.times { int i ->
+			Transport.Request request = transport.prepare()
+			request.addGauge(new DatadogGauge('cassandra.Read.p99', i, 1L, 'host', []))
+			request.send()
+		}
+
+		then:
+		warmed
+		batches.size() == 3
+		batches.every { it.success }
+		clientPorts.size() == 4
+		clientPorts.toSet().size() == 1
+	}
+
+	private SSLContext clientContext() {
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.defaultAlgorithm)
+		trustManagers.init(keyStore)
+		SSLContext clientContext = SSLContext.getInstance('TLS')
+		clientContext.init(null, trustManagers.trustManagers, null)
+		clientContext
+	}
+
+	private SSLSocketFactory clientSocketFactory() {
+		clientContext().socketFactory
+	}
+}